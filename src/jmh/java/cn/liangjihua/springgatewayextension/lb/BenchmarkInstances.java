@@ -0,0 +1,88 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_WEIGHT_KEY;
+
+/**
+ * 基准测试使用的服务实例及请求版本号生成工具
+ */
+public final class BenchmarkInstances {
+    public static final String SERVICE_ID = "benchmark-service";
+
+    /**
+     * 本机回环地址，{@link LocalAddressResolver} 总是将其视为本机地址
+     */
+    public static final String LOCAL_HOST = "127.0.0.1";
+
+    private BenchmarkInstances() {
+    }
+
+    /**
+     * 生成实例列表：前 versionCount 个实例分别带有版本号 dev-0 ~ dev-(versionCount-1)，
+     * 其余实例没有版本号，实例的权重在 1 ~ 3 之间循环.
+     *
+     * @param instanceCount 实例数量
+     * @param versionCount 版本数量（不同开发人员的数量）
+     * @param localInstance 是否包含一个部署在本机的实例
+     * @return 不可变的实例列表
+     */
+    public static List<ServiceInstance> instances(int instanceCount, int versionCount, boolean localInstance) {
+        List<ServiceInstance> instances = new ArrayList<>(instanceCount);
+        for (int i = 0; i < instanceCount; i++) {
+            String host = localInstance && i == instanceCount - 1 ? LOCAL_HOST
+                : "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+            String weight = String.valueOf(1 + i % 3);
+            Map<String, String> metadata = i < versionCount
+                ? Map.of(SERVICE_META_VERSION_KEY, version(i), SERVICE_META_WEIGHT_KEY, weight)
+                : Map.of(SERVICE_META_WEIGHT_KEY, weight);
+            instances.add(new DefaultServiceInstance(SERVICE_ID + "-" + i, SERVICE_ID, host, 8080, false,
+                metadata));
+        }
+        return Collections.unmodifiableList(instances);
+    }
+
+    public static String version(int index) {
+        return "dev-" + index;
+    }
+
+    /**
+     * 按照流量比例生成请求版本号序列.
+     * <p></p>
+     * mix 的格式为 hit:miss:fallback，分别表示：
+     * 命中已存在版本的请求、指定了不存在版本的请求、没有指定版本的请求所占的比例。
+     *
+     * @param mix 流量比例，例如 80:15:5
+     * @param versionCount 已存在的版本数量
+     * @param size 序列长度
+     * @return 版本号序列，没有指定版本的请求对应 null
+     */
+    public static String[] requestVersions(String mix, int versionCount, int size) {
+        String[] ratios = mix.split(":");
+        int hit = Integer.parseInt(ratios[0]);
+        int miss = Integer.parseInt(ratios[1]);
+        int fallback = Integer.parseInt(ratios[2]);
+        int total = hit + miss + fallback;
+        Random random = new Random(42);
+        String[] versions = new String[size];
+        for (int i = 0; i < size; i++) {
+            int value = random.nextInt(total);
+            if (value < hit && versionCount > 0) {
+                versions[i] = version(random.nextInt(versionCount));
+            } else if (value < hit + miss) {
+                versions[i] = "absent-" + random.nextInt(1024);
+            } else {
+                versions[i] = null;
+            }
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,84 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetectionProperties;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverChain;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Response;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VersionLoadBalancer#getInstanceResponse} 的基准测试.
+ * <p></p>
+ * 实例列表保持不变时测量的是每次请求的选取开销；{@link #rebuildIndex} 测量实例列表变化后重建路由索引的开销。
+ * 线程数通过 jmh 的 -t 参数指定，例如 -Djmh.args="VersionLoadBalancerBenchmark -t 8 -prof gc"。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionLoadBalancerBenchmark {
+    private static final int REQUEST_MASK = 1023;
+
+    @Param({"10", "100", "1000", "5000"})
+    public int instanceCount;
+
+    @Param({"1", "10", "100"})
+    public int versionCount;
+
+    /**
+     * 流量比例 hit:miss:fallback，见 {@link BenchmarkInstances#requestVersions}
+     */
+    @Param({"100:0:0", "80:15:5", "0:0:100"})
+    public String mix;
+
+    @Param({"false", "true"})
+    public boolean localInstance;
+
+    private VersionLoadBalancer loadBalancer;
+
+    private List<ServiceInstance> instances;
+
+    private String[] requestVersions;
+
+    private LocalAddressResolver localAddressResolver;
+
+    private InstanceStatsRegistry statsRegistry;
+
+    @Setup
+    public void setup() {
+        localAddressResolver = new LocalAddressResolver();
+        statsRegistry = new InstanceStatsRegistry();
+        // 直接调用 getInstanceResponse，不需要 ServiceInstanceListSupplier
+        loadBalancer = new VersionLoadBalancer(null, BenchmarkInstances.SERVICE_ID, new RoundRuleChooser(),
+            localAddressResolver, VersionResolverChain.defaultChain(), statsRegistry,
+            new OutlierDetector(new OutlierDetectionProperties(), statsRegistry));
+        instances = BenchmarkInstances.instances(instanceCount, Math.min(versionCount, instanceCount),
+            localInstance);
+        requestVersions = BenchmarkInstances.requestVersions(mix, Math.min(versionCount, instanceCount),
+            REQUEST_MASK + 1);
+    }
+
+    @State(Scope.Thread)
+    public static class RequestCursor {
+        int next;
+    }
+
+    @Benchmark
+    public Response<ServiceInstance> getInstanceResponse(RequestCursor cursor) {
+        String version = requestVersions[cursor.next++ & REQUEST_MASK];
+        return loadBalancer.getInstanceResponse(instances, version);
+    }
+
+    @Benchmark
+    public VersionRoutingIndex rebuildIndex() {
+        return VersionRoutingIndex.build(instances, localAddressResolver, statsRegistry);
+    }
+}
@@ -0,0 +1,113 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.BenchmarkInstances;
+import cn.liangjihua.springgatewayextension.lb.config.VersionIsolationProperties;
+import cn.liangjihua.springgatewayextension.lb.slowstart.SlowStart;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IRuleChooser} 实现的基准测试.
+ * <p></p>
+ * 新增的选择器将其全限定类名加入到 {@link #chooser} 参数中即可，
+ * 选择器的构造方法参数可以是 {@link InstanceStatsRegistry}、{@link VersionIsolationProperties} 或 {@link SlowStart}。
+ * 多线程下的竞争情况通过 jmh 的 -t 参数测量。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleChooserBenchmark {
+    private static final int REQUEST_MASK = 1023;
+
+    @Param({
+        "cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser",
+        "cn.liangjihua.springgatewayextension.lb.chooser.RandomRuleChooser",
+        "cn.liangjihua.springgatewayextension.lb.chooser.WeightedRoundRuleChooser",
+        "cn.liangjihua.springgatewayextension.lb.chooser.LeastRequestRuleChooser",
+        "cn.liangjihua.springgatewayextension.lb.chooser.PeakEwmaRuleChooser",
+        "cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashRuleChooser"
+    })
+    public String chooser;
+
+    @Param({"1", "10", "100", "1000", "5000"})
+    public int instanceCount;
+
+    private IRuleChooser ruleChooser;
+
+    private List<ServiceInstance> instances;
+
+    /**
+     * 携带不同哈希键的请求，供需要请求上下文的选择器使用
+     */
+    private RequestDataContext[] requests;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        ruleChooser = newChooser(Class.forName(chooser), new InstanceStatsRegistry());
+        instances = CandidateInstances.of(BenchmarkInstances.instances(instanceCount, 0, false));
+        String hashHeader = new VersionIsolationProperties().getConsistentHash().getHeader();
+        requests = new RequestDataContext[REQUEST_MASK + 1];
+        for (int i = 0; i < requests.length; i++) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(hashHeader, "user-" + i);
+            requests[i] = new RequestDataContext(new RequestData(HttpMethod.GET,
+                URI.create("http://benchmark-service/api/users/" + i), headers, new LinkedMultiValueMap<>(),
+                new HashMap<>()));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RequestCursor {
+        int next;
+    }
+
+    @Benchmark
+    public ServiceInstance choose() {
+        return ruleChooser.choose(instances);
+    }
+
+    @Benchmark
+    public ServiceInstance chooseWithRequest(RequestCursor cursor) {
+        return ruleChooser.choose(instances, requests[cursor.next++ & REQUEST_MASK]);
+    }
+
+    /**
+     * 使用构造方法参数可以解析的构造方法创建选择器，其他基准测试及模拟也使用此方法
+     */
+    public static IRuleChooser newChooser(Class<?> chooserClass, InstanceStatsRegistry statsRegistry)
+        throws ReflectiveOperationException {
+        Map<Class<?>, Object> dependencies = Map.of(
+            InstanceStatsRegistry.class, statsRegistry,
+            VersionIsolationProperties.class, new VersionIsolationProperties(),
+            SlowStart.class, SlowStart.DISABLED);
+        for (Constructor<?> constructor : chooserClass.getConstructors()) {
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            Object[] args = new Object[parameterTypes.length];
+            boolean resolved = true;
+            for (int i = 0; i < parameterTypes.length && resolved; i++) {
+                args[i] = dependencies.get(parameterTypes[i]);
+                resolved = args[i] != null;
+            }
+            if (resolved) {
+                return (IRuleChooser) constructor.newInstance(args);
+            }
+        }
+        throw new NoSuchMethodException("没有可用的构造方法：" + chooserClass.getName());
+    }
+}
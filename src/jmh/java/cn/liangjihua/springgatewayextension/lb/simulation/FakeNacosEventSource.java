@@ -0,0 +1,68 @@
+package cn.liangjihua.springgatewayextension.lb.simulation;
+
+import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.alibaba.nacos.client.naming.event.InstancesChangeEvent;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟 nacos 推送：注册中心变化之后，经过传播延迟将 {@link InstancesChangeEvent}
+ * 交给 {@link ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh}.
+ */
+public class FakeNacosEventSource implements AutoCloseable {
+    private final String serviceId;
+
+    private final ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh subscriber;
+
+    private final long propagationMillis;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "fake-nacos-push");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FakeNacosEventSource(String serviceId, ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh subscriber,
+                                long propagationMillis) {
+        this.serviceId = serviceId;
+        this.subscriber = subscriber;
+        this.propagationMillis = propagationMillis;
+    }
+
+    /**
+     * 注册中心变化时调用，见 {@link InMemoryRegistry#addListener}
+     */
+    public void onChange(List<ServiceInstance> instances) {
+        InstancesChangeEvent event = new InstancesChangeEvent(null, "DEFAULT_GROUP@@" + serviceId,
+            "DEFAULT_GROUP", "", toHosts(instances));
+        executor.schedule(() -> subscriber.onEvent(event), propagationMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static List<Instance> toHosts(List<ServiceInstance> instances) {
+        List<Instance> hosts = new ArrayList<>(instances.size());
+        for (ServiceInstance instance : instances) {
+            Instance host = new Instance();
+            host.setInstanceId(instance.getInstanceId());
+            host.setIp(instance.getHost());
+            host.setPort(instance.getPort());
+            host.setHealthy(true);
+            host.setEnabled(true);
+            host.setWeight(1.0);
+            host.setMetadata(new HashMap<>(instance.getMetadata()));
+            hosts.add(host);
+        }
+        return hosts;
+    }
+}
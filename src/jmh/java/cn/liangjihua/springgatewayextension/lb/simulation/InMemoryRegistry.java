@@ -0,0 +1,201 @@
+package cn.liangjihua.springgatewayextension.lb.simulation;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+
+/**
+ * 模拟使用的内存注册中心，保存服务实例的真实状态.
+ * <p></p>
+ * 实例上下线或版本号变化时，立即通知所有监听器（见 {@link FakeNacosEventSource}），
+ * 同时记录每个实例的在线时长，用于计算负载分布的公平性。
+ */
+public class InMemoryRegistry {
+    private final String serviceId;
+
+    private final Random random = new Random(42);
+
+    private final List<Consumer<List<ServiceInstance>>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 当前在线的实例，host:port -> 实例
+     */
+    private final Map<String, ServiceInstance> live = new HashMap<>();
+
+    private final Map<String, Lifetime> lifetimes = new ConcurrentHashMap<>();
+
+    private volatile List<ServiceInstance> snapshot = Collections.emptyList();
+
+    /**
+     * 当前在线实例的 host:port，读取时不加锁
+     */
+    private volatile Set<String> liveKeys = Collections.emptySet();
+
+    /**
+     * 当前有实例的版本号
+     */
+    private volatile List<String> liveVersions = Collections.emptyList();
+
+    private int nextHost;
+
+    private int nextVersion;
+
+    public InMemoryRegistry(String serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    public void addListener(Consumer<List<ServiceInstance>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 注册 instanceCount 个实例，其中 versionCount 个实例带有版本号
+     */
+    public synchronized void populate(int instanceCount, int versionCount) {
+        for (int i = 0; i < instanceCount; i++) {
+            doRegister(newInstance(i < versionCount ? newVersion() : null));
+        }
+        publish();
+    }
+
+    /**
+     * 下线一个随机的无版本号实例，并上线一个新的无版本号实例（滚动发布、扩缩容）
+     */
+    public synchronized void replaceRandom() {
+        ServiceInstance victim = randomLive(false);
+        if (victim != null) {
+            doDeregister(victim);
+        }
+        doRegister(newInstance(null));
+        publish();
+    }
+
+    /**
+     * 一个开发人员用新的版本号重新部署了自己的实例
+     */
+    public synchronized void retagRandom() {
+        ServiceInstance victim = randomLive(true);
+        if (victim == null) {
+            return;
+        }
+        doDeregister(victim);
+        doRegister(newInstance(newVersion()));
+        publish();
+    }
+
+    public List<ServiceInstance> getInstances() {
+        return snapshot;
+    }
+
+    public boolean isLive(ServiceInstance instance) {
+        return liveKeys.contains(keyOf(instance));
+    }
+
+    public List<String> getLiveVersions() {
+        return liveVersions;
+    }
+
+    /**
+     * 所有实例的在线时长，单位纳秒，key 为 host:port
+     */
+    public Map<String, Long> lifetimes(long now) {
+        Map<String, Long> result = new HashMap<>();
+        lifetimes.forEach((key, lifetime) -> result.put(key, lifetime.duration(now)));
+        return result;
+    }
+
+    /**
+     * 实例是否带有版本号
+     */
+    public boolean isVersioned(String key) {
+        Lifetime lifetime = lifetimes.get(key);
+        return lifetime != null && lifetime.versioned;
+    }
+
+    static String keyOf(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    private ServiceInstance newInstance(String version) {
+        int i = nextHost++;
+        String host = "10.1." + (i >> 8 & 0xff) + "." + (i & 0xff);
+        Map<String, String> metadata = version != null ? Map.of(SERVICE_META_VERSION_KEY, version) : Map.of();
+        return new DefaultServiceInstance(serviceId + "-" + i, serviceId, host, 8080, false, metadata);
+    }
+
+    private String newVersion() {
+        return "dev-" + nextVersion++;
+    }
+
+    private ServiceInstance randomLive(boolean versioned) {
+        List<ServiceInstance> candidates = new ArrayList<>();
+        for (ServiceInstance instance : live.values()) {
+            if (instance.getMetadata().containsKey(SERVICE_META_VERSION_KEY) == versioned) {
+                candidates.add(instance);
+            }
+        }
+        return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    private void doRegister(ServiceInstance instance) {
+        String key = keyOf(instance);
+        live.put(key, instance);
+        lifetimes.put(key, new Lifetime(System.nanoTime(), instance.getMetadata().containsKey(SERVICE_META_VERSION_KEY)));
+    }
+
+    private void doDeregister(ServiceInstance instance) {
+        String key = keyOf(instance);
+        live.remove(key);
+        Lifetime lifetime = lifetimes.get(key);
+        if (lifetime != null) {
+            lifetime.deregisteredAt = System.nanoTime();
+        }
+    }
+
+    private void publish() {
+        List<ServiceInstance> instances = Collections.unmodifiableList(new ArrayList<>(live.values()));
+        List<String> versions = new ArrayList<>();
+        for (ServiceInstance instance : instances) {
+            String version = instance.getMetadata().get(SERVICE_META_VERSION_KEY);
+            if (version != null) {
+                versions.add(version);
+            }
+        }
+        snapshot = instances;
+        liveKeys = Set.copyOf(live.keySet());
+        liveVersions = List.copyOf(versions);
+        for (Consumer<List<ServiceInstance>> listener : listeners) {
+            listener.accept(instances);
+        }
+    }
+
+    private static final class Lifetime {
+        private final long registeredAt;
+
+        private final boolean versioned;
+
+        private volatile long deregisteredAt;
+
+        Lifetime(long registeredAt, boolean versioned) {
+            this.registeredAt = registeredAt;
+            this.versioned = versioned;
+        }
+
+        long duration(long now) {
+            long end = deregisteredAt;
+            return (end != 0 ? end : now) - registeredAt;
+        }
+    }
+}
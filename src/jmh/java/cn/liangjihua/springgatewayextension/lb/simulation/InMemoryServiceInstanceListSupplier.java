@@ -0,0 +1,51 @@
+package cn.liangjihua.springgatewayextension.lb.simulation;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接从 {@link InMemoryRegistry} 读取实例的 {@link ServiceInstanceListSupplier}，模拟对注册中心的查询.
+ * <p></p>
+ * 通常被 CachingServiceInstanceListSupplier 包装，fetchDelay 模拟缓存被驱逐之后同步查询注册中心的耗时。
+ */
+public class InMemoryServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+    private final String serviceId;
+
+    private final InMemoryRegistry registry;
+
+    private final Duration fetchDelay;
+
+    private final AtomicLong fetches = new AtomicLong();
+
+    public InMemoryServiceInstanceListSupplier(String serviceId, InMemoryRegistry registry, Duration fetchDelay) {
+        this.serviceId = serviceId;
+        this.registry = registry;
+        this.fetchDelay = fetchDelay;
+    }
+
+    @Override
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        Flux<List<ServiceInstance>> instances = Flux.defer(() -> {
+            fetches.incrementAndGet();
+            return Flux.just(registry.getInstances());
+        });
+        return fetchDelay.isZero() ? instances : instances.delaySubscription(fetchDelay);
+    }
+
+    /**
+     * 查询注册中心的次数
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+}
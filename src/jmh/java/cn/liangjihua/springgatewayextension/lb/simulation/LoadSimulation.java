@@ -0,0 +1,356 @@
+package cn.liangjihua.springgatewayextension.lb.simulation;
+
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
+import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh;
+import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancer;
+import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle;
+import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.chooser.RuleChooserBenchmark;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+import cn.liangjihua.springgatewayextension.lb.metrics.LoadBalancerMetrics;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetectionProperties;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverChain;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.loadbalancer.cache.DefaultLoadBalancerCacheManager;
+import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheProperties;
+import org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.REQUEST_VERSION_KEY;
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+import static org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier.SERVICE_INSTANCE_CACHE_NAME;
+
+/**
+ * 端到端的负载及实例变动模拟，完全在本地运行.
+ * <p></p>
+ * 使用内存注册中心（{@link InMemoryRegistry}）作为数据源，经过 spring cloud loadbalancer 的缓存
+ * （CachingServiceInstanceListSupplier）提供实例列表，{@link FakeNacosEventSource} 模拟 nacos 推送驱动
+ * {@link ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh} 驱逐缓存。多个线程以闭环的方式通过
+ * {@link VersionLoadBalancer} 选取实例并调用 {@link StubBackend}，同时后台线程不断地替换实例、修改实例的版本号。
+ * <p></p>
+ * 结束后报告：吞吐量、负载均衡（选取实例）耗时的 p50/p99/p999、路由到已下线实例的次数、
+ * 请求的版本存在时却路由到其他版本的次数、后端错误率，以及无版本号实例之间负载分布的公平性（Jain 指数）。
+ * <p></p>
+ * 运行：
+ * <pre>
+ * ./mvnw -Pbenchmark test-compile exec:exec \
+ *   -Dbenchmark.main=cn.liangjihua.springgatewayextension.lb.simulation.LoadSimulation \
+ *   -Djmh.args="--duration=30 --threads=128 --chooser=cn.liangjihua.springgatewayextension.lb.chooser.PeakEwmaRuleChooser"
+ * </pre>
+ * 参数见 {@link Options}。
+ */
+public class LoadSimulation {
+    private static final String SERVICE_ID = "simulation-service";
+
+    private final Options options;
+
+    private final InMemoryRegistry registry = new InMemoryRegistry(SERVICE_ID);
+
+    private final InstanceStatsRegistry statsRegistry = new InstanceStatsRegistry();
+
+    private final SimulationHistogram lbLatency = new SimulationHistogram();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder emptyResponses = new LongAdder();
+
+    private final LongAdder misroutes = new LongAdder();
+
+    private final LongAdder versionMisroutes = new LongAdder();
+
+    private final LongAdder backendErrors = new LongAdder();
+
+    private final Map<String, LongAdder> selections = new ConcurrentHashMap<>();
+
+    private VersionLoadBalancer loadBalancer;
+
+    private VersionLoadBalancerLifecycle lifecycle;
+
+    private StubBackend backend;
+
+    private volatile boolean running = true;
+
+    public LoadSimulation(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.out.println("模拟参数：" + options);
+        new LoadSimulation(options).run();
+    }
+
+    void run() throws Exception {
+        DefaultLoadBalancerCacheManager cacheManager = new DefaultLoadBalancerCacheManager(
+            new LoadBalancerCacheProperties(), SERVICE_INSTANCE_CACHE_NAME);
+        InMemoryServiceInstanceListSupplier delegate = new InMemoryServiceInstanceListSupplier(SERVICE_ID, registry,
+            Duration.ofMillis(options.fetchMillis));
+        ServiceInstanceListSupplier supplier = new CachingServiceInstanceListSupplier(delegate, cacheManager);
+        ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh cacheRefresh =
+            new ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh(cacheManager, options.coalesceMillis);
+
+        FakeNacosEventSource eventSource = new FakeNacosEventSource(SERVICE_ID, cacheRefresh,
+            options.propagationMillis);
+        registry.addListener(eventSource::onChange);
+        registry.populate(options.instances, options.versions);
+
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("serviceInstanceListSupplier", supplier);
+        OutlierDetectionProperties outlierDetection = new OutlierDetectionProperties();
+        outlierDetection.setEnabled(options.outlierDetection);
+        OutlierDetector outlierDetector = new OutlierDetector(outlierDetection, statsRegistry);
+        IRuleChooser chooser = RuleChooserBenchmark.newChooser(Class.forName(options.chooser), statsRegistry);
+        loadBalancer = new VersionLoadBalancer(beanFactory.getBeanProvider(ServiceInstanceListSupplier.class),
+            SERVICE_ID, chooser, new LocalAddressResolver(), VersionResolverChain.defaultChain(), statsRegistry,
+            outlierDetector, LoadBalancerMetrics.NOOP, LocalityRouter.DISABLED);
+        lifecycle = new VersionLoadBalancerLifecycle(statsRegistry, outlierDetector);
+        backend = new StubBackend(registry, TimeUnit.MILLISECONDS.toNanos(options.latencyMillis),
+            options.slowFraction, options.slowFactor, options.flakyFraction, options.errorRate);
+
+        ScheduledExecutorService churn = Executors.newSingleThreadScheduledExecutor();
+        churn.scheduleAtFixedRate(() -> {
+            if (ThreadLocalRandom.current().nextDouble() < options.retagRatio) {
+                registry.retagRandom();
+            } else {
+                registry.replaceRandom();
+            }
+        }, options.churnMillis, options.churnMillis, TimeUnit.MILLISECONDS);
+
+        CountDownLatch finished = new CountDownLatch(options.threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < options.threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    while (running) {
+                        execute();
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            }, "simulation-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+        running = false;
+        finished.await();
+        long elapsed = System.nanoTime() - start;
+        churn.shutdownNow();
+        eventSource.close();
+        cacheRefresh.shutdown();
+
+        report(elapsed, delegate, cacheRefresh);
+    }
+
+    private void execute() {
+        String version = requestVersion();
+        HttpHeaders headers = new HttpHeaders();
+        if (version != null) {
+            headers.add(REQUEST_VERSION_KEY, version);
+        }
+        RequestData requestData = new RequestData(HttpMethod.GET, URI.create("http://" + SERVICE_ID + "/api"),
+            headers, new LinkedMultiValueMap<>(), new HashMap<>());
+        Request<RequestDataContext> request = new DefaultRequest<>(new RequestDataContext(requestData));
+
+        long chooseStart = System.nanoTime();
+        Response<ServiceInstance> response = loadBalancer.choose(request).block();
+        lbLatency.record(System.nanoTime() - chooseStart);
+        requests.increment();
+        if (response == null || !response.hasServer()) {
+            emptyResponses.increment();
+            return;
+        }
+        ServiceInstance instance = response.getServer();
+        if (!registry.isLive(instance)) {
+            misroutes.increment();
+        }
+        if (version != null && registry.getLiveVersions().contains(version)
+            && !version.equals(instance.getMetadata().get(SERVICE_META_VERSION_KEY))) {
+            versionMisroutes.increment();
+        }
+        selections.computeIfAbsent(InMemoryRegistry.keyOf(instance), key -> new LongAdder()).increment();
+
+        lifecycle.onStartRequest(request, response);
+        CompletionContext<ResponseData, ServiceInstance, RequestDataContext> completion;
+        try {
+            HttpStatus status = backend.handle(instance);
+            if (status.is5xxServerError()) {
+                backendErrors.increment();
+            }
+            completion = new CompletionContext<>(CompletionContext.Status.SUCCESS, request, response,
+                new ResponseData(status, new HttpHeaders(), new LinkedMultiValueMap<>(), requestData));
+        } catch (StubBackend.ConnectionRefusedException e) {
+            backendErrors.increment();
+            completion = new CompletionContext<>(CompletionContext.Status.FAILED, e, request, response);
+        }
+        lifecycle.onComplete(completion);
+    }
+
+    /**
+     * 按照 hit:miss:none 的比例生成请求的版本号
+     */
+    private String requestVersion() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double value = random.nextDouble();
+        List<String> versions = registry.getLiveVersions();
+        if (value < options.hitRatio && !versions.isEmpty()) {
+            return versions.get(random.nextInt(versions.size()));
+        }
+        if (value < options.hitRatio + options.missRatio) {
+            return "absent-" + random.nextInt(100);
+        }
+        return null;
+    }
+
+    private void report(long elapsedNanos, InMemoryServiceInstanceListSupplier delegate,
+                        ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh cacheRefresh) {
+        double seconds = elapsedNanos / 1e9;
+        long total = requests.sum();
+        System.out.println();
+        System.out.printf("吞吐量：%.0f req/s（共 %d 个请求，%.1f 秒）%n", total / seconds, total, seconds);
+        System.out.printf("选取实例耗时：p50=%.1fµs p99=%.1fµs p999=%.1fµs%n",
+            lbLatency.percentile(0.50) / 1e3, lbLatency.percentile(0.99) / 1e3, lbLatency.percentile(0.999) / 1e3);
+        System.out.printf("路由到已下线实例：%d（%.4f%%）%n", misroutes.sum(), percent(misroutes.sum(), total));
+        System.out.printf("版本存在但路由到其他版本：%d（%.4f%%）%n", versionMisroutes.sum(),
+            percent(versionMisroutes.sum(), total));
+        System.out.printf("没有可用实例：%d，后端错误：%d（%.4f%%）%n", emptyResponses.sum(), backendErrors.sum(),
+            percent(backendErrors.sum(), total));
+        System.out.printf("注册中心查询：%d，nacos 事件：%d，缓存驱逐：%d，跳过：%d%n", delegate.getFetches(),
+            cacheRefresh.getEventsReceived(), cacheRefresh.getRefreshesApplied(), cacheRefresh.getRefreshesSkipped());
+        reportFairness(System.nanoTime());
+    }
+
+    /**
+     * 无版本号实例的负载分布公平性：每个实例的请求速率（请求数 / 在线时长）的 Jain 指数，1 为完全均匀
+     */
+    private void reportFairness(long now) {
+        List<Double> rates = new ArrayList<>();
+        registry.lifetimes(now).forEach((key, lifetime) -> {
+            // 在线时间太短的实例速率误差很大
+            if (registry.isVersioned(key) || lifetime < TimeUnit.SECONDS.toNanos(1)) {
+                return;
+            }
+            LongAdder count = selections.get(key);
+            rates.add((count != null ? count.sum() : 0) / (lifetime / 1e9));
+        });
+        if (rates.isEmpty()) {
+            return;
+        }
+        double sum = 0;
+        double sumOfSquares = 0;
+        double max = 0;
+        for (double rate : rates) {
+            sum += rate;
+            sumOfSquares += rate * rate;
+            max = Math.max(max, rate);
+        }
+        double jain = sumOfSquares == 0 ? 1 : sum * sum / (rates.size() * sumOfSquares);
+        double mean = sum / rates.size();
+        System.out.printf("负载公平性（%d 个无版本号实例）：Jain=%.4f，最大/平均=%.2f%n", rates.size(), jain,
+            mean == 0 ? 0 : max / mean);
+    }
+
+    private static double percent(long value, long total) {
+        return total == 0 ? 0 : value * 100.0 / total;
+    }
+
+    /**
+     * 模拟参数，通过 --name=value 指定
+     */
+    static final class Options {
+        long durationSeconds = 30;
+        int threads = 64;
+        int instances = 20;
+        int versions = 5;
+        String chooser = "cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser";
+        /**
+         * 每隔多少毫秒发生一次实例变动
+         */
+        long churnMillis = 500;
+        /**
+         * 实例变动中修改版本号的比例，其余为替换无版本号实例
+         */
+        double retagRatio = 0.3;
+        long propagationMillis = 50;
+        long coalesceMillis = 200;
+        long fetchMillis = 2;
+        long latencyMillis = 5;
+        double slowFraction = 0.1;
+        double slowFactor = 5;
+        double flakyFraction = 0.05;
+        double errorRate = 0.5;
+        double hitRatio = 0.3;
+        double missRatio = 0.1;
+        boolean outlierDetection = true;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("参数格式应为 --name=value：" + arg);
+                }
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                    case "duration" -> options.durationSeconds = Long.parseLong(value);
+                    case "threads" -> options.threads = Integer.parseInt(value);
+                    case "instances" -> options.instances = Integer.parseInt(value);
+                    case "versions" -> options.versions = Integer.parseInt(value);
+                    case "chooser" -> options.chooser = value;
+                    case "churnMillis" -> options.churnMillis = Long.parseLong(value);
+                    case "retagRatio" -> options.retagRatio = Double.parseDouble(value);
+                    case "propagationMillis" -> options.propagationMillis = Long.parseLong(value);
+                    case "coalesceMillis" -> options.coalesceMillis = Long.parseLong(value);
+                    case "fetchMillis" -> options.fetchMillis = Long.parseLong(value);
+                    case "latencyMillis" -> options.latencyMillis = Long.parseLong(value);
+                    case "slowFraction" -> options.slowFraction = Double.parseDouble(value);
+                    case "slowFactor" -> options.slowFactor = Double.parseDouble(value);
+                    case "flakyFraction" -> options.flakyFraction = Double.parseDouble(value);
+                    case "errorRate" -> options.errorRate = Double.parseDouble(value);
+                    case "hitRatio" -> options.hitRatio = Double.parseDouble(value);
+                    case "missRatio" -> options.missRatio = Double.parseDouble(value);
+                    case "outlierDetection" -> options.outlierDetection = Boolean.parseBoolean(value);
+                    default -> throw new IllegalArgumentException("未知的参数：" + name);
+                }
+            }
+            return options;
+        }
+
+        @Override
+        public String toString() {
+            return "duration=" + durationSeconds + "s, threads=" + threads + ", instances=" + instances
+                + ", versions=" + versions + ", chooser=" + chooser + ", churnMillis=" + churnMillis
+                + ", retagRatio=" + retagRatio + ", propagationMillis=" + propagationMillis
+                + ", coalesceMillis=" + coalesceMillis + ", fetchMillis=" + fetchMillis
+                + ", latencyMillis=" + latencyMillis + ", outlierDetection=" + outlierDetection;
+        }
+    }
+}
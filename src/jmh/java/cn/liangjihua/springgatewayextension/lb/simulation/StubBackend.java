@@ -0,0 +1,79 @@
+package cn.liangjihua.springgatewayextension.lb.simulation;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 模拟的后端服务.
+ * <p></p>
+ * 每个实例在第一次收到请求时按比例随机分配一个画像：正常、慢（延迟为正常的 slowFactor 倍）或不稳定（按 errorRate 返回 503）。
+ * 响应时间为基础延迟加上指数分布的抖动；已经下线的实例模拟连接被拒绝。
+ */
+public class StubBackend {
+    private final InMemoryRegistry registry;
+
+    private final long baseLatencyNanos;
+
+    private final double slowFraction;
+
+    private final double slowFactor;
+
+    private final double flakyFraction;
+
+    private final double errorRate;
+
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    public StubBackend(InMemoryRegistry registry, long baseLatencyNanos, double slowFraction, double slowFactor,
+                       double flakyFraction, double errorRate) {
+        this.registry = registry;
+        this.baseLatencyNanos = baseLatencyNanos;
+        this.slowFraction = slowFraction;
+        this.slowFactor = slowFactor;
+        this.flakyFraction = flakyFraction;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * 处理一个请求，阻塞当前线程直到响应
+     *
+     * @return 响应状态码
+     * @throws ConnectionRefusedException 实例已经下线
+     */
+    public HttpStatus handle(ServiceInstance instance) {
+        if (!registry.isLive(instance)) {
+            throw new ConnectionRefusedException(InMemoryRegistry.keyOf(instance));
+        }
+        Profile profile = profiles.computeIfAbsent(InMemoryRegistry.keyOf(instance), key -> newProfile());
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = (long) (profile.latencyFactor * (baseLatencyNanos
+            + baseLatencyNanos * -Math.log(1 - random.nextDouble()) * 0.5));
+        LockSupport.parkNanos(latency);
+        return random.nextDouble() < profile.errorRate ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK;
+    }
+
+    private Profile newProfile() {
+        double value = ThreadLocalRandom.current().nextDouble();
+        if (value < slowFraction) {
+            return new Profile(slowFactor, 0);
+        }
+        if (value < slowFraction + flakyFraction) {
+            return new Profile(1, errorRate);
+        }
+        return new Profile(1, 0);
+    }
+
+    private record Profile(double latencyFactor, double errorRate) {
+    }
+
+    public static class ConnectionRefusedException extends RuntimeException {
+        public ConnectionRefusedException(String address) {
+            super("Connection refused: " + address, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import cn.hutool.http.HttpUtil;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.REQUEST_VERSION_KEY;
+
+/**
+ * 从 {@link RequestData} 中解析版本号的基准测试.
+ * <p></p>
+ * {@link #legacyDecodeParamMap} 为之前将整个 query 解码为 map 的实现，作为对比的基线。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionResolverBenchmark {
+
+    /**
+     * 版本号的位置：query 参数、请求头、cookie 或者没有版本号
+     */
+    @Param({"query", "header", "cookie", "none"})
+    public String location;
+
+    @Param({"false", "true"})
+    public boolean escaped;
+
+    private RequestData requestData;
+
+    private VersionResolverChain defaultChain;
+
+    private VersionResolverChain fullChain;
+
+    @Setup
+    public void setup() {
+        String version = escaped ? "%E7%8E%8B%E5%B0%8F%E8%99%8E" : "wangxiaohu";
+        String query = "page=1&size=20&sort=createTime,desc&keyword=gateway";
+        if ("query".equals(location)) {
+            query = query + "&" + REQUEST_VERSION_KEY + "=" + version;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.ACCEPT, "application/json");
+        headers.add(HttpHeaders.USER_AGENT, "benchmark");
+        if ("header".equals(location)) {
+            headers.add(REQUEST_VERSION_KEY, version);
+        }
+        MultiValueMap<String, String> cookies = new LinkedMultiValueMap<>();
+        cookies.add("SESSION", "6f1c0f5e-3c8a-4d0e-9a5e-1d8b6c3f2a10");
+        if ("cookie".equals(location)) {
+            cookies.add(REQUEST_VERSION_KEY, version);
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        requestData = new RequestData(HttpMethod.GET, URI.create("http://benchmark-service/api/users?" + query),
+            headers, cookies, attributes);
+        defaultChain = VersionResolverChain.defaultChain();
+        fullChain = VersionResolverChain.of(List.of(VersionResolverType.QUERY, VersionResolverType.HEADER,
+            VersionResolverType.COOKIE), REQUEST_VERSION_KEY, REQUEST_VERSION_KEY, REQUEST_VERSION_KEY, List.of());
+    }
+
+    @Benchmark
+    public String defaultChain() {
+        return defaultChain.resolve(requestData);
+    }
+
+    @Benchmark
+    public String fullChain() {
+        return fullChain.resolve(requestData);
+    }
+
+    @Benchmark
+    public String legacyDecodeParamMap() {
+        Map<String, String> queryMap = HttpUtil.decodeParamMap(requestData.getUrl().toString(),
+            StandardCharsets.UTF_8);
+        String version = queryMap.get(REQUEST_VERSION_KEY);
+        return version != null ? version : requestData.getHeaders().getFirst(REQUEST_VERSION_KEY);
+    }
+}
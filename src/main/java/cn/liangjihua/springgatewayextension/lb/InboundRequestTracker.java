@@ -0,0 +1,40 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 统计本实例正在处理中的入站请求，以及最近一次请求开始或结束的时间.
+ * <p></p>
+ * {@link ServiceDeRegistration} 在取消服务注册之后根据它判断请求是否已经排空。
+ *
+ * @see InboundRequestTrackingFilter
+ */
+public class InboundRequestTracker {
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private volatile long lastActivity = System.nanoTime();
+
+    public void begin() {
+        inflight.incrementAndGet();
+        lastActivity = System.nanoTime();
+    }
+
+    public void end() {
+        inflight.decrementAndGet();
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * 正在处理中的请求数
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * 没有请求正在处理时，返回距离最近一次请求开始或结束的纳秒数；有请求正在处理时返回 0
+     */
+    public long getIdleNanos(long now) {
+        return inflight.get() > 0 ? 0L : now - lastActivity;
+    }
+}
@@ -0,0 +1,58 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 使用 {@link InboundRequestTracker} 统计入站请求，异步请求在异步处理完成时才结束统计.
+ */
+public class InboundRequestTrackingFilter extends OncePerRequestFilter {
+    private final InboundRequestTracker tracker;
+
+    public InboundRequestTrackingFilter(InboundRequestTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        tracker.begin();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompletionListener());
+            } else {
+                tracker.end();
+            }
+        }
+    }
+
+    private class CompletionListener implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            tracker.end();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // 重新开始异步处理时需要重新注册监听器
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动时预热负载均衡器.
+ * <p></p>
+ * {@code @LoadBalancerClients} 为每个服务创建的子容器是在第一次请求该服务时才创建的，
+ * 因此应用重启之后，每个服务的第一个请求都需要等待子容器的创建、注册中心的查询以及路由索引的构建。
+ * 预热在应用就绪之前（{@link ApplicationRunner} 在 ApplicationReadyEvent 之前执行）
+ * 以有限的并发为配置的服务以及注册中心中的所有服务提前完成这些工作。
+ * 单个服务预热失败或超时只会记录日志，不会影响应用启动。
+ */
+@Slf4j
+public class LoadBalancerWarmUp implements ApplicationRunner {
+    private final LoadBalancerClientFactory clientFactory;
+
+    private final ObjectProvider<DiscoveryClient> discoveryClient;
+
+    private final Collection<String> services;
+
+    private final boolean discover;
+
+    private final int parallelism;
+
+    private final Duration timeout;
+
+    /**
+     * @param clientFactory 负载均衡器子容器工厂
+     * @param discoveryClient 用于获取注册中心中的所有服务
+     * @param services 需要预热的服务
+     * @param discover 是否同时预热注册中心中的所有服务
+     * @param parallelism 同时预热的服务数
+     * @param timeout 整个预热过程的超时时间
+     */
+    public LoadBalancerWarmUp(LoadBalancerClientFactory clientFactory,
+                              ObjectProvider<DiscoveryClient> discoveryClient,
+                              Collection<String> services,
+                              boolean discover,
+                              int parallelism,
+                              Duration timeout) {
+        this.clientFactory = clientFactory;
+        this.discoveryClient = discoveryClient;
+        this.services = services;
+        this.discover = discover;
+        this.parallelism = Math.max(1, parallelism);
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Set<String> serviceIds = resolveServiceIds();
+        if (serviceIds.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger instances = new AtomicInteger();
+        Flux.fromIterable(serviceIds)
+            .flatMap(serviceId -> warmUp(serviceId)
+                .doOnNext(count -> {
+                    succeeded.incrementAndGet();
+                    instances.addAndGet(count);
+                })
+                .onErrorResume(e -> {
+                    log.warn("服务 {} 的负载均衡器预热失败", serviceId, e);
+                    return Mono.empty();
+                }), parallelism)
+            .then()
+            // 超时后取消仍在进行中的预热
+            .timeout(timeout)
+            .onErrorResume(TimeoutException.class, e -> {
+                log.warn("负载均衡器预热超时：{}", timeout);
+                return Mono.empty();
+            })
+            .block();
+        log.info("负载均衡器预热完成，服务数：{}，成功：{}，实例数：{}，耗时：{} ms", serviceIds.size(), succeeded.get(),
+            instances.get(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    /**
+     * 预热一个服务：创建子容器，加载实例列表并构建路由索引.
+     * <p></p>
+     * 子容器的创建以及不带缓存的注册中心查询都是阻塞的，因此在 boundedElastic 上执行。
+     */
+    Mono<Integer> warmUp(String serviceId) {
+        return Mono.defer(() -> {
+                ReactorServiceInstanceLoadBalancer loadBalancer = clientFactory.getInstance(serviceId,
+                    ReactorServiceInstanceLoadBalancer.class);
+                if (loadBalancer instanceof VersionLoadBalancer versionLoadBalancer) {
+                    return versionLoadBalancer.warmUp();
+                }
+                ServiceInstanceListSupplier supplier = clientFactory.getInstance(serviceId,
+                    ServiceInstanceListSupplier.class);
+                if (supplier == null) {
+                    return Mono.just(0);
+                }
+                return supplier.get().next().map(List::size).defaultIfEmpty(0);
+            })
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Set<String> resolveServiceIds() {
+        Set<String> serviceIds = new LinkedHashSet<>(services);
+        if (discover) {
+            DiscoveryClient client = discoveryClient.getIfAvailable();
+            if (client != null) {
+                try {
+                    serviceIds.addAll(client.getServices());
+                } catch (RuntimeException e) {
+                    log.warn("无法从注册中心获取服务列表，只预热配置的服务", e);
+                }
+            }
+        }
+        return serviceIds;
+    }
+}
@@ -0,0 +1,148 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.hutool.core.net.NetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本机地址解析器.
+ * <p></p>
+ * 解析本机所有网卡（包括容器网桥等，不包括回环网卡及回环地址）上的地址并缓存起来，
+ * {@link VersionLoadBalancer} 通过 {@link #isLocal(String)} 判断服务实例是否部署在本机，
+ * 从而避免在每次请求时都去枚举网卡。
+ * <p></p>
+ * 网卡地址可能会发生变化（例如 DHCP 续租、容器网络重建），因此会按照配置的间隔在后台重新解析，
+ * 也可以调用 {@link #refresh()} 立即重新解析。只有在地址集合发生变化时才会替换缓存的集合，
+ * 调用方可以通过 {@link #getAddresses()} 的引用是否变化来判断本机地址是否发生了变化。
+ */
+@Slf4j
+public class LocalAddressResolver implements InitializingBean, DisposableBean {
+
+    private final Duration refreshInterval;
+
+    private volatile Set<String> addresses;
+
+    private ScheduledExecutorService scheduler;
+
+    public LocalAddressResolver() {
+        this(Duration.ZERO);
+    }
+
+    public LocalAddressResolver(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        this.addresses = resolveLocalAddresses();
+    }
+
+    /**
+     * 判断给定的地址是否是本机地址，不会创建新的对象.
+     *
+     * @param host ip 地址
+     * @return 是否是本机地址
+     */
+    public boolean isLocal(String host) {
+        return host != null && addresses.contains(host);
+    }
+
+    /**
+     * 返回当前缓存的本机地址集合，集合不可变.
+     */
+    public Set<String> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * 立即重新解析本机地址.
+     */
+    public void refresh() {
+        Set<String> resolved = resolveLocalAddresses();
+        if (!resolved.equals(addresses)) {
+            log.info("本机地址发生变化：{} -> {}", addresses, resolved);
+            this.addresses = resolved;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (refreshInterval == null || refreshInterval.isZero() || refreshInterval.isNegative()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lb-local-address-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = refreshInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::safeRefresh, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void safeRefresh() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("刷新本机地址失败", e);
+        }
+    }
+
+    private static Set<String> resolveLocalAddresses() {
+        Set<String> resolved = new HashSet<>();
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                Enumeration<InetAddress> inetAddresses = networkInterface.getInetAddresses();
+                while (inetAddresses.hasMoreElements()) {
+                    InetAddress address = inetAddresses.nextElement();
+                    if (isLocalCandidate(address)) {
+                        resolved.add(stripScope(address.getHostAddress()));
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            log.warn("枚举本机网卡失败", e);
+        }
+        // 保留原有的行为：hutool 选出的本机地址总是被视为本机地址
+        InetAddress localhost = NetUtil.getLocalhost();
+        if (localhost != null && localhost.getHostAddress() != null) {
+            resolved.add(stripScope(localhost.getHostAddress()));
+        }
+        return Set.copyOf(resolved);
+    }
+
+    /**
+     * 网卡上的地址是否作为本机地址：回环地址不作为本机地址，
+     * 否则所有以 127.0.0.1 注册的实例（例如配置错误的开发机）都会被每个网关实例当作本地实例
+     */
+    static boolean isLocalCandidate(InetAddress address) {
+        return !address.isLoopbackAddress();
+    }
+
+    /**
+     * 去掉 ipv6 地址中的 scope，例如 fe80::1%eth0
+     */
+    private static String stripScope(String hostAddress) {
+        int index = hostAddress.indexOf('%');
+        return index < 0 ? hostAddress : hostAddress.substring(0, index);
+    }
+}
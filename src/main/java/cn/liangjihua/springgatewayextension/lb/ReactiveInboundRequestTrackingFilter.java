@@ -0,0 +1,34 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import org.springframework.core.Ordered;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * 在 reactive 应用（例如 spring cloud gateway）中使用 {@link InboundRequestTracker} 统计入站请求，
+ * 请求在响应完成、出错或被取消时结束统计.
+ *
+ * @see InboundRequestTrackingFilter
+ */
+public class ReactiveInboundRequestTrackingFilter implements WebFilter, Ordered {
+    private final InboundRequestTracker tracker;
+
+    public ReactiveInboundRequestTrackingFilter(InboundRequestTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        return Mono.defer(() -> {
+            tracker.begin();
+            return chain.filter(exchange).doFinally(signal -> tracker.end());
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
@@ -1,25 +1,56 @@
 package cn.liangjihua.springgatewayextension.lb;
 
-import lombok.SneakyThrows;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.client.serviceregistry.Registration;
 import org.springframework.cloud.client.serviceregistry.ServiceRegistry;
 import org.springframework.context.SmartLifecycle;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
- * 扩展 spring lifecycle, 在应用关闭前，向注册中心取消服务注册，并等待15秒种以确保本服务实例下线的信息同步至其他服务，
+ * 扩展 spring lifecycle, 在应用关闭前，向注册中心取消服务注册，并等待正在处理的请求排空，
  * 在等待期间，应用实例仍然可以正常响应请求.
  * <p></p>
- * 默认等待 15 秒钟是因为 nacos 客户端对于服务实例信息的默认轮询时间是 10 秒钟.
+ * 取消注册之后，其他服务需要一段时间才能感知到本实例下线，期间仍然可能有新的请求进入。
+ * 因此只有在取消注册之后至少经过了一个静默期，并且没有正在处理的请求、静默期内也没有新的请求时，才认为请求已经排空；
+ * 请求一直没有排空时最多等待 {@code maxWaitMillis}（默认 15 秒钟，nacos 客户端对于服务实例信息的默认轮询时间是 10 秒钟）。
+ * 等待在后台线程中进行（{@link #stop(Runnable)}），不阻塞关闭线程，排空耗时记录为 lb.deregistration.drain 指标，
+ * result 为 drained、timeout 或 untracked。
+ * <p></p>
+ * 没有 {@link InboundRequestTracker} 时（应用中没有统计入站请求的 filter）无法感知入站请求，
+ * 在取消注册之后固定等待静默期，结果记为 untracked。
  */
 @Slf4j
 public class ServiceDeRegistration implements SmartLifecycle {
     public static final long DEFAULT_WAIT_MILLIS = 15000L;
 
+    public static final long DEFAULT_QUIET_MILLIS = 3000L;
+
+    private static final long POLL_MILLIS = 100L;
+
+    static final String DRAINED = "drained";
+
+    static final String TIMEOUT = "timeout";
+
+    static final String UNTRACKED = "untracked";
+
     private final ServiceRegistry<Registration> serviceRegistry;
 
     private final Registration registration;
-    private final long waitMillis;
+
+    private final long maxWaitMillis;
+
+    private final long quietMillis;
+
+    private final InboundRequestTracker tracker;
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicBoolean running = new AtomicBoolean();
 
     public ServiceDeRegistration(ServiceRegistry<Registration> serviceRegistry,
                                  Registration registration) {
@@ -28,32 +59,124 @@ public class ServiceDeRegistration implements SmartLifecycle {
 
     public ServiceDeRegistration(ServiceRegistry<Registration> serviceRegistry,
                                  Registration registration,
-                                 long waitMillis) {
+                                 long maxWaitMillis) {
+        this(serviceRegistry, registration, maxWaitMillis, DEFAULT_QUIET_MILLIS, null, null);
+    }
+
+    /**
+     * @param serviceRegistry 注册中心
+     * @param registration 本实例的注册信息
+     * @param maxWaitMillis 取消注册之后最多等待的时间
+     * @param quietMillis 静默期
+     * @param tracker 入站请求统计，可以为 null
+     * @param meterRegistry 指标注册表，可以为 null
+     */
+    public ServiceDeRegistration(ServiceRegistry<Registration> serviceRegistry,
+                                 Registration registration,
+                                 long maxWaitMillis,
+                                 long quietMillis,
+                                 InboundRequestTracker tracker,
+                                 MeterRegistry meterRegistry) {
         this.serviceRegistry = serviceRegistry;
         this.registration = registration;
-        this.waitMillis = waitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.quietMillis = Math.min(quietMillis, maxWaitMillis);
+        this.tracker = tracker;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public void start() {
+        running.set(true);
     }
 
-    @SneakyThrows
     @Override
     public void stop() {
+        CountDownLatch latch = new CountDownLatch(1);
+        stop(latch::countDown);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        if (!running.compareAndSet(true, false)) {
+            callback.run();
+            return;
+        }
+        long start = System.nanoTime();
         log.debug("取消服务注册...");
-        serviceRegistry.deregister(registration);
-        Thread.sleep(waitMillis);
-        log.debug("取消服务注册完成..");
+        try {
+            serviceRegistry.deregister(registration);
+        } catch (RuntimeException e) {
+            log.warn("取消服务注册失败", e);
+        }
+        if (tracker == null) {
+            log.info("没有统计入站请求，无法判断请求是否排空，取消服务注册后固定等待 {} ms", quietMillis);
+        }
+        Thread drainThread = new Thread(() -> {
+            try {
+                String result = drain(start);
+                long duration = System.nanoTime() - start;
+                recordDrain(result, duration);
+                log.debug("取消服务注册完成，{}，耗时：{} ms", result, TimeUnit.NANOSECONDS.toMillis(duration));
+            } finally {
+                callback.run();
+            }
+        }, "service-deregistration-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
     }
 
     @Override
     public boolean isRunning() {
-        return true;
+        return running.get();
     }
 
     @Override
     public int getPhase() {
         return SmartLifecycle.super.getPhase();
     }
+
+    /**
+     * 等待请求排空
+     *
+     * @return 请求在最大等待时间内排空时返回 drained，超时返回 timeout，没有入站请求统计时返回 untracked
+     */
+    private String drain(long start) {
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        long now = System.nanoTime();
+        while (now - deadline < 0) {
+            if (now - start >= quietNanos && (tracker == null || tracker.getIdleNanos(now) >= quietNanos)) {
+                return tracker == null ? UNTRACKED : DRAINED;
+            }
+            try {
+                Thread.sleep(Math.min(POLL_MILLIS, Math.max(1L, quietMillis)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return tracker == null ? UNTRACKED : TIMEOUT;
+            }
+            now = System.nanoTime();
+        }
+        if (tracker == null) {
+            return UNTRACKED;
+        }
+        log.warn("等待请求排空超时，仍有 {} 个请求正在处理", tracker.getInflight());
+        return TIMEOUT;
+    }
+
+    private void recordDrain(String result, long durationNanos) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Timer.builder("lb.deregistration.drain")
+            .description("取消服务注册之后等待请求排空的耗时")
+            .tag("result", result)
+            .register(meterRegistry)
+            .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
 }
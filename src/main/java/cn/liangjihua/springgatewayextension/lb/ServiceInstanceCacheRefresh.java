@@ -1,20 +1,33 @@
 package cn.liangjihua.springgatewayextension.lb;
 
+import com.alibaba.nacos.api.naming.pojo.Instance;
 import com.alibaba.nacos.client.naming.event.InstancesChangeEvent;
 import com.alibaba.nacos.common.notify.Event;
 import com.alibaba.nacos.common.notify.NotifyCenter;
 import com.alibaba.nacos.common.notify.listener.Subscriber;
-import com.alibaba.nacos.common.utils.JacksonUtils;
 import com.alibaba.nacos.common.utils.StringUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.cache.Cache;
+import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheManager;
 import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheProperties;
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplierBuilder;
 import org.springframework.context.ApplicationContext;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_WEIGHT_KEY;
 import static org.springframework.cloud.loadbalancer.config.LoadBalancerCacheAutoConfiguration.*;
 import static org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier.SERVICE_INSTANCE_CACHE_NAME;
 
@@ -42,14 +55,28 @@ import static org.springframework.cloud.loadbalancer.core.CachingServiceInstance
  * 由于nacos 使用了随机的 udp 端口号，这导致在部署在容器中时，该特性基本不可用，并且由于是 udp
  * 消息推送失败也完全不会有任何异常日志信息。 nacos 2.0 提供了 grpc 的消息推送机制，
  * 相比 udp 使用起来更方便，后期可以考虑升级到 nacos 2.0 以使用该特性.
+ * <p></p>
+ * 滚动发布时 nacos 会在短时间内推送大量的变更事件，每次驱逐缓存都会使下一个请求同步的重新拉取服务实例。
+ * 因此同一个服务的变更事件会在一个很短的窗口内合并，窗口结束时只根据最后一个事件刷新一次，
+ * 并且当事件中的服务实例与缓存中的完全一致时不驱逐缓存。
  */
 @Slf4j
-public class ServiceInstanceCacheRefresh implements InitializingBean {
+public class ServiceInstanceCacheRefresh implements InitializingBean, DisposableBean {
+    public static final long DEFAULT_COALESCE_MILLIS = 200L;
 
     private final ApplicationContext context;
 
+    private final long coalesceMillis;
+
+    private LoadBalancerCacheRefresh refresh;
+
     public ServiceInstanceCacheRefresh(ApplicationContext context) {
+        this(context, DEFAULT_COALESCE_MILLIS);
+    }
+
+    public ServiceInstanceCacheRefresh(ApplicationContext context, long coalesceMillis) {
         this.context = context;
+        this.coalesceMillis = coalesceMillis;
     }
 
     /**
@@ -71,30 +98,81 @@ public class ServiceInstanceCacheRefresh implements InitializingBean {
         ObjectProvider<LoadBalancerCacheManager> cacheManagerProvider = context
             .getBeanProvider(LoadBalancerCacheManager.class);
         if (cacheManagerProvider.getIfAvailable() != null) {
-            LoadBalancerCacheRefresh refresh = new LoadBalancerCacheRefresh(cacheManagerProvider.getIfAvailable());
+            refresh = new LoadBalancerCacheRefresh(cacheManagerProvider.getIfAvailable(), coalesceMillis);
             NotifyCenter.registerSubscriber(refresh);
         }
     }
 
+    @Override
+    public void destroy() {
+        if (refresh != null) {
+            NotifyCenter.deregisterSubscriber(refresh);
+            refresh.shutdown();
+        }
+    }
+
+    /**
+     * 返回注册到 nacos 消息中心的缓存刷新，没有 LoadBalancerCacheManager 时为 null
+     */
+    public LoadBalancerCacheRefresh getRefresh() {
+        return refresh;
+    }
+
 
     public static class LoadBalancerCacheRefresh extends Subscriber<InstancesChangeEvent> {
+        /**
+         * {@link com.alibaba.cloud.nacos.discovery.NacosServiceDiscovery} 在服务实例 metadata 中添加的 key 的前缀
+         */
+        private static final String NACOS_METADATA_PREFIX = "nacos.";
+
         private final LoadBalancerCacheManager defaultLoadBalancerCacheManager;
 
+        private final long coalesceMillis;
+
+        /**
+         * 服务名 -> 合并窗口内最后一个变更事件
+         */
+        private final Map<String, InstancesChangeEvent> pendingEvents = new ConcurrentHashMap<>();
+
+        private final ScheduledExecutorService scheduler;
+
+        private final AtomicLong eventsReceived = new AtomicLong();
+
+        private final AtomicLong refreshesApplied = new AtomicLong();
+
+        private final AtomicLong refreshesSkipped = new AtomicLong();
+
         public LoadBalancerCacheRefresh(LoadBalancerCacheManager defaultLoadBalancerCacheManager) {
+            this(defaultLoadBalancerCacheManager, DEFAULT_COALESCE_MILLIS);
+        }
+
+        /**
+         * @param defaultLoadBalancerCacheManager loadbalancer 缓存
+         * @param coalesceMillis 合并同一个服务的变更事件的窗口，小于等于 0 时每个事件立即刷新
+         */
+        public LoadBalancerCacheRefresh(LoadBalancerCacheManager defaultLoadBalancerCacheManager,
+                                        long coalesceMillis) {
             this.defaultLoadBalancerCacheManager = defaultLoadBalancerCacheManager;
+            this.coalesceMillis = coalesceMillis;
+            this.scheduler = coalesceMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "lb-cache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
         }
 
 
         public void onEvent(InstancesChangeEvent event) {
-            if (log.isDebugEnabled()) {
-                log.debug("接收 nacos 服务实例变更事件：{}, 开始刷新 Spring cloud loadbalancer 服务缓存",
-                    JacksonUtils.toJson(event));
+            eventsReceived.incrementAndGet();
+            String serviceName = stripServiceName(event.getServiceName());
+            log.debug("接收 nacos 服务实例变更事件：{}，实例数：{}", serviceName,
+                event.getHosts() != null ? event.getHosts().size() : 0);
+            if (scheduler == null) {
+                refresh(serviceName, event);
+                return;
             }
-            Cache cache = defaultLoadBalancerCacheManager.getCache(SERVICE_INSTANCE_CACHE_NAME);
-            if (cache != null) {
-                String serviceName = stripServiceName(event.getServiceName());
-                cache.evictIfPresent(serviceName);
-                log.debug("Spring cloud loadbalancer 服务缓存刷新完成");
+            if (pendingEvents.put(serviceName, event) == null) {
+                scheduler.schedule(() -> flush(serviceName), coalesceMillis, TimeUnit.MILLISECONDS);
             }
         }
 
@@ -103,6 +181,110 @@ public class ServiceInstanceCacheRefresh implements InitializingBean {
             return InstancesChangeEvent.class;
         }
 
+        /**
+         * 接收到的 nacos 服务实例变更事件数
+         */
+        public long getEventsReceived() {
+            return eventsReceived.get();
+        }
+
+        /**
+         * 实际驱逐缓存的次数
+         */
+        public long getRefreshesApplied() {
+            return refreshesApplied.get();
+        }
+
+        /**
+         * 由于服务实例没有变化而跳过驱逐的次数
+         */
+        public long getRefreshesSkipped() {
+            return refreshesSkipped.get();
+        }
+
+        public void shutdown() {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+
+        private void flush(String serviceName) {
+            InstancesChangeEvent event = pendingEvents.remove(serviceName);
+            if (event != null) {
+                try {
+                    refresh(serviceName, event);
+                } catch (RuntimeException e) {
+                    log.warn("刷新 Spring cloud loadbalancer 服务缓存失败：{}", serviceName, e);
+                }
+            }
+        }
+
+        private void refresh(String serviceName, InstancesChangeEvent event) {
+            Cache cache = defaultLoadBalancerCacheManager.getCache(SERVICE_INSTANCE_CACHE_NAME);
+            if (cache == null) {
+                return;
+            }
+            Cache.ValueWrapper cached = cache.get(serviceName);
+            if (cached == null || isSameInstances(cached.get(), event.getHosts())) {
+                refreshesSkipped.incrementAndGet();
+                log.debug("服务 {} 的实例没有变化，跳过刷新 Spring cloud loadbalancer 服务缓存", serviceName);
+                return;
+            }
+            cache.evictIfPresent(serviceName);
+            refreshesApplied.incrementAndGet();
+            log.debug("Spring cloud loadbalancer 服务缓存刷新完成：{}", serviceName);
+        }
+
+        /**
+         * 判断缓存中的服务实例与事件中可用的实例是否一致：地址、端口、权重及 metadata 都相同（双向比较）.
+         */
+        static boolean isSameInstances(Object cached, List<Instance> hosts) {
+            if (!(cached instanceof List<?> cachedInstances) || hosts == null) {
+                return false;
+            }
+            Map<String, Instance> available = new HashMap<>();
+            for (Instance host : hosts) {
+                if (host.isHealthy() && host.isEnabled()) {
+                    available.put(host.getIp() + ":" + host.getPort(), host);
+                }
+            }
+            if (available.size() != cachedInstances.size()) {
+                return false;
+            }
+            for (Object element : cachedInstances) {
+                if (!(element instanceof ServiceInstance instance)) {
+                    return false;
+                }
+                Instance host = available.get(instance.getHost() + ":" + instance.getPort());
+                if (host == null || !isSameInstance(instance, host)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isSameInstance(ServiceInstance instance, Instance host) {
+            Map<String, String> metadata = instance.getMetadata();
+            Map<String, String> hostMetadata = host.getMetadata();
+            for (Map.Entry<String, String> entry : hostMetadata.entrySet()) {
+                if (!Objects.equals(entry.getValue(), metadata.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            // 被移除的 metadata（例如去掉了版本号），NacosServiceDiscovery 添加的 nacos.* 除外
+            for (String key : metadata.keySet()) {
+                if (!key.startsWith(NACOS_METADATA_PREFIX) && !hostMetadata.containsKey(key)) {
+                    return false;
+                }
+            }
+            String weight = metadata.get(SERVICE_META_WEIGHT_KEY);
+            try {
+                return weight == null || Double.parseDouble(weight) == host.getWeight();
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
         private String stripServiceName(String serviceName) {
             if (StringUtils.isNotBlank(serviceName)) {
                 return serviceName.substring(serviceName.lastIndexOf("@") + 1);
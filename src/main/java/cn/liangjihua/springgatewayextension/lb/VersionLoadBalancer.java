@@ -1,12 +1,22 @@
 package cn.liangjihua.springgatewayextension.lb;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.map.MapUtil;
-import cn.hutool.core.net.NetUtil;
-import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.http.HttpUtil;
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
 import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.concurrency.AdaptiveConcurrencyLimiter;
+import cn.liangjihua.springgatewayextension.lb.concurrency.ConcurrencyLimitExceededException;
+import cn.liangjihua.springgatewayextension.lb.health.ActiveHealthChecker;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+import cn.liangjihua.springgatewayextension.lb.metrics.LoadBalancerMetrics;
+import cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome;
+import cn.liangjihua.springgatewayextension.lb.metrics.ServiceMetrics;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetectionProperties;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.policy.ServicePolicy;
+import cn.liangjihua.springgatewayextension.lb.policy.VersionFallback;
+import cn.liangjihua.springgatewayextension.lb.recorder.RoutingFlightRecorder;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverChain;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.cloud.client.ServiceInstance;
@@ -15,56 +25,192 @@ import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBal
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
 import reactor.core.publisher.Mono;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-
-import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * 负载均衡器实现：从指定的版本中选取服务实例
  */
 @Slf4j
 public class VersionLoadBalancer implements ReactorServiceInstanceLoadBalancer {
-    private static final String VERSION_HEADER_KEY = "X-service-version";
-
-
     private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers;
 
     private final String serviceId;
 
-    private final IRuleChooser ruleChooser;
+    /**
+     * 服务的负载均衡策略：选择器、fallback 方式及就近路由，配置变化时整体替换
+     */
+    private final Supplier<ServicePolicy> policy;
+
+    private final LocalAddressResolver localAddressResolver;
+
+    private final VersionResolverChain versionResolverChain;
+
+    private final InstanceStatsRegistry statsRegistry;
+
+    private final OutlierDetector outlierDetector;
+
+    private final ServiceMetrics metrics;
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final RoutingFlightRecorder recorder;
+
+    private final ActiveHealthChecker healthChecker;
+
+    /**
+     * 是否需要记录选取实例的耗时：开启了指标或路由决策记录
+     */
+    private final boolean timed;
+
+    private volatile VersionRoutingIndex routingIndex = VersionRoutingIndex.EMPTY;
+
+    /**
+     * 上一次选取实例时使用的策略，策略被替换时更新指标的 chooser tag
+     */
+    private volatile ServicePolicy lastPolicy;
 
     public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
                                String serviceId, IRuleChooser ruleChooser) {
+        this(serviceInstanceListSuppliers, serviceId, ruleChooser, new InstanceStatsRegistry());
+    }
+
+    private VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                                String serviceId, IRuleChooser ruleChooser, InstanceStatsRegistry statsRegistry) {
+        this(serviceInstanceListSuppliers, serviceId, ruleChooser, new LocalAddressResolver(),
+            VersionResolverChain.defaultChain(), statsRegistry,
+            new OutlierDetector(new OutlierDetectionProperties(), statsRegistry));
+    }
+
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId, IRuleChooser ruleChooser,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector) {
+        this(serviceInstanceListSuppliers, serviceId, ruleChooser, localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, LoadBalancerMetrics.NOOP);
+    }
+
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId, IRuleChooser ruleChooser,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics) {
+        this(serviceInstanceListSuppliers, serviceId, ruleChooser, localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, metrics, LocalityRouter.DISABLED);
+    }
+
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId, IRuleChooser ruleChooser,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics,
+                               LocalityRouter localityRouter) {
+        this(serviceInstanceListSuppliers, serviceId, ruleChooser, localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, metrics, localityRouter, AdaptiveConcurrencyLimiter.DISABLED);
+    }
+
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId, IRuleChooser ruleChooser,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics,
+                               LocalityRouter localityRouter,
+                               AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(serviceInstanceListSuppliers, serviceId,
+            fixedPolicy(new ServicePolicy(ruleChooser, VersionFallback.LOCAL_THEN_NON_VERSIONED, localityRouter)),
+            localAddressResolver, versionResolverChain, statsRegistry, outlierDetector, metrics, concurrencyLimiter);
+    }
+
+    /**
+     * @param policy 服务的负载均衡策略，每次选取实例时获取一次
+     * @see cn.liangjihua.springgatewayextension.lb.policy.ServicePolicyRegistry
+     */
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId,
+                               Supplier<ServicePolicy> policy,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics,
+                               AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this(serviceInstanceListSuppliers, serviceId, policy, localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, metrics, concurrencyLimiter, RoutingFlightRecorder.DISABLED);
+    }
+
+    /**
+     * @param policy 服务的负载均衡策略，每次选取实例时获取一次
+     * @param recorder 最近的路由决策记录
+     */
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId,
+                               Supplier<ServicePolicy> policy,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics,
+                               AdaptiveConcurrencyLimiter concurrencyLimiter,
+                               RoutingFlightRecorder recorder) {
+        this(serviceInstanceListSuppliers, serviceId, policy, localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, metrics, concurrencyLimiter, recorder, ActiveHealthChecker.DISABLED);
+    }
+
+    /**
+     * @param policy 服务的负载均衡策略，每次选取实例时获取一次
+     * @param recorder 最近的路由决策记录
+     * @param healthChecker 主动健康检查
+     */
+    public VersionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSuppliers,
+                               String serviceId,
+                               Supplier<ServicePolicy> policy,
+                               LocalAddressResolver localAddressResolver,
+                               VersionResolverChain versionResolverChain,
+                               InstanceStatsRegistry statsRegistry,
+                               OutlierDetector outlierDetector,
+                               LoadBalancerMetrics metrics,
+                               AdaptiveConcurrencyLimiter concurrencyLimiter,
+                               RoutingFlightRecorder recorder,
+                               ActiveHealthChecker healthChecker) {
         this.serviceInstanceListSuppliers = serviceInstanceListSuppliers;
         this.serviceId = serviceId;
-        this.ruleChooser = ruleChooser;
+        this.policy = policy;
+        this.localAddressResolver = localAddressResolver;
+        this.versionResolverChain = versionResolverChain;
+        this.statsRegistry = statsRegistry;
+        this.outlierDetector = outlierDetector;
+        this.lastPolicy = policy.get();
+        this.metrics = metrics.forService(serviceId, lastPolicy.chooser().getClass().getSimpleName());
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.recorder = recorder;
+        this.healthChecker = healthChecker;
+        this.timed = this.metrics.isEnabled() || recorder.isEnabled();
     }
 
     @Override
     public Mono<Response<ServiceInstance>> choose(Request request) {
         // 从request中获取版本，兼容webflux方式
-        RequestData requestData = ((RequestDataContext) (request.getContext())).getClientRequest();
-        String version = getVersionFromRequestData(requestData);
+        RequestDataContext context = (RequestDataContext) request.getContext();
+        RequestData requestData = context.getClientRequest();
+        String version = versionResolverChain.resolve(requestData);
         log.debug("选择的版本号为：{}", version);
+        long start = timed ? System.nanoTime() : 0L;
         return Objects.requireNonNull(serviceInstanceListSuppliers.getIfAvailable())
             .get(request)
             .next()
-            .map(instanceList -> getInstanceResponse(instanceList, version));
-    }
-
-    private String getVersionFromRequestData(RequestData requestData) {
-        Map<String, String> queryMap = HttpUtil.decodeParamMap(requestData.getUrl().toString(), StandardCharsets.UTF_8);
-        if (MapUtil.isNotEmpty(queryMap) && queryMap.containsKey(VERSION_HEADER_KEY)
-            && StrUtil.isNotBlank(queryMap.get(VERSION_HEADER_KEY))) {
-            return queryMap.get(VERSION_HEADER_KEY);
-        } else if (requestData.getHeaders().containsKey(VERSION_HEADER_KEY)) {
-            List<String> versions = requestData.getHeaders().get(VERSION_HEADER_KEY);
-            return versions != null ? versions.get(0) : null;
-        }
-        return null;
+            .map(instanceList -> getInstanceResponse(instanceList, version, context, start));
     }
 
     /**
@@ -73,12 +219,31 @@ public class VersionLoadBalancer implements ReactorServiceInstanceLoadBalancer {
      * 版本号为空时，优先本地实例，否则选择无版本号的实例。但是若版本号不为空，并且
      * 没有与版本号关联的实例，则会优先 fallback 到本地实例，无本地实例则 fallback 到无版本号的实例。
      * 若存在多个符合规则的实例，则通过 {@link IRuleChooser} 选取要使用的实例.
+     * 开启自适应并发限制时，候选实例都已达到并发上限则抛出 {@link ConcurrencyLimitExceededException}。
      *
      * @param instances 所有实例列表
      * @param version 版本号
      * @return 与版本号关联的实例，或 EmptyResponse
      */
     Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String version) {
+        return getInstanceResponse(instances, version, null);
+    }
+
+    /**
+     * 返回与版本号关联的实例，请求上下文会传递给 {@link IRuleChooser}.
+     *
+     * @param instances 所有实例列表
+     * @param version 版本号
+     * @param context 请求上下文，可能为 null
+     * @return 与版本号关联的实例，或 EmptyResponse
+     */
+    Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String version,
+                                                  RequestDataContext context) {
+        return getInstanceResponse(instances, version, context, timed ? System.nanoTime() : 0L);
+    }
+
+    private Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String version,
+                                                          RequestDataContext context, long start) {
         if (log.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder();
             for (ServiceInstance instance : instances) {
@@ -91,52 +256,211 @@ public class VersionLoadBalancer implements ReactorServiceInstanceLoadBalancer {
         }
 
 
-        List<ServiceInstance> candidateInstances = getCandidateInstances(version, instances);
+        ServicePolicy servicePolicy = currentPolicy();
+        VersionRoutingIndex index = getRoutingIndex(instances);
+        List<ServiceInstance> routedInstances = routeCandidates(index, version, servicePolicy);
+        List<ServiceInstance> candidateInstances = selectCandidates(index, routedInstances, servicePolicy);
 
-        ServiceInstance serviceInstance = this.ruleChooser.choose(candidateInstances);
+        ServiceInstance serviceInstance = servicePolicy.chooser().choose(candidateInstances, context);
         if (!Objects.isNull(serviceInstance)) {
             log.debug("使用serviceId为：{}服务， 选择version为：{}， 地址：{}:{}，", serviceId, version,
                 serviceInstance.getHost(), serviceInstance.getPort());
-            return new DefaultResponse(serviceInstance);
+            InstanceStats stats = index.getStats(serviceInstance);
+            recordDecision(version, index.getOutcome(routedInstances), candidateInstances.size(), serviceInstance,
+                stats, start);
+            return new VersionResponse(serviceInstance, stats);
+        }
+        if (isSaturated(routedInstances, candidateInstances)) {
+            recordDecision(version, RoutingOutcome.REJECTED, 0, null, null, start);
+            log.debug("serviceId为：{}的服务版本：{}的实例都已达到并发上限，拒绝请求", serviceId, version);
+            throw new ConcurrencyLimitExceededException(serviceId, version, routedInstances.size());
         }
+        recordDecision(version, RoutingOutcome.EMPTY, candidateInstances.size(), null, null, start);
         return new EmptyResponse();
     }
 
-    private static List<ServiceInstance> getCandidateInstances(String version,
-                                                               List<ServiceInstance> instances) {
+    /**
+     * 从请求对应的候选实例中选取一个与 exclude 不同的实例，用于对冲请求.
+     * <p></p>
+     * 候选实例与 {@link #choose} 相同（同一个版本、已经去掉了被摘除的实例），只是去掉了 exclude，
+     * 没有其他候选实例时返回 EmptyResponse。
+     *
+     * @param request 负载均衡请求
+     * @param exclude 第一次请求使用的实例
+     * @return 另一个实例
+     * @see cn.liangjihua.springgatewayextension.lb.hedge.HedgingExecutor
+     */
+    public Mono<Response<ServiceInstance>> chooseAlternate(Request request, ServiceInstance exclude) {
+        RequestDataContext context = (RequestDataContext) request.getContext();
+        String version = versionResolverChain.resolve(context.getClientRequest());
+        return Objects.requireNonNull(serviceInstanceListSuppliers.getIfAvailable())
+            .get(request)
+            .next()
+            .map(instanceList -> {
+                ServicePolicy servicePolicy = currentPolicy();
+                VersionRoutingIndex index = getRoutingIndex(instanceList);
+                List<ServiceInstance> candidateInstances = selectCandidates(index,
+                    routeCandidates(index, version, servicePolicy), servicePolicy);
+                List<ServiceInstance> alternates = excluding(candidateInstances, exclude);
+                ServiceInstance serviceInstance = servicePolicy.chooser().choose(alternates, context);
+                if (serviceInstance == null) {
+                    return new EmptyResponse();
+                }
+                return new VersionResponse(serviceInstance, index.getStats(serviceInstance));
+            });
+    }
+
+    /**
+     * 从候选实例中去掉 exclude，结果按照被去掉的实例缓存在候选实例上，
+     * 有状态的选择器在对冲请求之间保持状态，也不会影响原候选实例的状态.
+     */
+    private List<ServiceInstance> excluding(List<ServiceInstance> candidates, ServiceInstance exclude) {
+        int excluded = -1;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (isSameAddress(candidates.get(i), exclude)) {
+                excluded = i;
+                break;
+            }
+        }
+        if (excluded < 0) {
+            return candidates;
+        }
+        if (candidates instanceof CandidateInstances candidateInstances) {
+            AtomicReferenceArray<List<ServiceInstance>> alternates =
+                candidateInstances.getState(this, c -> new AtomicReferenceArray<>(c.size()));
+            List<ServiceInstance> cached = alternates.get(excluded);
+            if (cached == null) {
+                cached = withoutAddress(candidates, exclude);
+                alternates.set(excluded, cached);
+            }
+            return cached;
+        }
+        return withoutAddress(candidates, exclude);
+    }
 
-        List<ServiceInstance> nonVersionedInstances = instances.stream()
-                .filter(s -> !s.getMetadata().containsKey(SERVICE_META_VERSION_KEY))
-                .toList();
+    private static List<ServiceInstance> withoutAddress(List<ServiceInstance> candidates, ServiceInstance exclude) {
+        List<ServiceInstance> alternates = new ArrayList<>(candidates.size());
+        for (ServiceInstance instance : candidates) {
+            if (!isSameAddress(instance, exclude)) {
+                alternates.add(instance);
+            }
+        }
+        return CandidateInstances.of(alternates);
+    }
 
-        List<ServiceInstance> versionedInstances = instances.stream()
-                .filter(instance -> instance.getMetadata().containsKey(SERVICE_META_VERSION_KEY))
-                .toList();
+    private static boolean isSameAddress(ServiceInstance instance, ServiceInstance other) {
+        return instance.getHost().equals(other.getHost()) && instance.getPort() == other.getPort();
+    }
 
-        List<ServiceInstance> hostInstances = getHostInstances(instances);
+    public String getServiceId() {
+        return serviceId;
+    }
 
-        if (StrUtil.isBlank(version) && CollUtil.isEmpty(hostInstances)) {
-            return nonVersionedInstances;
+    /**
+     * 预热：加载服务实例列表并构建路由索引，使第一个请求不需要等待注册中心.
+     *
+     * @return 加载到的实例数
+     * @see LoadBalancerWarmUp
+     */
+    public Mono<Integer> warmUp() {
+        ServiceInstanceListSupplier supplier = serviceInstanceListSuppliers.getIfAvailable();
+        if (supplier == null) {
+            return Mono.just(0);
         }
+        return supplier.get()
+            .next()
+            .map(instances -> {
+                getRoutingIndex(instances);
+                return instances.size();
+            })
+            .defaultIfEmpty(0);
+    }
 
-        if (StrUtil.isNotBlank(version)) {
-            List<ServiceInstance> candidateInstances = versionedInstances.stream()
-                .filter(instance -> version.equals(instance.getMetadata().get(SERVICE_META_VERSION_KEY)))
-                .toList();
-            if (candidateInstances.isEmpty()) {
-                return CollUtil.isNotEmpty(hostInstances) ? hostInstances : nonVersionedInstances;
-            }
-            return candidateInstances;
-        } else {
-            return hostInstances;
+    /**
+     * 版本隔离选出的实例，开启主动健康检查时跳过实例都不健康的层级.
+     */
+    private List<ServiceInstance> routeCandidates(VersionRoutingIndex index, String version,
+                                                  ServicePolicy servicePolicy) {
+        if (healthChecker.isEnabled()) {
+            return index.getCandidateInstances(version, servicePolicy.fallback(),
+                candidates -> healthChecker.hasHealthy(candidates, index::getStats));
         }
+        return index.getCandidateInstances(version, servicePolicy.fallback());
     }
 
-    private static List<ServiceInstance> getHostInstances(List<ServiceInstance> instances) {
-        String host = Objects.nonNull(NetUtil.getLocalhost())
-                ? ObjectUtil.defaultIfNull(NetUtil.getLocalhost().getHostAddress(), "") : "";
-        return instances.stream()
-                .filter(instance -> host.equals(instance.getHost()))
-                .toList();
+    /**
+     * 在版本隔离选出的实例中去掉不健康的实例、被摘除的实例及达到并发上限的实例，开启就近路由时选择最近的满足条件的层级，
+     * 层级中的实例都达到并发上限时溢出到下一个层级.
+     */
+    private List<ServiceInstance> selectCandidates(VersionRoutingIndex index, List<ServiceInstance> routedInstances,
+                                                   ServicePolicy servicePolicy) {
+        UnaryOperator<List<ServiceInstance>> filter = concurrencyLimiter.isEnabled()
+            ? candidates -> concurrencyLimiter.filter(outlierDetector.filter(candidates), index::getStats)
+            : outlierDetector::filter;
+        if (healthChecker.isEnabled()) {
+            UnaryOperator<List<ServiceInstance>> next = filter;
+            filter = candidates -> next.apply(healthChecker.filter(candidates, index::getStats));
+        }
+        LocalityRouter localityRouter = servicePolicy.localityRouter();
+        if (localityRouter.isEnabled()) {
+            return localityRouter.select(routedInstances, filter, index::getStats);
+        }
+        return filter.apply(routedInstances);
+    }
+
+    /**
+     * 没有可用的候选实例是否是因为实例都已达到并发上限，只在没有可用实例时调用
+     */
+    private boolean isSaturated(List<ServiceInstance> routedInstances, List<ServiceInstance> candidateInstances) {
+        return concurrencyLimiter.isEnabled() && candidateInstances.isEmpty()
+            && !outlierDetector.filter(routedInstances).isEmpty();
+    }
+
+    /**
+     * 记录路由决策的指标及决策记录
+     */
+    private void recordDecision(String version, RoutingOutcome outcome, int candidateSize, ServiceInstance instance,
+                                InstanceStats stats, long start) {
+        if (!timed) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        if (metrics.isEnabled()) {
+            metrics.record(version, outcome, candidateSize, stats, duration);
+        }
+        recorder.record(serviceId, version, outcome, instance, candidateSize, duration);
+    }
+
+    /**
+     * 返回服务当前的策略，策略被替换后更新指标的 chooser tag
+     */
+    private ServicePolicy currentPolicy() {
+        ServicePolicy current = policy.get();
+        if (current != lastPolicy) {
+            lastPolicy = current;
+            metrics.useChooser(current.chooser().getClass().getSimpleName());
+        }
+        return current;
+    }
+
+    private static Supplier<ServicePolicy> fixedPolicy(ServicePolicy policy) {
+        return () -> policy;
+    }
+
+    /**
+     * 返回实例列表对应的路由索引，只有在 supplier 返回了新的实例列表时才重新构建.
+     */
+    private VersionRoutingIndex getRoutingIndex(List<ServiceInstance> instances) {
+        VersionRoutingIndex index = this.routingIndex;
+        if (!index.isBuiltFrom(instances, localAddressResolver)) {
+            VersionRoutingIndex previous = index;
+            index = VersionRoutingIndex.build(instances, localAddressResolver, statsRegistry);
+            this.routingIndex = index;
+            statsRegistry.retain(previous.getAllStats(), index.getAllStats());
+            metrics.retainSelections(index.getAllStats());
+            healthChecker.watch(serviceId, instances, index::getStats);
+            log.debug("serviceId为：{}的服务实例列表或本机地址发生变化，重建路由索引", serviceId);
+        }
+        return index;
     }
 }
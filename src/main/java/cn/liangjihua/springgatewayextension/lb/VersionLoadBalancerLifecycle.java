@@ -1,8 +1,14 @@
 package cn.liangjihua.springgatewayextension.lb;
 
+import cn.liangjihua.springgatewayextension.lb.concurrency.AdaptiveConcurrencyLimiter;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetectionProperties;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.*;
 
+import java.time.Duration;
 import java.util.Map;
 
 import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
@@ -13,6 +19,12 @@ import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERV
  * 此类自定义了一个 http header: X-Backend-Version。
  * 这在开发时非常方便，在具有多个不同版本的服务实例时，调用者可以清晰的知道自己发起的请求
  * 到底被哪一个实例处理了。
+ * <p></p>
+ * 同时在请求开始及结束时更新服务实例正在处理中的请求数 {@link InstanceStats#getInflight()}，
+ * 并记录请求的响应时间 {@link InstanceStats#observeLatency(long)}（失败的请求至少记为 {@link #FAILURE_LATENCY_PENALTY}），
+ * 供 {@link cn.liangjihua.springgatewayextension.lb.chooser.LeastRequestRuleChooser} 等选择器使用；
+ * 请求的结果交由 {@link OutlierDetector} 判断是否需要摘除实例，
+ * 响应时间及结果同时交由 {@link AdaptiveConcurrencyLimiter} 调整实例的并发上限。
  *
  * @see VersionLoadBalancer
  */
@@ -20,6 +32,36 @@ public class VersionLoadBalancerLifecycle
         implements LoadBalancerLifecycle<RequestDataContext, ResponseData, ServiceInstance> {
     public static final String HEADER_BACKEND_VERSION = "X-Backend-Version";
 
+    /**
+     * 失败的请求（包括超时）记录的最小响应时间：快速失败（例如连接被拒绝）的实例不应该因为失败得快而被认为响应快
+     */
+    public static final Duration FAILURE_LATENCY_PENALTY = Duration.ofSeconds(1);
+
+    private final InstanceStatsRegistry statsRegistry;
+
+    private final OutlierDetector outlierDetector;
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    public VersionLoadBalancerLifecycle() {
+        this(new InstanceStatsRegistry());
+    }
+
+    public VersionLoadBalancerLifecycle(InstanceStatsRegistry statsRegistry) {
+        this(statsRegistry, new OutlierDetector(new OutlierDetectionProperties(), statsRegistry));
+    }
+
+    public VersionLoadBalancerLifecycle(InstanceStatsRegistry statsRegistry, OutlierDetector outlierDetector) {
+        this(statsRegistry, outlierDetector, AdaptiveConcurrencyLimiter.DISABLED);
+    }
+
+    public VersionLoadBalancerLifecycle(InstanceStatsRegistry statsRegistry, OutlierDetector outlierDetector,
+                                        AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.statsRegistry = statsRegistry;
+        this.outlierDetector = outlierDetector;
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
     @Override
     public void onStart(Request<RequestDataContext> request) {
 
@@ -27,6 +69,14 @@ public class VersionLoadBalancerLifecycle
 
     @Override
     public void onStartRequest(Request<RequestDataContext> request, Response<ServiceInstance> lbResponse) {
+        TimedRequestContext timedContext = request.getContext();
+        if (timedContext != null) {
+            timedContext.setRequestStartTime(System.nanoTime());
+        }
+        InstanceStats stats = getStats(lbResponse);
+        if (stats != null) {
+            stats.incrementInflight();
+        }
     }
 
     @Override
@@ -37,11 +87,63 @@ public class VersionLoadBalancerLifecycle
         }
         ServiceInstance server = loadBalancerResponse.getServer();
         if (server != null) {
+            InstanceStats stats = getStats(loadBalancerResponse);
+            if (stats != null) {
+                int inflight = stats.getInflight();
+                stats.decrementInflight();
+                boolean discarded = completionContext.status() == CompletionContext.Status.DISCARD;
+                boolean failed = !discarded && isFailed(completionContext);
+                long latency = recordLatency(completionContext, stats, failed);
+                if (!discarded) {
+                    outlierDetector.onComplete(stats, failed);
+                    concurrencyLimiter.onSample(stats, failed ? -1 : latency, inflight, failed);
+                }
+            }
             Map<String, String> metadata = server.getMetadata();
-            if (metadata.containsKey(SERVICE_META_VERSION_KEY)) {
+            if (metadata.containsKey(SERVICE_META_VERSION_KEY) && completionContext.getClientResponse() != null) {
                 completionContext.getClientResponse().getHeaders()
                         .add(HEADER_BACKEND_VERSION, metadata.get(SERVICE_META_VERSION_KEY));
             }
         }
     }
+
+    /**
+     * 记录请求的响应时间，失败（包括超时）的请求至少记为 {@link #FAILURE_LATENCY_PENALTY}，
+     * 使 peak EWMA 能够避开正在超时的实例；被丢弃的请求（例如对冲中被取消的一方）记录已经经过的时间.
+     *
+     * @return 实际的响应时间，没有响应时间时返回 -1
+     */
+    private static long recordLatency(CompletionContext<ResponseData, ServiceInstance, RequestDataContext> context,
+                                      InstanceStats stats, boolean failed) {
+        if (context.getLoadBalancerRequest() == null || context.getLoadBalancerRequest().getContext() == null) {
+            return -1;
+        }
+        long startTime = context.getLoadBalancerRequest().getContext().getRequestStartTime();
+        if (startTime <= 0) {
+            return -1;
+        }
+        long latency = System.nanoTime() - startTime;
+        stats.observeLatency(failed ? Math.max(latency, FAILURE_LATENCY_PENALTY.toNanos()) : latency);
+        return latency;
+    }
+
+    /**
+     * 请求失败：连接异常等请求未能完成的情况，或者实例返回了 5xx
+     */
+    private static boolean isFailed(CompletionContext<ResponseData, ServiceInstance, RequestDataContext> context) {
+        if (context.status() == CompletionContext.Status.FAILED) {
+            return true;
+        }
+        ResponseData clientResponse = context.getClientResponse();
+        return clientResponse != null && clientResponse.getHttpStatus() != null
+            && clientResponse.getHttpStatus().is5xxServerError();
+    }
+
+    private InstanceStats getStats(Response<ServiceInstance> lbResponse) {
+        if (lbResponse instanceof VersionResponse versionResponse && versionResponse.getStats() != null) {
+            return versionResponse.getStats();
+        }
+        ServiceInstance server = lbResponse != null ? lbResponse.getServer() : null;
+        return server != null ? statsRegistry.get(server) : null;
+    }
 }
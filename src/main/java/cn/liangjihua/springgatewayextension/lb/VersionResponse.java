@@ -0,0 +1,22 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+
+/**
+ * {@link VersionLoadBalancer} 的选取结果，同时携带被选中实例的负载统计，
+ * 使 {@link VersionLoadBalancerLifecycle} 无需再次查找统计.
+ */
+public class VersionResponse extends DefaultResponse {
+    private final InstanceStats stats;
+
+    public VersionResponse(ServiceInstance serviceInstance, InstanceStats stats) {
+        super(serviceInstance);
+        this.stats = stats;
+    }
+
+    public InstanceStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,231 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.hutool.core.util.StrUtil;
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome;
+import cn.liangjihua.springgatewayextension.lb.policy.VersionFallback;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+
+/**
+ * 服务实例的路由索引.
+ * <p></p>
+ * 针对 {@link ServiceInstanceListSupplier} 返回的每一个实例列表只构建一次，构建完成后不可变。
+ * 索引中预先计算好了 版本号 -> 实例、无版本号的实例以及本地实例，
+ * 每次请求选取候选实例时只需要一次 map 查找，无需遍历实例列表，也不会创建新的对象。
+ * 索引中同时保存了每个实例对应的负载统计 {@link InstanceStats}。
+ *
+ * @see VersionLoadBalancer
+ */
+final class VersionRoutingIndex {
+
+    private static final List<ServiceInstance> NO_INSTANCES = CandidateInstances.of(Collections.emptyList());
+
+    static final VersionRoutingIndex EMPTY = new VersionRoutingIndex(Collections.emptyList(), Collections.emptySet(),
+        Collections.emptyMap(), Collections.emptyList(), Collections.emptyList(), Collections.emptyMap());
+
+    /**
+     * 构建索引所使用的实例列表，用于判断 supplier 是否返回了新的实例列表
+     */
+    private final List<ServiceInstance> source;
+
+    /**
+     * 构建索引时的本机地址集合，本机地址发生变化时需要重新计算本地实例
+     */
+    private final Set<String> localAddresses;
+
+    private final Map<String, List<ServiceInstance>> versionedInstances;
+
+    private final List<ServiceInstance> nonVersionedInstances;
+
+    private final List<ServiceInstance> hostInstances;
+
+    /**
+     * 没有指定版本号，或者指定的版本号没有对应实例时使用的候选实例：优先本地实例，否则为无版本号的实例
+     */
+    private final List<ServiceInstance> defaultInstances;
+
+    /**
+     * 实例 -> 负载统计，使用引用比较，构建完成后只读
+     */
+    private final Map<ServiceInstance, InstanceStats> stats;
+
+    private VersionRoutingIndex(List<ServiceInstance> source,
+                                Set<String> localAddresses,
+                                Map<String, List<ServiceInstance>> versionedInstances,
+                                List<ServiceInstance> nonVersionedInstances,
+                                List<ServiceInstance> hostInstances,
+                                Map<ServiceInstance, InstanceStats> stats) {
+        this.source = source;
+        this.localAddresses = localAddresses;
+        this.versionedInstances = versionedInstances;
+        this.nonVersionedInstances = nonVersionedInstances;
+        this.hostInstances = hostInstances;
+        this.defaultInstances = hostInstances.isEmpty() ? nonVersionedInstances : hostInstances;
+        this.stats = stats;
+    }
+
+    /**
+     * 遍历一次实例列表，构建路由索引.
+     *
+     * @param instances 所有实例列表
+     * @param localAddressResolver 本机地址解析器，用于选出本地实例
+     * @param statsRegistry 实例负载统计注册表
+     * @return 路由索引
+     */
+    static VersionRoutingIndex build(List<ServiceInstance> instances,
+                                     LocalAddressResolver localAddressResolver,
+                                     InstanceStatsRegistry statsRegistry) {
+        Set<String> localAddresses = localAddressResolver.getAddresses();
+        Map<String, List<ServiceInstance>> versioned = new HashMap<>();
+        List<ServiceInstance> nonVersioned = new ArrayList<>();
+        List<ServiceInstance> host = new ArrayList<>();
+        Map<ServiceInstance, InstanceStats> stats = new IdentityHashMap<>(instances.size());
+        for (ServiceInstance instance : instances) {
+            stats.put(instance, statsRegistry.getOrCreate(instance));
+            Map<String, String> metadata = instance.getMetadata();
+            if (!metadata.containsKey(SERVICE_META_VERSION_KEY)) {
+                nonVersioned.add(instance);
+            } else {
+                String version = metadata.get(SERVICE_META_VERSION_KEY);
+                if (version != null) {
+                    versioned.computeIfAbsent(version, k -> new ArrayList<>()).add(instance);
+                }
+            }
+            if (instance.getHost() != null && localAddresses.contains(instance.getHost())) {
+                host.add(instance);
+            }
+        }
+
+        Map<String, List<ServiceInstance>> versionedInstances = new HashMap<>(versioned.size() * 2);
+        versioned.forEach((version, list) -> versionedInstances.put(version, CandidateInstances.of(list)));
+        return new VersionRoutingIndex(instances, localAddresses, versionedInstances,
+            CandidateInstances.of(nonVersioned), CandidateInstances.of(host), stats);
+    }
+
+    /**
+     * 判断索引是否是由给定的实例列表及本机地址构建的.
+     * <p></p>
+     * 使用引用比较：带缓存的 supplier 在缓存有效期内总是返回同一个列表对象，
+     * 只有在缓存过期或被驱逐（见 {@link ServiceInstanceCacheRefresh}）之后才会返回新的列表；
+     * {@link LocalAddressResolver} 也只有在本机地址变化时才会替换地址集合。
+     */
+    boolean isBuiltFrom(List<ServiceInstance> instances, LocalAddressResolver localAddressResolver) {
+        return source == instances && localAddresses == localAddressResolver.getAddresses();
+    }
+
+    /**
+     * 返回与版本号关联的候选实例.
+     * <p></p>
+     * 版本号为空时，优先本地实例，否则选择无版本号的实例。若版本号不为空，并且
+     * 没有与版本号关联的实例，则会优先 fallback 到本地实例，无本地实例则 fallback 到无版本号的实例。
+     *
+     * @param version 版本号
+     * @return 不可变的候选实例列表 {@link CandidateInstances}
+     */
+    List<ServiceInstance> getCandidateInstances(String version) {
+        return getCandidateInstances(version, VersionFallback.LOCAL_THEN_NON_VERSIONED);
+    }
+
+    /**
+     * 返回与版本号关联的候选实例，版本号为空或没有对应实例时按照 fallback 选择候选实例.
+     *
+     * @param version 版本号
+     * @param fallback fallback 方式
+     * @return 不可变的候选实例列表 {@link CandidateInstances}
+     */
+    List<ServiceInstance> getCandidateInstances(String version, VersionFallback fallback) {
+        if (StrUtil.isBlank(version)) {
+            return fallback == VersionFallback.LOCAL_THEN_NON_VERSIONED ? defaultInstances : nonVersionedInstances;
+        }
+        List<ServiceInstance> candidateInstances = versionedInstances.get(version);
+        if (candidateInstances != null) {
+            return candidateInstances;
+        }
+        return switch (fallback) {
+            case LOCAL_THEN_NON_VERSIONED -> defaultInstances;
+            case NON_VERSIONED -> nonVersionedInstances;
+            case NONE -> NO_INSTANCES;
+        };
+    }
+
+    /**
+     * 返回与版本号关联的候选实例，候选实例都不可用时按照 fallback 顺序（本地实例、无版本号的实例）选择下一个层级.
+     * <p></p>
+     * 所有层级都不可用时返回与 {@link #getCandidateInstances(String, VersionFallback)} 相同的候选实例。
+     *
+     * @param version 版本号
+     * @param fallback fallback 方式
+     * @param usable 候选实例中是否有可用的实例
+     * @return 不可变的候选实例列表 {@link CandidateInstances}
+     */
+    List<ServiceInstance> getCandidateInstances(String version, VersionFallback fallback,
+                                                Predicate<List<ServiceInstance>> usable) {
+        List<ServiceInstance> candidateInstances = getCandidateInstances(version, fallback);
+        if (candidateInstances.isEmpty() || candidateInstances == nonVersionedInstances
+            || usable.test(candidateInstances)) {
+            return candidateInstances;
+        }
+        if (candidateInstances != hostInstances) {
+            // 与版本号关联的实例
+            if (fallback == VersionFallback.NONE) {
+                return candidateInstances;
+            }
+            if (fallback == VersionFallback.LOCAL_THEN_NON_VERSIONED && !hostInstances.isEmpty()
+                && usable.test(hostInstances)) {
+                return hostInstances;
+            }
+        }
+        return !nonVersionedInstances.isEmpty() && usable.test(nonVersionedInstances)
+            ? nonVersionedInstances : candidateInstances;
+    }
+
+    /**
+     * 返回 {@link #getCandidateInstances} 返回的候选实例对应的路由结果，使用引用比较.
+     */
+    RoutingOutcome getOutcome(List<ServiceInstance> candidateInstances) {
+        if (candidateInstances.isEmpty()) {
+            return RoutingOutcome.EMPTY;
+        }
+        if (candidateInstances == hostInstances) {
+            return RoutingOutcome.LOCAL_FALLBACK;
+        }
+        if (candidateInstances == nonVersionedInstances) {
+            return RoutingOutcome.NON_VERSIONED_FALLBACK;
+        }
+        return RoutingOutcome.VERSION_HIT;
+    }
+
+    /**
+     * 返回实例的负载统计，实例必须来自构建索引的实例列表.
+     */
+    InstanceStats getStats(ServiceInstance instance) {
+        return stats.get(instance);
+    }
+
+    Collection<InstanceStats> getAllStats() {
+        return stats.values();
+    }
+
+    List<ServiceInstance> getNonVersionedInstances() {
+        return nonVersionedInstances;
+    }
+
+    List<ServiceInstance> getHostInstances() {
+        return hostInstances;
+    }
+}
@@ -0,0 +1,76 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * 不可变的候选实例列表.
+ * <p></p>
+ * 候选实例列表在路由索引中预先构建，在服务实例列表不变时，同一组候选实例总是同一个对象。
+ * 有状态的 {@link IRuleChooser}（例如加权轮询）可以通过 {@link #getState} 将状态附加在候选实例列表上，
+ * 状态随候选实例列表一起创建和回收：服务实例发生变化后路由索引被重建，旧的状态也就随之被丢弃。
+ */
+public final class CandidateInstances extends AbstractList<ServiceInstance> implements RandomAccess {
+    private static final Object[] NO_STATES = new Object[0];
+
+    private final ServiceInstance[] instances;
+
+    /**
+     * 附加的状态，依次存放 owner, state，写时复制
+     */
+    private volatile Object[] states = NO_STATES;
+
+    private CandidateInstances(ServiceInstance[] instances) {
+        this.instances = instances;
+    }
+
+    public static CandidateInstances of(Collection<? extends ServiceInstance> instances) {
+        return new CandidateInstances(instances.toArray(new ServiceInstance[0]));
+    }
+
+    @Override
+    public ServiceInstance get(int index) {
+        return instances[index];
+    }
+
+    @Override
+    public int size() {
+        return instances.length;
+    }
+
+    /**
+     * 获取 owner 附加在此候选实例列表上的状态，不存在时使用 factory 创建.
+     *
+     * @param owner 状态的所有者，使用引用比较
+     * @param factory 状态的创建方法
+     * @return 状态
+     */
+    @SuppressWarnings("unchecked")
+    public <S> S getState(Object owner, Function<? super CandidateInstances, ? extends S> factory) {
+        Object[] current = states;
+        for (int i = 0; i < current.length; i += 2) {
+            if (current[i] == owner) {
+                return (S) current[i + 1];
+            }
+        }
+        synchronized (this) {
+            current = states;
+            for (int i = 0; i < current.length; i += 2) {
+                if (current[i] == owner) {
+                    return (S) current[i + 1];
+                }
+            }
+            S state = factory.apply(this);
+            Object[] updated = new Object[current.length + 2];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = owner;
+            updated[current.length + 1] = state;
+            states = updated;
+            return state;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 有状态的选择器用来保存每一组候选实例对应状态的工具.
+ * <p></p>
+ * 候选实例为 {@link CandidateInstances} 时，状态附加在候选实例列表上；
+ * 否则只保留最近一次使用的候选实例列表（引用比较）的状态，列表变化时重新创建。
+ *
+ * @param <S> 状态类型
+ */
+public final class CandidateStates<S> {
+    private final Function<? super List<ServiceInstance>, ? extends S> factory;
+
+    private volatile Last<S> last;
+
+    public CandidateStates(Function<? super List<ServiceInstance>, ? extends S> factory) {
+        this.factory = factory;
+    }
+
+    public S get(List<ServiceInstance> instances) {
+        if (instances instanceof CandidateInstances candidates) {
+            return candidates.getState(this, factory);
+        }
+        Last<S> current = last;
+        if (current != null && current.instances == instances) {
+            return current.state;
+        }
+        S state = factory.apply(instances);
+        last = new Last<>(instances, state);
+        return state;
+    }
+
+    private record Last<S>(List<ServiceInstance> instances, S state) {
+    }
+}
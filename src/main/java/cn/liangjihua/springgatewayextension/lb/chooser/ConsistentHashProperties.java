@@ -0,0 +1,24 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import lombok.Data;
+
+/**
+ * 一致性哈希选择器的配置，哈希键依次从请求头、cookie、路径中获取，第一个非空的值生效
+ */
+@Data
+public class ConsistentHashProperties {
+    /**
+     * 作为哈希键的请求头名称
+     */
+    private String header = "X-Hash-Key";
+
+    /**
+     * 作为哈希键的 cookie 名称
+     */
+    private String cookie;
+
+    /**
+     * 作为哈希键的路径片段下标，从 0 开始，例如 /api/users/42 中下标 2 为 42，小于 0 时不使用路径
+     */
+    private int pathSegment = -1;
+}
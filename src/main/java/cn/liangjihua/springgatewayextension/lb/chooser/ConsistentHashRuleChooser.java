@@ -0,0 +1,192 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.config.VersionIsolationProperties;
+import com.alibaba.nacos.common.utils.CollectionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.MultiValueMap;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 一致性哈希选择器（Maglev）.
+ * <p></p>
+ * 根据请求中的哈希键（请求头、cookie 或路径片段，见 {@link ConsistentHashProperties}）选取实例，
+ * 相同哈希键的请求总是被路由到同一个实例，使下游服务的本地缓存有更高的命中率。
+ * 实例增减时只有少部分哈希键会被重新分配。
+ * <p></p>
+ * 每一组候选实例的 Maglev 查找表只在候选实例变化时构建一次，选取时只需要计算哈希键的哈希值并查表。
+ * 请求中没有哈希键时随机选取。
+ */
+@Slf4j
+public class ConsistentHashRuleChooser implements IRuleChooser {
+    /**
+     * Maglev 查找表的大小，需要为质数，并且远大于实例数量以保证均衡
+     */
+    private static final int[] TABLE_SIZES = {
+        251, 509, 1021, 2039, 4093, 8191, 16381, 32749, 65521, 131071, 262139, 524287
+    };
+
+    private static final int TABLE_SIZE_FACTOR = 100;
+
+    private final ConsistentHashProperties properties;
+
+    private final IRuleChooser fallback = new RandomRuleChooser();
+
+    private final CandidateStates<int[]> tables = new CandidateStates<>(ConsistentHashRuleChooser::buildTable);
+
+    @Autowired
+    public ConsistentHashRuleChooser(VersionIsolationProperties properties) {
+        this(properties.getConsistentHash());
+    }
+
+    public ConsistentHashRuleChooser(ConsistentHashProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public ServiceInstance choose(List<ServiceInstance> instances) {
+        return fallback.choose(instances);
+    }
+
+    @Override
+    public ServiceInstance choose(List<ServiceInstance> instances, RequestDataContext context) {
+        if (CollectionUtils.isEmpty(instances)) {
+            return null;
+        }
+        RequestData requestData = context != null ? context.getClientRequest() : null;
+        long hash = requestData != null ? hashKey(requestData) : 0;
+        if (hash == 0) {
+            return fallback.choose(instances);
+        }
+        int[] table = tables.get(instances);
+        ServiceInstance serviceInstance = instances.get(table[(int) Long.remainderUnsigned(hash, table.length)]);
+        log.debug("选择了ip为{}, 端口为：{}的服务", serviceInstance.getHost(), serviceInstance.getPort());
+        return serviceInstance;
+    }
+
+    /**
+     * 计算请求中哈希键的哈希值，没有哈希键时返回 0.
+     */
+    private long hashKey(RequestData requestData) {
+        if (properties.getHeader() != null) {
+            HttpHeaders headers = requestData.getHeaders();
+            String value = headers != null ? headers.getFirst(properties.getHeader()) : null;
+            if (value != null && !value.isEmpty()) {
+                return hash(value, 0, value.length());
+            }
+        }
+        if (properties.getCookie() != null) {
+            MultiValueMap<String, String> cookies = requestData.getCookies();
+            String value = cookies != null ? cookies.getFirst(properties.getCookie()) : null;
+            if (value != null && !value.isEmpty()) {
+                return hash(value, 0, value.length());
+            }
+        }
+        if (properties.getPathSegment() >= 0 && requestData.getUrl() != null) {
+            return hashPathSegment(requestData.getUrl(), properties.getPathSegment());
+        }
+        return 0;
+    }
+
+    private static long hashPathSegment(URI url, int segment) {
+        String path = url.getRawPath();
+        if (path == null) {
+            return 0;
+        }
+        int start = path.startsWith("/") ? 1 : 0;
+        for (int i = 0; i < segment && start >= 0; i++) {
+            int next = path.indexOf('/', start);
+            start = next < 0 ? -1 : next + 1;
+        }
+        if (start < 0 || start >= path.length()) {
+            return 0;
+        }
+        int end = path.indexOf('/', start);
+        return hash(path, start, end < 0 ? path.length() : end);
+    }
+
+    /**
+     * 构建 Maglev 查找表：每个实例按照自己的排列依次占据表中空闲的位置，直到表被填满.
+     * <p></p>
+     * 实例按照 host:port 排序后轮流占位，查找表与候选实例的顺序无关，
+     * 不同的网关实例（或者刷新后实例顺序变化）看到相同的实例时，相同的哈希键总是被路由到同一个实例。
+     */
+    static int[] buildTable(List<ServiceInstance> instances) {
+        int size = instances.size();
+        int tableSize = tableSize(size);
+        String[] names = new String[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ServiceInstance instance = instances.get(i);
+            names[i] = instance.getHost() + ":" + instance.getPort();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> names[i]));
+        long[] offsets = new long[size];
+        long[] skips = new long[size];
+        long[] next = new long[size];
+        for (int i = 0; i < size; i++) {
+            String name = names[i];
+            long hash = hash(name, 0, name.length());
+            offsets[i] = Long.remainderUnsigned(hash, tableSize);
+            skips[i] = Long.remainderUnsigned(mix(hash ^ 0x9E3779B97F4A7C15L), tableSize - 1) + 1;
+        }
+        int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        int filled = 0;
+        while (true) {
+            for (int i : order) {
+                int slot = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+                while (table[slot] >= 0) {
+                    next[i]++;
+                    slot = (int) ((offsets[i] + next[i] * skips[i]) % tableSize);
+                }
+                table[slot] = i;
+                next[i]++;
+                if (++filled == tableSize) {
+                    return table;
+                }
+            }
+        }
+    }
+
+    private static int tableSize(int instances) {
+        long wanted = (long) instances * TABLE_SIZE_FACTOR;
+        for (int tableSize : TABLE_SIZES) {
+            if (tableSize >= wanted) {
+                return tableSize;
+            }
+        }
+        return TABLE_SIZES[TABLE_SIZES.length - 1];
+    }
+
+    /**
+     * 对字符串的一段计算 64 位哈希（FNV-1a 后再混淆），不会创建新的对象，结果不为 0.
+     */
+    static long hash(CharSequence value, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,6 +1,7 @@
 package cn.liangjihua.springgatewayextension.lb.chooser;
 
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
 
 import java.util.List;
 
@@ -9,4 +10,17 @@ import java.util.List;
  */
 public interface IRuleChooser {
     ServiceInstance choose(List<ServiceInstance> instances);
+
+    /**
+     * 根据请求上下文选取实例，需要根据请求内容路由的选择器（例如一致性哈希）实现此方法.
+     * <p></p>
+     * 默认忽略请求上下文，与 {@link #choose(List)} 相同。
+     *
+     * @param instances 候选实例
+     * @param context 请求上下文，可能为 null
+     * @return 选中的实例，没有候选实例时返回 null
+     */
+    default ServiceInstance choose(List<ServiceInstance> instances, RequestDataContext context) {
+        return choose(instances);
+    }
 }
@@ -0,0 +1,61 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import com.alibaba.nacos.common.utils.CollectionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少请求选择器（power of two choices）.
+ * <p></p>
+ * 随机选取两个不同的候选实例，使用正在处理中的请求数较少的那一个。
+ * 正在处理中的请求数由 {@link cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle}
+ * 记录在 {@link InstanceStatsRegistry} 中，每一组候选实例对应的统计对象只在候选实例变化时查找一次。
+ */
+@Slf4j
+public class LeastRequestRuleChooser implements IRuleChooser {
+    private final CandidateStates<InstanceStats[]> states;
+
+    public LeastRequestRuleChooser(InstanceStatsRegistry statsRegistry) {
+        this.states = new CandidateStates<>(instances -> {
+            InstanceStats[] stats = new InstanceStats[instances.size()];
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = statsRegistry.getOrCreate(instances.get(i));
+            }
+            return stats;
+        });
+    }
+
+    @Override
+    public ServiceInstance choose(List<ServiceInstance> instances) {
+        if (CollectionUtils.isNotEmpty(instances)) {
+            int size = instances.size();
+            if (size == 1) {
+                return instances.get(0);
+            }
+            InstanceStats[] stats = states.get(instances);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            int chosen = cost(stats[second]) < cost(stats[first]) ? second : first;
+            ServiceInstance serviceInstance = instances.get(chosen);
+            log.debug("选择了ip为{}, 端口为：{}的服务", serviceInstance.getHost(), serviceInstance.getPort());
+            return serviceInstance;
+        }
+        return null;
+    }
+
+    /**
+     * 实例的代价，代价小的实例被选中
+     */
+    protected double cost(InstanceStats stats) {
+        return stats.getInflight();
+    }
+}
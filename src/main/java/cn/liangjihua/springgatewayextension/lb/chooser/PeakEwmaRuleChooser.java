@@ -0,0 +1,26 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+
+/**
+ * 基于延迟的选择器（peak EWMA，参考 finagle 及 linkerd）.
+ * <p></p>
+ * 随机选取两个不同的候选实例，使用代价较小的那一个，代价为
+ * 对峰值敏感的响应时间 EWMA 乘以 (正在处理中的请求数 + 1)，见 {@link InstanceStats#getPeakEwmaCost()}。
+ * 某个实例变慢（GC 停顿、资源争抢）时其代价立即升高，流量会在数秒内转移到其他实例；
+ * 新上线的、还没有延迟数据的实例会被乐观地选中。
+ * <p></p>
+ * EWMA 的衰减时间通过 spring.gateway.lb.version.isolation.stats.latency-decay-time 配置。
+ */
+public class PeakEwmaRuleChooser extends LeastRequestRuleChooser {
+
+    public PeakEwmaRuleChooser(InstanceStatsRegistry statsRegistry) {
+        super(statsRegistry);
+    }
+
+    @Override
+    protected double cost(InstanceStats stats) {
+        return stats.getPeakEwmaCost();
+    }
+}
@@ -5,24 +5,37 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.client.ServiceInstance;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * 轮询选择器
+ * 轮询选择器.
+ * <p></p>
+ * 每一组候选实例（每个服务的每个版本）都有独立的游标，附加在 {@link CandidateInstances} 上，
+ * 不同服务、不同版本的请求不会互相推进游标，服务实例变化后旧的游标随候选实例一起被回收。
+ * 游标独占缓存行，避免多个游标之间的伪共享。
  */
 @Slf4j
 public class RoundRuleChooser implements IRuleChooser {
+    /**
+     * 游标所在的 long 数组的长度及游标的下标，游标前后各有 64 字节的填充
+     */
+    private static final int CURSOR_ARRAY_LENGTH = 16;
 
-    private final AtomicInteger position;
+    private static final int CURSOR_INDEX = 8;
 
-    public RoundRuleChooser() {
-        this.position = new AtomicInteger(1000);
-    }
+    private final CandidateStates<AtomicLongArray> cursors = new CandidateStates<>(instances -> {
+        AtomicLongArray cursor = new AtomicLongArray(CURSOR_ARRAY_LENGTH);
+        // 随机的起始位置，避免多个网关实例同时从第一个实例开始
+        cursor.set(CURSOR_INDEX, ThreadLocalRandom.current().nextInt(Math.max(1, instances.size())));
+        return cursor;
+    });
 
     @Override
     public ServiceInstance choose(List<ServiceInstance> instances) {
         if (CollectionUtils.isNotEmpty(instances)) {
-            ServiceInstance serviceInstance = instances.get(Math.abs(position.incrementAndGet() % instances.size()));
+            long position = cursors.get(instances).getAndIncrement(CURSOR_INDEX);
+            ServiceInstance serviceInstance = instances.get((int) Long.remainderUnsigned(position, instances.size()));
             log.debug("选择了ip为{}, 端口为：{}的服务", serviceInstance.getHost(), serviceInstance.getPort());
             return serviceInstance;
         }
@@ -0,0 +1,212 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.slowstart.SlowStart;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import com.alibaba.nacos.common.utils.CollectionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_WEIGHT_KEY;
+
+/**
+ * 平滑加权轮询选择器（nginx smooth weighted round-robin）.
+ * <p></p>
+ * 权重取自服务实例 metadata 中 nacos 发布的 nacos.weight，缺省为 1，权重为 0 的实例不会被选中
+ * （所有实例权重都为 0 时按相同权重处理），超过 nacos 允许的最大权重 {@value #MAX_WEIGHT} 时按最大权重处理。
+ * <p></p>
+ * 每一组候选实例的权重只在候选实例变化时计算一次（见 {@link CandidateInstances}）。
+ * 平滑加权轮询每次选取都需要更新所有实例的当前权重，为了避免事件循环线程之间的竞争，
+ * 状态按线程分为多个条带，每个条带独立地执行平滑加权轮询，整体上仍然按照权重分配流量。
+ * <p></p>
+ * 开启慢启动（{@link SlowStart}）时，预热中的实例的权重按预热进度打折，
+ * 只要还有实例在预热，有效权重每隔 {@value #WARMUP_REFRESH_MILLIS} 毫秒重新计算一次，预热全部结束后不再有额外开销。
+ */
+@Slf4j
+public class WeightedRoundRuleChooser implements IRuleChooser {
+    /**
+     * nacos 的权重为浮点数，换算为整数时保留两位小数
+     */
+    private static final int WEIGHT_SCALE = 100;
+
+    /**
+     * nacos 允许的最大权重，metadata 中的权重超过时按最大权重处理，避免换算及求和时溢出
+     */
+    static final double MAX_WEIGHT = 10000D;
+
+    private static final int STRIPES = stripes();
+
+    /**
+     * 有实例在预热时重新计算有效权重的间隔
+     */
+    static final long WARMUP_REFRESH_MILLIS = 1000L;
+
+    private final InstanceStatsRegistry statsRegistry;
+
+    private final SlowStart slowStart;
+
+    private final CandidateStates<WeightedState> states = new CandidateStates<>(WeightedState::new);
+
+    public WeightedRoundRuleChooser() {
+        this(null, SlowStart.DISABLED);
+    }
+
+    @Autowired
+    public WeightedRoundRuleChooser(InstanceStatsRegistry statsRegistry, SlowStart slowStart) {
+        this.statsRegistry = statsRegistry;
+        this.slowStart = statsRegistry != null ? slowStart : SlowStart.DISABLED;
+    }
+
+    @Override
+    public ServiceInstance choose(List<ServiceInstance> instances) {
+        if (CollectionUtils.isNotEmpty(instances)) {
+            if (instances.size() == 1) {
+                return instances.get(0);
+            }
+            ServiceInstance serviceInstance = instances.get(states.get(instances).next());
+            log.debug("选择了ip为{}, 端口为：{}的服务", serviceInstance.getHost(), serviceInstance.getPort());
+            return serviceInstance;
+        }
+        return null;
+    }
+
+    /**
+     * 读取实例的权重，换算为整数.
+     */
+    static int weightOf(ServiceInstance instance) {
+        String weight = instance.getMetadata().get(SERVICE_META_WEIGHT_KEY);
+        if (weight == null) {
+            return WEIGHT_SCALE;
+        }
+        try {
+            double value = Double.parseDouble(weight);
+            // NaN 及负数按 0 处理
+            if (!(value > 0)) {
+                return 0;
+            }
+            return (int) Math.round(Math.min(value, MAX_WEIGHT) * WEIGHT_SCALE);
+        } catch (NumberFormatException e) {
+            return WEIGHT_SCALE;
+        }
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private final class WeightedState {
+        private final List<ServiceInstance> instances;
+
+        /**
+         * 配置的权重
+         */
+        private final int[] baseWeights;
+
+        /**
+         * 实例的负载统计，未开启慢启动时为 null
+         */
+        private final InstanceStats[] stats;
+
+        private final Stripe[] stripes;
+
+        private volatile Weights weights;
+
+        WeightedState(List<ServiceInstance> instances) {
+            int[] baseWeights = new int[instances.size()];
+            for (int i = 0; i < baseWeights.length; i++) {
+                baseWeights[i] = weightOf(instances.get(i));
+            }
+            this.instances = instances;
+            this.baseWeights = baseWeights;
+            if (slowStart.isEnabled()) {
+                this.stats = new InstanceStats[instances.size()];
+                for (int i = 0; i < stats.length; i++) {
+                    stats[i] = statsRegistry.getOrCreate(instances.get(i));
+                }
+            } else {
+                this.stats = null;
+            }
+            this.stripes = new Stripe[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                this.stripes[i] = new Stripe(baseWeights.length);
+            }
+            this.weights = computeWeights(System.currentTimeMillis());
+        }
+
+        int next() {
+            Weights current = weights;
+            if (current.refreshAt != Long.MAX_VALUE) {
+                long now = System.currentTimeMillis();
+                if (now >= current.refreshAt) {
+                    // 多个线程可能同时重新计算，结果相同，无需同步
+                    current = computeWeights(now);
+                    weights = current;
+                }
+            }
+            Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+            return stripe.next(current.weights, current.totalWeight);
+        }
+
+        private Weights computeWeights(long now) {
+            int[] weights = baseWeights.clone();
+            boolean warming = false;
+            if (stats != null) {
+                for (int i = 0; i < weights.length; i++) {
+                    if (weights[i] > 0) {
+                        double factor = slowStart.factor(instances.get(i), stats[i], now);
+                        if (factor < 1.0) {
+                            warming = true;
+                            weights[i] = Math.max(1, (int) Math.round(weights[i] * factor));
+                        }
+                    }
+                }
+            }
+            long totalWeight = 0;
+            for (int weight : weights) {
+                totalWeight += weight;
+            }
+            if (totalWeight == 0) {
+                Arrays.fill(weights, 1);
+                totalWeight = weights.length;
+            }
+            return new Weights(weights, totalWeight, warming ? now + WARMUP_REFRESH_MILLIS : Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 有效权重
+     *
+     * @param refreshAt 下一次重新计算的时间，没有实例在预热时为 Long.MAX_VALUE
+     */
+    private record Weights(int[] weights, long totalWeight, long refreshAt) {
+    }
+
+    private static final class Stripe {
+        private final long[] currentWeights;
+
+        Stripe(int size) {
+            this.currentWeights = new long[size];
+        }
+
+        synchronized int next(int[] weights, long totalWeight) {
+            int best = 0;
+            for (int i = 0; i < currentWeights.length; i++) {
+                currentWeights[i] += weights[i];
+                if (currentWeights[i] > currentWeights[best]) {
+                    best = i;
+                }
+            }
+            currentWeights[best] -= totalWeight;
+            return best;
+        }
+    }
+}
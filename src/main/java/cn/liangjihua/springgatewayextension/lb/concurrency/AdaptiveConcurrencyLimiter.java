@@ -0,0 +1,212 @@
+package cn.liangjihua.springgatewayextension.lb.concurrency;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.stats.ConcurrencyLimitStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 自适应并发限制.
+ * <p></p>
+ * 根据请求结束时（{@link cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle#onComplete}）
+ * 采集的响应时间及是否失败，为每个实例学习一个并发上限（{@link ConcurrencyLimitStats}）：
+ * <ul>
+ *     <li>GRADIENT：响应时间相对于长期均值上升，说明实例开始排队，按照比值降低上限；响应时间平稳时缓慢增加上限</li>
+ *     <li>AIMD：请求失败或超时时按比例降低上限，并发接近上限且请求正常时上限加一</li>
+ * </ul>
+ * 选取实例时，{@link #filter} 从候选实例中去掉正在处理中的请求数已经达到上限的实例，
+ * 过滤结果按照达到上限的实例集合缓存在 {@link CandidateInstances} 上。
+ * 某个版本的候选实例都达到上限时，该版本的并发上限即为各个实例上限之和，
+ * 负载均衡器直接拒绝请求（{@link ConcurrencyLimitExceededException}），而不是让请求在过载的实例上排队，
+ * 这对于只有一个实例的开发人员版本尤其重要。
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final AdaptiveConcurrencyLimiter DISABLED =
+        new AdaptiveConcurrencyLimiter(new ConcurrencyLimitProperties());
+
+    /**
+     * 长期响应时间均值是短期响应时间的多少倍时，认为延迟已经恢复，加快长期均值的回落
+     */
+    private static final double RTT_RECOVERY_RATIO = 2;
+
+    /**
+     * 每组候选实例最多缓存的过滤结果数，超出时清空，避免实例很多时缓存无限增长
+     */
+    private static final int MAX_CACHED_SETS = 64;
+
+    private final boolean enabled;
+
+    private final ConcurrencyLimitProperties.Algorithm algorithm;
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double smoothing;
+
+    private final double rttTolerance;
+
+    private final int longWindow;
+
+    private final double backoffRatio;
+
+    private final long timeoutNanos;
+
+    public AdaptiveConcurrencyLimiter(ConcurrencyLimitProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.algorithm = properties.getAlgorithm();
+        this.minLimit = Math.max(1, properties.getMinLimit());
+        this.maxLimit = Math.max(minLimit, properties.getMaxLimit());
+        this.initialLimit = Math.min(maxLimit, Math.max(minLimit, properties.getInitialLimit()));
+        this.smoothing = Math.min(1, Math.max(0.01, properties.getSmoothing()));
+        this.rttTolerance = Math.max(1, properties.getRttTolerance());
+        this.longWindow = Math.max(1, properties.getLongWindow());
+        this.backoffRatio = Math.min(0.99, Math.max(0.1, properties.getBackoffRatio()));
+        this.timeoutNanos = properties.getTimeout().toNanos();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 实例当前的并发上限，还没有样本时为初始上限
+     */
+    public int getLimit(InstanceStats stats) {
+        int limit = stats.getConcurrencyLimitStats().getLimit();
+        return limit > 0 ? limit : initialLimit;
+    }
+
+    /**
+     * 从候选实例中去掉已经达到并发上限的实例.
+     *
+     * @param candidates 候选实例
+     * @param stats 实例 -> 负载统计
+     * @return 过滤后的候选实例，没有实例达到上限时返回 candidates 本身
+     */
+    public List<ServiceInstance> filter(List<ServiceInstance> candidates,
+                                        Function<ServiceInstance, InstanceStats> stats) {
+        if (!enabled || candidates.isEmpty()) {
+            return candidates;
+        }
+        int size = candidates.size();
+        long[] saturated = null;
+        for (int i = 0; i < size; i++) {
+            if (isSaturated(stats.apply(candidates.get(i)))) {
+                if (saturated == null) {
+                    saturated = new long[(size + 63) >>> 6];
+                }
+                saturated[i >>> 6] |= 1L << i;
+            }
+        }
+        if (saturated == null) {
+            return candidates;
+        }
+        if (candidates instanceof CandidateInstances candidateInstances) {
+            // 过滤结果按照达到上限的实例集合缓存在候选实例上，有状态的选择器在同一个集合上保持状态
+            Map<SaturatedSet, List<ServiceInstance>> filtered =
+                candidateInstances.getState(this, c -> new ConcurrentHashMap<>());
+            SaturatedSet key = new SaturatedSet(saturated);
+            List<ServiceInstance> available = filtered.get(key);
+            if (available == null) {
+                if (filtered.size() >= MAX_CACHED_SETS) {
+                    filtered.clear();
+                }
+                available = filtered.computeIfAbsent(key, k -> available(candidates, k.saturated));
+            }
+            return available;
+        }
+        return available(candidates, saturated);
+    }
+
+    /**
+     * 记录一次请求的结果，调整实例的并发上限.
+     *
+     * @param stats 处理请求的实例的统计
+     * @param rttNanos 响应时间，请求失败时为 -1
+     * @param inflight 请求结束时实例正在处理中的请求数（包括此请求）
+     * @param dropped 请求是否失败
+     */
+    public void onSample(InstanceStats stats, long rttNanos, int inflight, boolean dropped) {
+        if (!enabled) {
+            return;
+        }
+        ConcurrencyLimitStats limitStats = stats.getConcurrencyLimitStats();
+        synchronized (limitStats) {
+            double limit = limitStats.getLimit() > 0 ? limitStats.getEstimatedLimit() : initialLimit;
+            double longRtt = limitStats.getLongRttNanos();
+            double newLimit;
+            if (algorithm == ConcurrencyLimitProperties.Algorithm.AIMD) {
+                newLimit = aimd(limit, rttNanos, inflight, dropped);
+            } else {
+                if (rttNanos > 0) {
+                    longRtt = longRtt == 0 ? rttNanos : longRtt + (rttNanos - longRtt) / longWindow;
+                    if (longRtt > rttNanos * RTT_RECOVERY_RATIO) {
+                        longRtt *= 0.95;
+                    }
+                }
+                newLimit = gradient(limit, rttNanos, longRtt, inflight, dropped);
+            }
+            limitStats.update(Math.min(maxLimit, Math.max(minLimit, newLimit)), longRtt);
+        }
+    }
+
+    private double aimd(double limit, long rttNanos, int inflight, boolean dropped) {
+        if (dropped || rttNanos > timeoutNanos) {
+            return limit * backoffRatio;
+        }
+        return inflight * 2 >= limit ? limit + 1 : limit;
+    }
+
+    /**
+     * 梯度为长期响应时间与短期响应时间的比值（0.5 ~ 1），再加上 sqrt(limit) 的排队余量用于探测更高的上限
+     */
+    private double gradient(double limit, long rttNanos, double longRtt, int inflight, boolean dropped) {
+        // 并发远小于上限时响应时间不能说明上限是否合适，避免上限无限增长
+        if (!dropped && inflight * 2 < limit) {
+            return limit;
+        }
+        double gradient = dropped || rttNanos <= 0 ? 0.5
+            : Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        return limit * (1 - smoothing) + target * smoothing;
+    }
+
+    private static List<ServiceInstance> available(List<ServiceInstance> candidates, long[] saturated) {
+        List<ServiceInstance> available = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            if ((saturated[i >>> 6] & 1L << i) == 0) {
+                available.add(candidates.get(i));
+            }
+        }
+        return CandidateInstances.of(available);
+    }
+
+    private boolean isSaturated(InstanceStats stats) {
+        return stats != null && stats.getInflight() >= getLimit(stats);
+    }
+
+    /**
+     * 达到并发上限的实例在候选实例中的下标集合
+     */
+    private record SaturatedSet(long[] saturated) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SaturatedSet other && Arrays.equals(saturated, other.saturated);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(saturated);
+        }
+    }
+}
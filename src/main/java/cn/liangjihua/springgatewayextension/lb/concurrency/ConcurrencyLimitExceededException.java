@@ -0,0 +1,15 @@
+package cn.liangjihua.springgatewayextension.lb.concurrency;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 候选实例都已达到并发上限时拒绝请求，响应 503 而不是在网关中排队.
+ */
+public class ConcurrencyLimitExceededException extends ResponseStatusException {
+
+    public ConcurrencyLimitExceededException(String serviceId, String version, int candidates) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "服务 " + serviceId + " 版本 " + version + " 的 " + candidates
+            + " 个实例都已达到并发上限");
+    }
+}
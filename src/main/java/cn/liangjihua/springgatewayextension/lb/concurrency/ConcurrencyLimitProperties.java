@@ -0,0 +1,72 @@
+package cn.liangjihua.springgatewayextension.lb.concurrency;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 自适应并发限制配置
+ */
+@Data
+public class ConcurrencyLimitProperties {
+    /**
+     * 是否开启自适应并发限制
+     */
+    private boolean enabled;
+
+    /**
+     * 并发上限的计算方法
+     */
+    private Algorithm algorithm = Algorithm.GRADIENT;
+
+    /**
+     * 实例的初始并发上限
+     */
+    private int initialLimit = 20;
+
+    /**
+     * 并发上限的最小值
+     */
+    private int minLimit = 1;
+
+    /**
+     * 并发上限的最大值
+     */
+    private int maxLimit = 200;
+
+    /**
+     * GRADIENT：每次调整并发上限时新值所占的比例，越大调整越快
+     */
+    private double smoothing = 0.2;
+
+    /**
+     * GRADIENT：响应时间达到长期均值的多少倍时才开始降低并发上限
+     */
+    private double rttTolerance = 1.5;
+
+    /**
+     * GRADIENT：计算长期响应时间均值使用的样本数
+     */
+    private int longWindow = 600;
+
+    /**
+     * AIMD：请求失败或超时时并发上限乘以的比例
+     */
+    private double backoffRatio = 0.9;
+
+    /**
+     * AIMD：响应时间超过多少时视为超时
+     */
+    private Duration timeout = Duration.ofSeconds(1);
+
+    public enum Algorithm {
+        /**
+         * 根据短期响应时间与长期响应时间的比值（梯度）调整并发上限，响应时间上升（实例开始排队）时降低上限
+         */
+        GRADIENT,
+        /**
+         * 加性增、乘性减：请求失败或超时时按比例降低上限，并发接近上限且请求正常时上限加一
+         */
+        AIMD
+    }
+}
@@ -1,17 +1,26 @@
 package cn.liangjihua.springgatewayextension.lb.config;
 
+import cn.liangjihua.springgatewayextension.lb.InboundRequestTracker;
+import cn.liangjihua.springgatewayextension.lb.InboundRequestTrackingFilter;
+import cn.liangjihua.springgatewayextension.lb.ReactiveInboundRequestTrackingFilter;
 import cn.liangjihua.springgatewayextension.lb.ServiceDeRegistration;
 import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh;
+import cn.liangjihua.springgatewayextension.lb.metrics.CacheRefreshMetrics;
 import com.alibaba.cloud.nacos.registry.NacosAutoServiceRegistration;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.cloud.client.serviceregistry.Registration;
 import org.springframework.cloud.client.serviceregistry.ServiceRegistry;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 
 @Configuration
 @ConditionalOnProperty(value = "spring.cloud.loadbalancer.cache.enabled", matchIfMissing = true)
@@ -22,18 +31,81 @@ public class ServiceInstanceCacheRefreshAutoConfig {
     @Value("${service.deregister.wait-millis:#{null}}")
     private Long waitMillis;
 
+    @Value("${service.deregister.quiet-millis:#{null}}")
+    private Long quietMillis;
+
+    @Value("${service.instance-cache-refresh.coalesce-millis:#{null}}")
+    private Long coalesceMillis;
+
     @Bean
     ServiceInstanceCacheRefresh serviceInstanceCacheRefresh(ApplicationContext context) {
-        return new ServiceInstanceCacheRefresh(context);
+        if (coalesceMillis != null) {
+            return new ServiceInstanceCacheRefresh(context, coalesceMillis);
+        } else {
+            return new ServiceInstanceCacheRefresh(context);
+        }
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.metrics", name = "enabled",
+        matchIfMissing = true)
+    CacheRefreshMetrics cacheRefreshMetrics(ServiceInstanceCacheRefresh serviceInstanceCacheRefresh) {
+        return new CacheRefreshMetrics(serviceInstanceCacheRefresh);
     }
 
+    /**
+     * 入站请求统计只在存在统计请求的 filter 时注册（见下面的 servlet 及 reactive 配置），
+     * 否则取消注册之后无法判断请求是否排空，固定等待静默期
+     */
     @Bean
     ServiceDeRegistration serviceDeRegistration(ServiceRegistry<Registration> serviceRegistry,
-                                                Registration registration) {
-        if (waitMillis != null) {
-            return new ServiceDeRegistration(serviceRegistry, registration, waitMillis);
-        } else {
-            return new ServiceDeRegistration(serviceRegistry, registration);
+                                                Registration registration,
+                                                ObjectProvider<InboundRequestTracker> inboundRequestTracker,
+                                                ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ServiceDeRegistration(serviceRegistry, registration,
+            waitMillis != null ? waitMillis : ServiceDeRegistration.DEFAULT_WAIT_MILLIS,
+            quietMillis != null ? quietMillis : ServiceDeRegistration.DEFAULT_QUIET_MILLIS,
+            inboundRequestTracker.getIfAvailable(), meterRegistry.getIfAvailable());
+    }
+
+    /**
+     * servlet 应用中统计入站请求，filter 排在最前面以覆盖整个请求处理过程
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    static class InboundRequestTrackingConfig {
+
+        @Bean
+        InboundRequestTracker inboundRequestTracker() {
+            return new InboundRequestTracker();
+        }
+
+        @Bean
+        FilterRegistrationBean<InboundRequestTrackingFilter> inboundRequestTrackingFilter(
+            InboundRequestTracker inboundRequestTracker) {
+            FilterRegistrationBean<InboundRequestTrackingFilter> registration =
+                new FilterRegistrationBean<>(new InboundRequestTrackingFilter(inboundRequestTracker));
+            registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+            return registration;
+        }
+    }
+
+    /**
+     * reactive 应用（spring cloud gateway）中统计入站请求
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    static class ReactiveInboundRequestTrackingConfig {
+
+        @Bean
+        InboundRequestTracker inboundRequestTracker() {
+            return new InboundRequestTracker();
+        }
+
+        @Bean
+        ReactiveInboundRequestTrackingFilter reactiveInboundRequestTrackingFilter(
+            InboundRequestTracker inboundRequestTracker) {
+            return new ReactiveInboundRequestTrackingFilter(inboundRequestTracker);
         }
     }
 
@@ -1,11 +1,239 @@
 package cn.liangjihua.springgatewayextension.lb.config;
 
+import cn.liangjihua.springgatewayextension.lb.LoadBalancerWarmUp;
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
+import cn.liangjihua.springgatewayextension.lb.concurrency.AdaptiveConcurrencyLimiter;
+import cn.liangjihua.springgatewayextension.lb.health.ActiveHealthChecker;
+import cn.liangjihua.springgatewayextension.lb.hedge.HedgingExecutor;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityProperties;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+import cn.liangjihua.springgatewayextension.lb.metrics.LoadBalancerMetrics;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.policy.ServicePolicyRegistry;
+import cn.liangjihua.springgatewayextension.lb.recorder.RoutingDecisionEndpoint;
+import cn.liangjihua.springgatewayextension.lb.recorder.RoutingFlightRecorder;
+import cn.liangjihua.springgatewayextension.lb.slowstart.SlowStart;
+import cn.liangjihua.springgatewayextension.lb.snapshot.RegistrySnapshotStore;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.supplier.NacosInstanceMirror;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolver;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverChain;
+import com.alibaba.cloud.nacos.NacosDiscoveryProperties;
+import com.alibaba.cloud.nacos.discovery.NacosServiceDiscovery;
+import com.alibaba.nacos.api.exception.NacosException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
 
 @LoadBalancerClients(defaultConfiguration = VersionLoadBalancerConfig.class)
 @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation", name = "enabled", havingValue = "true")
+@EnableConfigurationProperties(VersionIsolationProperties.class)
 @Import({VersionRegisterBeanPostProcessor.class})
 public class VersionIsolationAutoConfig {
+
+    /**
+     * 本机地址解析器，所有服务的负载均衡器共享同一个实例
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public LocalAddressResolver localAddressResolver(VersionIsolationProperties properties) {
+        return new LocalAddressResolver(properties.getLocalAddress().getRefreshInterval());
+    }
+
+    /**
+     * 请求版本号解析链，容器中的 {@link VersionResolver} bean 作为自定义解析器加入解析链
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public VersionResolverChain versionResolverChain(VersionIsolationProperties properties,
+                                                     ObjectProvider<VersionResolver> customResolvers) {
+        VersionIsolationProperties.Version version = properties.getVersion();
+        return VersionResolverChain.of(version.getResolvers(), version.getQueryParam(), version.getHeader(),
+            version.getCookie(), customResolvers.orderedStream().toList());
+    }
+
+    /**
+     * 服务实例负载统计，所有服务的负载均衡器及生命周期回调共享同一个实例
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public InstanceStatsRegistry instanceStatsRegistry(VersionIsolationProperties properties) {
+        return new InstanceStatsRegistry(properties.getStats().getLatencyDecayTime(),
+            properties.getOutlierDetection().getWindow());
+    }
+
+    /**
+     * 被动异常实例检测，默认关闭
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public OutlierDetector outlierDetector(VersionIsolationProperties properties,
+                                           InstanceStatsRegistry statsRegistry) {
+        return new OutlierDetector(properties.getOutlierDetection(), statsRegistry);
+    }
+
+    /**
+     * 自适应并发限制，默认关闭
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(VersionIsolationProperties properties) {
+        return new AdaptiveConcurrencyLimiter(properties.getConcurrencyLimit());
+    }
+
+    /**
+     * 就近路由，默认关闭；没有配置网关的可用区时使用 spring.cloud.loadbalancer.zone
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public LocalityRouter localityRouter(VersionIsolationProperties properties,
+                                         LocalAddressResolver localAddressResolver,
+                                         Environment environment) {
+        LocalityProperties locality = properties.getLocality();
+        String zone = locality.getZone() != null ? locality.getZone()
+            : environment.getProperty("spring.cloud.loadbalancer.zone");
+        return new LocalityRouter(locality, zone, localAddressResolver);
+    }
+
+    /**
+     * 按服务配置的负载均衡策略，配置刷新时热更新
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public ServicePolicyRegistry servicePolicyRegistry(Environment environment,
+                                                       ConfigurableApplicationContext context,
+                                                       LocalityRouter localityRouter,
+                                                       LocalAddressResolver localAddressResolver) {
+        return new ServicePolicyRegistry(environment, context.getAutowireCapableBeanFactory(), localityRouter,
+            localAddressResolver);
+    }
+
+    /**
+     * 新实例慢启动，默认关闭，由权重相关的选择器使用
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public SlowStart slowStart(VersionIsolationProperties properties) {
+        return new SlowStart(properties.getSlowStart());
+    }
+
+    /**
+     * 负载均衡指标，没有 {@link MeterRegistry} 或关闭指标时不记录
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public LoadBalancerMetrics loadBalancerMetrics(VersionIsolationProperties properties,
+                                                   ObjectProvider<MeterRegistry> meterRegistry) {
+        VersionIsolationProperties.Metrics metrics = properties.getMetrics();
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (!metrics.isEnabled() || registry == null) {
+            return LoadBalancerMetrics.NOOP;
+        }
+        return new LoadBalancerMetrics(registry, metrics.getMaxVersionTags());
+    }
+
+    /**
+     * 主动健康检查，默认关闭
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public ActiveHealthChecker activeHealthChecker(VersionIsolationProperties properties) {
+        return new ActiveHealthChecker(properties.getHealthCheck());
+    }
+
+    /**
+     * 最近的路由决策记录，默认开启
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RoutingFlightRecorder routingFlightRecorder(VersionIsolationProperties properties) {
+        return new RoutingFlightRecorder(properties.getFlightRecorder());
+    }
+
+    /**
+     * 查询路由决策记录的 actuator 端点，需要通过 management.endpoints.web.exposure.include 暴露
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class RoutingDecisionEndpointConfig {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnAvailableEndpoint
+        public RoutingDecisionEndpoint routingDecisionEndpoint(RoutingFlightRecorder recorder) {
+            return new RoutingDecisionEndpoint(recorder);
+        }
+    }
+
+    /**
+     * 对冲请求，由调用方显式使用；关闭对冲时只发送一次请求
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public HedgingExecutor hedgingExecutor(VersionIsolationProperties properties,
+                                           LoadBalancerClientFactory clientFactory) {
+        return new HedgingExecutor(clientFactory, properties.getHedging());
+    }
+
+    /**
+     * 服务实例快照，默认关闭
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.snapshot", name = "enabled",
+        havingValue = "true")
+    public RegistrySnapshotStore registrySnapshotStore(VersionIsolationProperties properties) {
+        return new RegistrySnapshotStore(properties.getSnapshot());
+    }
+
+    /**
+     * 启动预热，默认关闭
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.warm-up", name = "enabled",
+        havingValue = "true")
+    public LoadBalancerWarmUp loadBalancerWarmUp(VersionIsolationProperties properties,
+                                                 LoadBalancerClientFactory clientFactory,
+                                                 ObjectProvider<DiscoveryClient> discoveryClient) {
+        VersionIsolationProperties.WarmUp warmUp = properties.getWarmUp();
+        return new LoadBalancerWarmUp(clientFactory, discoveryClient, warmUp.getServices(), warmUp.isDiscover(),
+            warmUp.getParallelism(), warmUp.getTimeout());
+    }
+
+    /**
+     * nacos 服务实例本地镜像，nacos 为可选依赖，因此单独放在只有 nacos 存在时才加载的配置类中
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(NacosServiceDiscovery.class)
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.registry-mirror", name = "enabled",
+        havingValue = "true")
+    static class RegistryMirrorConfig {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public NacosInstanceMirror nacosInstanceMirror(NacosServiceDiscovery serviceDiscovery,
+                                                       NacosDiscoveryProperties discoveryProperties,
+                                                       VersionIsolationProperties properties) {
+            return new NacosInstanceMirror(serviceId -> {
+                try {
+                    return serviceDiscovery.getInstances(serviceId);
+                } catch (NacosException e) {
+                    throw new IllegalStateException("无法从 nacos 获取服务实例：" + serviceId, e);
+                }
+            }, discoveryProperties.getGroup(), properties.getRegistryMirror().getRetryInterval());
+        }
+    }
 }
@@ -0,0 +1,241 @@
+package cn.liangjihua.springgatewayextension.lb.config;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashProperties;
+import cn.liangjihua.springgatewayextension.lb.concurrency.ConcurrencyLimitProperties;
+import cn.liangjihua.springgatewayextension.lb.health.HealthCheckProperties;
+import cn.liangjihua.springgatewayextension.lb.hedge.HedgingProperties;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityProperties;
+import cn.liangjihua.springgatewayextension.lb.metrics.LoadBalancerMetrics;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetectionProperties;
+import cn.liangjihua.springgatewayextension.lb.policy.ServicePolicyProperties;
+import cn.liangjihua.springgatewayextension.lb.policy.VersionFallback;
+import cn.liangjihua.springgatewayextension.lb.recorder.FlightRecorderProperties;
+import cn.liangjihua.springgatewayextension.lb.slowstart.SlowStartProperties;
+import cn.liangjihua.springgatewayextension.lb.snapshot.RegistrySnapshotProperties;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.REQUEST_VERSION_KEY;
+
+/**
+ * 版本隔离负载均衡的配置项
+ */
+@Data
+@ConfigurationProperties(prefix = VersionIsolationProperties.PREFIX)
+public class VersionIsolationProperties {
+    public static final String PREFIX = "spring.gateway.lb.version.isolation";
+
+    /**
+     * 是否开启版本隔离
+     */
+    private boolean enabled;
+
+    /**
+     * 自定义的 {@link cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser} 的全限定类名
+     */
+    private String chooser;
+
+    /**
+     * 请求没有版本号，或者请求的版本号没有对应实例时使用的候选实例
+     */
+    private VersionFallback fallback = VersionFallback.LOCAL_THEN_NON_VERSIONED;
+
+    /**
+     * 按服务配置的负载均衡策略，key 为 serviceId，未配置的项使用全局配置
+     */
+    private Map<String, ServicePolicyProperties> services = new HashMap<>();
+
+    /**
+     * 本机地址解析配置
+     */
+    private LocalAddress localAddress = new LocalAddress();
+
+    /**
+     * 请求版本号解析配置
+     */
+    private Version version = new Version();
+
+    /**
+     * 服务实例负载统计配置
+     */
+    private Stats stats = new Stats();
+
+    /**
+     * 被动异常实例检测配置
+     */
+    private OutlierDetectionProperties outlierDetection = new OutlierDetectionProperties();
+
+    /**
+     * 自适应并发限制配置
+     */
+    private ConcurrencyLimitProperties concurrencyLimit = new ConcurrencyLimitProperties();
+
+    /**
+     * 主动健康检查配置
+     */
+    private HealthCheckProperties healthCheck = new HealthCheckProperties();
+
+    /**
+     * 就近路由配置
+     */
+    private LocalityProperties locality = new LocalityProperties();
+
+    /**
+     * 新实例慢启动配置
+     */
+    private SlowStartProperties slowStart = new SlowStartProperties();
+
+    /**
+     * 一致性哈希选择器配置
+     */
+    private ConsistentHashProperties consistentHash = new ConsistentHashProperties();
+
+    /**
+     * 对冲请求配置
+     */
+    private HedgingProperties hedging = new HedgingProperties();
+
+    /**
+     * nacos 服务实例本地镜像配置
+     */
+    private RegistryMirror registryMirror = new RegistryMirror();
+
+    /**
+     * 服务实例快照配置
+     */
+    private RegistrySnapshotProperties snapshot = new RegistrySnapshotProperties();
+
+    /**
+     * 合并并发的服务实例加载配置
+     */
+    private SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 启动预热配置
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * 负载均衡指标配置
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 路由决策记录配置
+     */
+    private FlightRecorderProperties flightRecorder = new FlightRecorderProperties();
+
+    @Data
+    public static class LocalAddress {
+        /**
+         * 后台刷新本机地址的间隔，小于等于 0 时只在启动时解析一次
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Version {
+        /**
+         * 版本号解析器的顺序，默认先从 query 参数中解析，再从请求头中解析
+         */
+        private List<VersionResolverType> resolvers = new ArrayList<>(
+            List.of(VersionResolverType.QUERY, VersionResolverType.HEADER));
+
+        /**
+         * 携带版本号的 query 参数名
+         */
+        private String queryParam = REQUEST_VERSION_KEY;
+
+        /**
+         * 携带版本号的请求头名称
+         */
+        private String header = REQUEST_VERSION_KEY;
+
+        /**
+         * 携带版本号的 cookie 名称
+         */
+        private String cookie = REQUEST_VERSION_KEY;
+    }
+
+    @Data
+    public static class Stats {
+        /**
+         * 响应时间 EWMA 的衰减时间常数，越小对延迟变化越敏感
+         */
+        private Duration latencyDecayTime = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class RegistryMirror {
+        /**
+         * 是否使用 nacos 推送维护的本地实例镜像代替带缓存的服务实例查询，仅支持 nacos
+         */
+        private boolean enabled;
+
+        /**
+         * 服务实例列表初始加载失败之后，再次加载的最小间隔
+         */
+        private Duration retryInterval = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class SingleFlight {
+        /**
+         * 是否合并并发的服务实例加载，开启 registry-mirror 时不生效
+         */
+        private boolean enabled;
+
+        /**
+         * 缓存未命中时，上一次加载的实例列表最多可以使用多久，超过后请求需要等待加载完成
+         */
+        private Duration maxStale = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class WarmUp {
+        /**
+         * 是否在应用就绪前预热负载均衡器
+         */
+        private boolean enabled;
+
+        /**
+         * 需要预热的服务
+         */
+        private List<String> services = new ArrayList<>();
+
+        /**
+         * 是否同时预热注册中心中的所有服务
+         */
+        private boolean discover = true;
+
+        /**
+         * 同时预热的服务数
+         */
+        private int parallelism = 4;
+
+        /**
+         * 整个预热过程的超时时间，超时后不再等待，应用继续启动
+         */
+        private Duration timeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Metrics {
+        /**
+         * 是否记录负载均衡的 Micrometer 指标，需要容器中存在 MeterRegistry
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个服务最多使用的版本号 tag 数，超出的版本号统一记为 other，避免开发人员的版本号撑爆指标
+         */
+        private int maxVersionTags = LoadBalancerMetrics.DEFAULT_MAX_VERSION_TAGS;
+    }
+}
@@ -1,26 +1,43 @@
 package cn.liangjihua.springgatewayextension.lb.config;
 
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
 import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancer;
 import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle;
 import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
 import cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.concurrency.AdaptiveConcurrencyLimiter;
+import cn.liangjihua.springgatewayextension.lb.health.ActiveHealthChecker;
+import cn.liangjihua.springgatewayextension.lb.metrics.LoadBalancerMetrics;
+import cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector;
+import cn.liangjihua.springgatewayextension.lb.policy.ServicePolicyRegistry;
+import cn.liangjihua.springgatewayextension.lb.recorder.RoutingFlightRecorder;
+import cn.liangjihua.springgatewayextension.lb.snapshot.RegistrySnapshotStore;
+import cn.liangjihua.springgatewayextension.lb.snapshot.SnapshotSeedingPostProcessor;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.supplier.MirroredServiceInstanceListSupplier;
+import cn.liangjihua.springgatewayextension.lb.supplier.NacosInstanceMirror;
+import cn.liangjihua.springgatewayextension.lb.supplier.SingleFlightServiceInstanceListSupplier;
+import cn.liangjihua.springgatewayextension.lb.version.VersionResolverChain;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
 import org.springframework.cloud.client.loadbalancer.RequestDataContext;
 import org.springframework.cloud.client.loadbalancer.ResponseData;
 import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheManager;
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplierBuilder;
 import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
-import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
-import org.springframework.util.ClassUtils;
-
-import java.lang.reflect.InvocationTargetException;
 
 
 /**
@@ -29,25 +46,11 @@ import java.lang.reflect.InvocationTargetException;
 @Slf4j
 public class VersionLoadBalancerConfig {
 
-    @Bean
-    @ConditionalOnMissingBean(IRuleChooser.class)
-    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation", value = "chooser")
-    public IRuleChooser customRuleChooser(Environment environment,
-                                          ApplicationContext context,
-                                          @Value("${spring.gateway.lb.version.isolation.chooser}") String chooserClass)
-            throws NoSuchMethodException, InvocationTargetException {
-
-        try {
-            Class<?> ruleClass = ClassUtils.forName(chooserClass, context.getClassLoader());
-            return (IRuleChooser) ruleClass.getDeclaredConstructor().newInstance();
-        } catch (ClassNotFoundException e) {
-            log.error("没有找到指定的 lb 的选择器，将使用默认的选择器", e);
-        } catch (InstantiationException | IllegalAccessException e) {
-            log.error("无法创建指定的 lb 的选择器，将使用默认的选择器", e);
-        }
-        return new RoundRuleChooser();
-    }
-
+    /**
+     * 没有按服务或全局配置选择器时使用的选择器，可以注册自定义的 {@link IRuleChooser} bean 替换
+     *
+     * @see ServicePolicyRegistry
+     */
     @Bean
     @ConditionalOnMissingBean(value = IRuleChooser.class)
     public IRuleChooser defaultRuleChooser() {
@@ -59,15 +62,89 @@ public class VersionLoadBalancerConfig {
     @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation", name = "enabled", havingValue = "true")
     public ReactorServiceInstanceLoadBalancer versionServiceLoadBalancer(Environment environment,
                                                                          LoadBalancerClientFactory factory,
-                                                                         IRuleChooser ruleChooser) {
+                                                                         IRuleChooser ruleChooser,
+                                                                         LocalAddressResolver localAddressResolver,
+                                                                         VersionResolverChain versionResolverChain,
+                                                                         InstanceStatsRegistry statsRegistry,
+                                                                         OutlierDetector outlierDetector,
+                                                                         LoadBalancerMetrics metrics,
+                                                                         ServicePolicyRegistry policyRegistry,
+                                                                         AdaptiveConcurrencyLimiter concurrencyLimiter,
+                                                                         RoutingFlightRecorder recorder,
+                                                                         ActiveHealthChecker healthChecker) {
         String name = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
         return new VersionLoadBalancer(factory.getLazyProvider(name, ServiceInstanceListSupplier.class),
-            name, ruleChooser);
+            name, policyRegistry.getPolicy(name, ruleChooser), localAddressResolver, versionResolverChain,
+            statsRegistry, outlierDetector, metrics, concurrencyLimiter, recorder, healthChecker);
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation", name = "enabled", havingValue = "true")
-    public LoadBalancerLifecycle<RequestDataContext, ResponseData, ServiceInstance> loadBalancerLifecycle() {
-        return new VersionLoadBalancerLifecycle();
+    public LoadBalancerLifecycle<RequestDataContext, ResponseData, ServiceInstance> loadBalancerLifecycle(
+        InstanceStatsRegistry statsRegistry, OutlierDetector outlierDetector,
+        AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        return new VersionLoadBalancerLifecycle(statsRegistry, outlierDetector, concurrencyLimiter);
+    }
+
+    /**
+     * 开启服务实例快照时，使用快照作为服务实例 supplier 的初始实例列表
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.snapshot", name = "enabled",
+        havingValue = "true")
+    public static SnapshotSeedingPostProcessor snapshotSeedingPostProcessor(
+        ObjectProvider<RegistrySnapshotStore> store) {
+        return new SnapshotSeedingPostProcessor(store);
+    }
+
+    /**
+     * 存在 {@link NacosInstanceMirror} 时使用本地镜像提供服务实例，
+     * 该 bean 先于 LoadBalancerClientConfiguration 注册，因此会替换掉默认的带缓存的 supplier
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(NacosInstanceMirror.class)
+    @ConditionalOnBean(NacosInstanceMirror.class)
+    static class RegistryMirrorSupplierConfig {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ServiceInstanceListSupplier mirroredServiceInstanceListSupplier(Environment environment,
+                                                                               NacosInstanceMirror mirror) {
+            String name = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+            return new MirroredServiceInstanceListSupplier(name, mirror);
+        }
+    }
+
+    /**
+     * 合并并发的服务实例加载：代替默认的带缓存的 supplier，使用同一个 loadbalancer 缓存，
+     * 缓存未命中时同一个服务只访问一次注册中心，并在后台加载时返回上一次的实例列表。
+     * 开启 registry-mirror 时实例列表不经过缓存，不需要合并
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(prefix = "spring.gateway.lb.version.isolation.single-flight", name = "enabled",
+        havingValue = "true")
+    @ConditionalOnMissingBean(type = "cn.liangjihua.springgatewayextension.lb.supplier.NacosInstanceMirror")
+    static class SingleFlightSupplierConfig {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ServiceInstanceListSupplier singleFlightServiceInstanceListSupplier(
+            ConfigurableApplicationContext context,
+            VersionIsolationProperties properties,
+            ObjectProvider<LoadBalancerCacheManager> cacheManager,
+            ObjectProvider<ReactiveDiscoveryClient> reactiveDiscoveryClient,
+            LoadBalancerMetrics metrics) {
+            ServiceInstanceListSupplierBuilder builder = ServiceInstanceListSupplier.builder();
+            builder = reactiveDiscoveryClient.getIfAvailable() != null ? builder.withDiscoveryClient()
+                : builder.withBlockingDiscoveryClient();
+            return builder
+                .with((ctx, delegate) -> {
+                    SingleFlightServiceInstanceListSupplier supplier = new SingleFlightServiceInstanceListSupplier(
+                        delegate, cacheManager.getIfAvailable(), properties.getSingleFlight().getMaxStale());
+                    metrics.bindInstanceLoading(delegate.getServiceId(), supplier);
+                    return supplier;
+                })
+                .build(context);
+        }
     }
 }
@@ -9,4 +9,14 @@ public interface LbConstants {
      * 服务注册时 meta data 中用来标记版本号的 key
      */
     String SERVICE_META_VERSION_KEY = "version";
+
+    /**
+     * nacos 发布到服务实例 meta data 中的权重
+     */
+    String SERVICE_META_WEIGHT_KEY = "nacos.weight";
+
+    /**
+     * 请求中用来指定版本号的 query 参数、请求头或 cookie 的默认名称
+     */
+    String REQUEST_VERSION_KEY = "X-service-version";
 }
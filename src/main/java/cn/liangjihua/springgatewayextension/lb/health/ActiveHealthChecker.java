@@ -0,0 +1,393 @@
+package cn.liangjihua.springgatewayextension.lb.health;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 主动健康检查.
+ * <p></p>
+ * nacos 的心跳超时及实例列表的刷新（见 {@link cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh}）
+ * 使得实例停止后至少 10 秒内仍然会出现在实例列表中，开发人员停掉本地服务后，该版本的请求在这段时间内都会失败。
+ * 健康检查按照配置的间隔（加上随机抖动）探测负载均衡器已知的每一个实例（TCP 建立连接或请求 HTTP 健康检查路径），
+ * 连续失败达到阈值的实例被标记为不健康，不会增加注册中心的负担。
+ * <p></p>
+ * 探测是非阻塞的：TCP 使用 {@link AsynchronousSocketChannel}，HTTP 使用 {@link HttpClient#sendAsync}，
+ * 一个调度线程即可探测数千个实例，同时进行中的探测数不超过 maxConcurrentProbes。
+ * <p></p>
+ * 选取实例时，{@link #filter} 从候选实例中去掉不健康的实例；
+ * 路由索引通过 {@link #hasHealthy} 在版本实例都不健康时按照 fallback 顺序选择下一个层级（本地实例、无版本号的实例）。
+ * 候选实例都不健康时不做过滤，由被动检测（{@link cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector}）处理。
+ * 过滤的结果按照候选实例缓存，只在健康状态变化时重新计算。
+ */
+@Slf4j
+public class ActiveHealthChecker implements DisposableBean {
+    public static final ActiveHealthChecker DISABLED = new ActiveHealthChecker(new HealthCheckProperties());
+
+    private final boolean enabled;
+
+    private final HealthCheckProperties.ProbeType type;
+
+    private final String path;
+
+    private final long intervalNanos;
+
+    private final long jitterNanos;
+
+    private final Duration timeout;
+
+    private final int unhealthyThreshold;
+
+    private final int healthyThreshold;
+
+    private final Semaphore probes;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final HttpClient httpClient;
+
+    /**
+     * 实例统计 -> 探测目标，使用引用比较
+     */
+    private final Map<InstanceStats, Target> targets = new ConcurrentHashMap<>();
+
+    /**
+     * 服务 id -> 服务当前的实例统计，用于在实例下线时停止探测
+     */
+    private final Map<String, Set<InstanceStats>> services = new ConcurrentHashMap<>();
+
+    private final Set<InstanceStats> unhealthy = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 健康状态的版本号，每次实例变为不健康或恢复时递增，用于判断缓存的过滤结果是否有效
+     */
+    private final AtomicLong epoch = new AtomicLong();
+
+    public ActiveHealthChecker(HealthCheckProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.type = properties.getType();
+        this.path = properties.getPath();
+        this.intervalNanos = Math.max(1, properties.getInterval().toNanos());
+        this.jitterNanos = Math.max(0, properties.getJitter().toNanos());
+        this.timeout = properties.getTimeout();
+        this.unhealthyThreshold = Math.max(1, properties.getUnhealthyThreshold());
+        this.healthyThreshold = Math.max(1, properties.getHealthyThreshold());
+        this.probes = new Semaphore(Math.max(1, properties.getMaxConcurrentProbes()));
+        this.scheduler = enabled ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lb-health-check");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.httpClient = enabled && type == HealthCheckProperties.ProbeType.HTTP
+            ? HttpClient.newBuilder().connectTimeout(timeout).build() : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 更新服务需要探测的实例：开始探测新的实例，停止探测已经下线的实例.
+     * <p></p>
+     * 由负载均衡器在路由索引重建时调用。
+     *
+     * @param serviceId 服务 id
+     * @param instances 服务当前的所有实例
+     * @param statsFn 实例对应的负载统计
+     */
+    public void watch(String serviceId, List<ServiceInstance> instances,
+                      Function<ServiceInstance, InstanceStats> statsFn) {
+        if (!enabled) {
+            return;
+        }
+        services.compute(serviceId, (id, previous) -> {
+            Set<InstanceStats> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ServiceInstance instance : instances) {
+                InstanceStats stats = statsFn.apply(instance);
+                current.add(stats);
+                targets.computeIfAbsent(stats, s -> start(instance, s));
+            }
+            if (previous != null) {
+                for (InstanceStats stats : previous) {
+                    if (!current.contains(stats)) {
+                        stop(stats);
+                    }
+                }
+            }
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    /**
+     * 候选实例中是否有健康的实例.
+     *
+     * @param candidates 候选实例
+     * @param statsFn 实例对应的负载统计
+     * @return 没有开启健康检查或者至少一个实例健康时返回 true，候选实例为空时返回 false
+     */
+    public boolean hasHealthy(List<ServiceInstance> candidates, Function<ServiceInstance, InstanceStats> statsFn) {
+        if (!enabled || unhealthy.isEmpty()) {
+            return !candidates.isEmpty();
+        }
+        return !healthy(candidates, statsFn).isEmpty();
+    }
+
+    /**
+     * 从候选实例中去掉不健康的实例.
+     *
+     * @param candidates 候选实例
+     * @param statsFn 实例对应的负载统计
+     * @return 过滤后的候选实例，没有不健康的实例或者实例都不健康时返回 candidates 本身
+     */
+    public List<ServiceInstance> filter(List<ServiceInstance> candidates,
+                                        Function<ServiceInstance, InstanceStats> statsFn) {
+        if (!enabled || unhealthy.isEmpty() || candidates.isEmpty()) {
+            return candidates;
+        }
+        List<ServiceInstance> healthy = healthy(candidates, statsFn);
+        return healthy.isEmpty() ? candidates : healthy;
+    }
+
+    /**
+     * 实例当前是否被标记为不健康
+     */
+    public boolean isUnhealthy(InstanceStats stats) {
+        return unhealthy.contains(stats);
+    }
+
+    /**
+     * 当前不健康的实例数量
+     */
+    public int getUnhealthyCount() {
+        return unhealthy.size();
+    }
+
+    /**
+     * 当前探测的实例数量
+     */
+    public int getTargetCount() {
+        return targets.size();
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private List<ServiceInstance> healthy(List<ServiceInstance> candidates,
+                                          Function<ServiceInstance, InstanceStats> statsFn) {
+        if (candidates instanceof CandidateInstances candidateInstances) {
+            FilterState state = candidateInstances.getState(this, c -> new FilterState());
+            Filtered filtered = state.filtered;
+            long currentEpoch = epoch.get();
+            if (filtered != null && filtered.epoch == currentEpoch) {
+                return filtered.instances;
+            }
+            List<ServiceInstance> instances = compute(candidates, statsFn);
+            state.filtered = new Filtered(currentEpoch, instances);
+            return instances;
+        }
+        return compute(candidates, statsFn);
+    }
+
+    private List<ServiceInstance> compute(List<ServiceInstance> candidates,
+                                          Function<ServiceInstance, InstanceStats> statsFn) {
+        List<ServiceInstance> available = new ArrayList<>(candidates.size());
+        for (ServiceInstance candidate : candidates) {
+            InstanceStats stats = statsFn.apply(candidate);
+            if (stats == null || !unhealthy.contains(stats)) {
+                available.add(candidate);
+            }
+        }
+        return available.size() == candidates.size() ? candidates : CandidateInstances.of(available);
+    }
+
+    private Target start(ServiceInstance instance, InstanceStats stats) {
+        Target target = new Target(stats, instance.getHost(), instance.getPort(), healthUri(instance));
+        // 第一次探测的时间在一个探测间隔内随机分布
+        schedule(target, ThreadLocalRandom.current().nextLong(intervalNanos));
+        return target;
+    }
+
+    private void stop(InstanceStats stats) {
+        Target target = targets.remove(stats);
+        if (target != null) {
+            target.removed = true;
+        }
+        if (unhealthy.remove(stats)) {
+            epoch.incrementAndGet();
+        }
+    }
+
+    private void schedule(Target target, long delayNanos) {
+        if (target.removed) {
+            return;
+        }
+        try {
+            scheduler.schedule(() -> probe(target), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+        }
+    }
+
+    private long nextDelay() {
+        return intervalNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+    }
+
+    private void probe(Target target) {
+        if (target.removed) {
+            return;
+        }
+        if (!probes.tryAcquire()) {
+            schedule(target, nextDelay());
+            return;
+        }
+        CompletableFuture<Boolean> result;
+        try {
+            result = target.healthUri != null ? request(target) : connect(target);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.completedFuture(false);
+        }
+        result.whenComplete((healthy, e) -> {
+            probes.release();
+            onResult(target, e == null && Boolean.TRUE.equals(healthy));
+            schedule(target, nextDelay());
+        });
+    }
+
+    private CompletableFuture<Boolean> connect(Target target) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+        } catch (IOException e) {
+            result.complete(false);
+            return result;
+        }
+        channel.connect(new InetSocketAddress(target.host, target.port), null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void ignored, Void attachment) {
+                result.complete(true);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                result.complete(false);
+            }
+        });
+        // 超时后关闭连接，同时取消未完成的连接
+        return result.completeOnTimeout(false, timeout.toNanos(), TimeUnit.NANOSECONDS)
+            .whenComplete((healthy, e) -> {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            });
+    }
+
+    private CompletableFuture<Boolean> request(Target target) {
+        HttpRequest request = HttpRequest.newBuilder(target.healthUri).timeout(timeout).GET().build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+            .thenApply(response -> response.statusCode() < 400)
+            .exceptionally(e -> false)
+            .completeOnTimeout(false, timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 每个实例同时最多只有一个探测，探测结果按顺序处理
+     */
+    private void onResult(Target target, boolean success) {
+        if (target.removed) {
+            return;
+        }
+        InstanceStats stats = target.stats;
+        if (success) {
+            target.failures = 0;
+            if (unhealthy.contains(stats) && ++target.successes >= healthyThreshold && unhealthy.remove(stats)) {
+                epoch.incrementAndGet();
+                log.info("服务实例 {} 健康检查恢复", stats.getKey());
+            }
+            return;
+        }
+        target.successes = 0;
+        if (++target.failures >= unhealthyThreshold && unhealthy.add(stats)) {
+            epoch.incrementAndGet();
+            log.warn("服务实例 {} 健康检查连续失败 {} 次，标记为不健康", stats.getKey(), target.failures);
+        }
+    }
+
+    private URI healthUri(ServiceInstance instance) {
+        if (type != HealthCheckProperties.ProbeType.HTTP) {
+            return null;
+        }
+        try {
+            return new URI(instance.isSecure() ? "https" : "http", null, instance.getHost(), instance.getPort(),
+                path, null, null);
+        } catch (URISyntaxException e) {
+            log.warn("服务实例 {} 的健康检查地址无效，使用 TCP 探测", instance.getInstanceId(), e);
+            return null;
+        }
+    }
+
+    private static final class Target {
+        private final InstanceStats stats;
+
+        private final String host;
+
+        private final int port;
+
+        private final URI healthUri;
+
+        private volatile boolean removed;
+
+        private int failures;
+
+        private int successes;
+
+        private Target(InstanceStats stats, String host, int port, URI healthUri) {
+            this.stats = stats;
+            this.host = host;
+            this.port = port;
+            this.healthUri = healthUri;
+        }
+    }
+
+    private static final class FilterState {
+        private volatile Filtered filtered;
+    }
+
+    private record Filtered(long epoch, List<ServiceInstance> instances) {
+    }
+}
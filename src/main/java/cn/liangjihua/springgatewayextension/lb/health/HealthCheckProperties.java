@@ -0,0 +1,67 @@
+package cn.liangjihua.springgatewayextension.lb.health;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 主动健康检查配置
+ */
+@Data
+public class HealthCheckProperties {
+    /**
+     * 是否开启主动健康检查
+     */
+    private boolean enabled;
+
+    /**
+     * 探测方式
+     */
+    private ProbeType type = ProbeType.TCP;
+
+    /**
+     * HTTP 探测的路径，返回 2xx 或 3xx 时认为实例健康
+     */
+    private String path = "/actuator/health";
+
+    /**
+     * 探测间隔
+     */
+    private Duration interval = Duration.ofSeconds(5);
+
+    /**
+     * 在探测间隔上增加的最大随机抖动，避免所有实例在同一时刻被探测
+     */
+    private Duration jitter = Duration.ofSeconds(1);
+
+    /**
+     * 单次探测的超时时间
+     */
+    private Duration timeout = Duration.ofSeconds(1);
+
+    /**
+     * 连续失败多少次后认为实例不健康
+     */
+    private int unhealthyThreshold = 2;
+
+    /**
+     * 不健康的实例连续成功多少次后恢复
+     */
+    private int healthyThreshold = 1;
+
+    /**
+     * 同时进行中的最大探测数
+     */
+    private int maxConcurrentProbes = 256;
+
+    public enum ProbeType {
+        /**
+         * 建立 TCP 连接
+         */
+        TCP,
+        /**
+         * 请求 HTTP 健康检查路径
+         */
+        HTTP
+    }
+}
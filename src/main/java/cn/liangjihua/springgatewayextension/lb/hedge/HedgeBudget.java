@@ -0,0 +1,61 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲预算（令牌桶）.
+ * <p></p>
+ * 每个请求存入 budgetPercent / 100 个令牌，每个对冲请求取出 1 个令牌，令牌不足时不发送对冲请求，
+ * 因此对冲请求最多只会增加 budgetPercent 的负载。令牌数有上限，空闲一段时间之后不会积攒出大量的对冲请求。
+ */
+public class HedgeBudget {
+    /**
+     * 令牌使用定点数保存，1 个令牌为 SCALE
+     */
+    private static final long SCALE = 1000L;
+
+    /**
+     * 最多积攒的令牌数
+     */
+    private static final long MAX_TOKENS = 100L;
+
+    private final long deposit;
+
+    private final AtomicLong balance = new AtomicLong();
+
+    public HedgeBudget(int budgetPercent) {
+        this.deposit = Math.max(0, budgetPercent) * SCALE / 100;
+    }
+
+    /**
+     * 记录一个请求，存入令牌
+     */
+    public void deposit() {
+        if (deposit == 0) {
+            return;
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current >= MAX_TOKENS * SCALE) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(MAX_TOKENS * SCALE, current + deposit)));
+    }
+
+    /**
+     * 尝试为一个对冲请求取出令牌
+     *
+     * @return 令牌是否足够
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+}
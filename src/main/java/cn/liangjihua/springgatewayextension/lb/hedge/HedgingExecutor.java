@@ -0,0 +1,229 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycleValidator;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 对冲请求.
+ * <p></p>
+ * 对于幂等的请求，第一次请求在对冲延迟内没有响应时，从同一个版本的候选实例中选取另一个实例
+ * （{@link VersionLoadBalancer#chooseAlternate}）再发送一次请求，先响应的请求胜出，另一个请求被取消。
+ * 对冲延迟默认为服务响应时间的 p95，样本不足时使用固定延迟；对冲请求受 {@link HedgeBudget} 限制，
+ * 不会在服务过载时放大负载。
+ * <p></p>
+ * 对冲请求发出之前第一次请求失败时直接返回失败，不会触发对冲（对冲用于降低长尾延迟，而不是重试）；
+ * 对冲请求发出之后，返回先成功的响应，一方失败时继续等待另一方，两次请求都失败时才返回失败（第一次请求的错误）。
+ * <p></p>
+ * 请求由调用方通过 call 发送，调用方负责请求本身的超时。每次请求（包括对冲请求）都会经过
+ * 服务的 {@link LoadBalancerLifecycle}（例如 {@link cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle}），
+ * 因此对冲请求同样会更新实例正在处理中的请求数、响应时间、异常实例检测及并发限制：
+ * call 返回错误时记为 FAILED，被取消的请求（对冲中落后的一方）记为 DISCARD。
+ */
+@Slf4j
+public class HedgingExecutor {
+    private final LoadBalancerClientFactory clientFactory;
+
+    private final HedgingProperties properties;
+
+    private final Set<String> methods;
+
+    private final Map<String, ServiceHedging> services = new ConcurrentHashMap<>();
+
+    private final AtomicLong hedged = new AtomicLong();
+
+    public HedgingExecutor(LoadBalancerClientFactory clientFactory, HedgingProperties properties) {
+        this.clientFactory = clientFactory;
+        this.properties = properties;
+        this.methods = properties.getMethods().stream().map(String::toUpperCase).collect(Collectors.toSet());
+    }
+
+    /**
+     * 选取实例并发送请求，必要时发送对冲请求.
+     *
+     * @param serviceId 服务 id
+     * @param request 负载均衡请求，上下文为 {@link RequestDataContext}
+     * @param call 向指定实例发送请求
+     * @param <T> 响应类型
+     * @return 先到达的响应；没有可用实例时为 503 {@link ResponseStatusException}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String serviceId, Request<RequestDataContext> request,
+                               Function<ServiceInstance, Mono<T>> call) {
+        ReactorServiceInstanceLoadBalancer loadBalancer = clientFactory.getInstance(serviceId,
+            ReactorServiceInstanceLoadBalancer.class);
+        if (loadBalancer == null) {
+            return Mono.error(noInstance(serviceId));
+        }
+        Set<LoadBalancerLifecycle> lifecycles = LoadBalancerLifecycleValidator.getSupportedLifecycleProcessors(
+            clientFactory.getInstances(serviceId, LoadBalancerLifecycle.class),
+            RequestDataContext.class, ResponseData.class, ServiceInstance.class);
+        lifecycles.forEach(lifecycle -> lifecycle.onStart(request));
+        return Mono.from(loadBalancer.choose(request)).flatMap(response -> {
+            if (!response.hasServer()) {
+                lifecycles.forEach(lifecycle -> lifecycle.onComplete(
+                    new CompletionContext<>(CompletionContext.Status.DISCARD, request, response)));
+                return Mono.<T>error(noInstance(serviceId));
+            }
+            if (!properties.isEnabled() || !(loadBalancer instanceof VersionLoadBalancer versionLoadBalancer)
+                || !isHedgeable(request.getContext())) {
+                return attempt(request, response, call, lifecycles, null);
+            }
+            ServiceHedging hedging = services.computeIfAbsent(serviceId, k -> new ServiceHedging());
+            hedging.budget.deposit();
+            HedgeState state = new HedgeState();
+            Mono<T> primary = attempt(request, response, call, lifecycles, hedging.latency)
+                .onErrorResume(e -> {
+                    state.primaryError = e;
+                    // 对冲请求还没有发出，或者对冲请求已经失败
+                    if (!state.hedgeStarted || state.failures.incrementAndGet() == 2) {
+                        return Mono.error(e);
+                    }
+                    return Mono.never();
+                });
+            Mono<T> hedge = Mono.delay(hedging.delay())
+                .then(Mono.defer(() -> hedge(versionLoadBalancer, request, response.getServer(), call, lifecycles,
+                    hedging, state)))
+                .onErrorResume(e -> {
+                    log.debug("服务 {} 的对冲请求失败", serviceId, e);
+                    if (state.hedgeStarted && state.failures.incrementAndGet() == 2) {
+                        return Mono.error(state.primaryError != null ? state.primaryError : e);
+                    }
+                    return Mono.never();
+                });
+            return Mono.firstWithSignal(primary, hedge);
+        });
+    }
+
+    /**
+     * 发送的对冲请求总数
+     */
+    public long getHedgedCount() {
+        return hedged.get();
+    }
+
+    private <T> Mono<T> hedge(VersionLoadBalancer loadBalancer, Request<RequestDataContext> request,
+                              ServiceInstance primary, Function<ServiceInstance, Mono<T>> call,
+                              Set<LoadBalancerLifecycle> lifecycles, ServiceHedging hedging, HedgeState state) {
+        if (!hedging.budget.tryWithdraw()) {
+            return Mono.never();
+        }
+        return loadBalancer.chooseAlternate(request, primary).flatMap(response -> {
+            if (!response.hasServer()) {
+                return Mono.never();
+            }
+            hedged.incrementAndGet();
+            state.hedgeStarted = true;
+            log.debug("服务 {} 的请求超过对冲延迟，向 {}:{} 发送对冲请求", loadBalancer.getServiceId(),
+                response.getServer().getHost(), response.getServer().getPort());
+            return attempt(request, response, call, lifecycles, null);
+        });
+    }
+
+    /**
+     * 向选中的实例发送请求，请求开始及结束时调用 {@link LoadBalancerLifecycle}.
+     * <p></p>
+     * 每次请求使用独立的请求上下文，第一次请求与对冲请求的开始时间互不覆盖。
+     *
+     * @param latency 不为 null 时记录响应时间，只记录第一次请求的响应时间，避免对冲请求压低分位数
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Mono<T> attempt(Request<RequestDataContext> request, Response<ServiceInstance> response,
+                                Function<ServiceInstance, Mono<T>> call, Set<LoadBalancerLifecycle> lifecycles,
+                                LatencyHistogram latency) {
+        return Mono.defer(() -> {
+            RequestDataContext context = request.getContext();
+            Request<RequestDataContext> attemptRequest = context != null
+                ? new DefaultRequest<>(new RequestDataContext(context.getClientRequest(), context.getHint()))
+                : request;
+            lifecycles.forEach(lifecycle -> lifecycle.onStartRequest(attemptRequest, response));
+            long start = System.nanoTime();
+            AtomicBoolean completed = new AtomicBoolean();
+            Consumer<CompletionContext<ResponseData, ServiceInstance, RequestDataContext>> complete = completion -> {
+                if (completed.compareAndSet(false, true)) {
+                    lifecycles.forEach(lifecycle -> lifecycle.onComplete(completion));
+                }
+            };
+            return call.apply(response.getServer())
+                .doOnSuccess(value -> {
+                    if (latency != null) {
+                        latency.record(System.nanoTime() - start);
+                    }
+                    complete.accept(new CompletionContext<>(CompletionContext.Status.SUCCESS, attemptRequest,
+                        response));
+                })
+                .doOnError(e -> complete.accept(new CompletionContext<>(CompletionContext.Status.FAILED, e,
+                    attemptRequest, response)))
+                .doOnCancel(() -> complete.accept(new CompletionContext<>(CompletionContext.Status.DISCARD,
+                    attemptRequest, response)));
+        });
+    }
+
+    private static ResponseStatusException noInstance(String serviceId) {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "没有可用的服务实例：" + serviceId);
+    }
+
+    private boolean isHedgeable(RequestDataContext context) {
+        RequestData requestData = context != null ? context.getClientRequest() : null;
+        return requestData != null && requestData.getHttpMethod() != null
+            && methods.contains(requestData.getHttpMethod().name());
+    }
+
+    /**
+     * 一次请求的对冲状态
+     */
+    private static final class HedgeState {
+        /**
+         * 对冲请求是否已经发出
+         */
+        private volatile boolean hedgeStarted;
+
+        /**
+         * 对冲请求发出之后失败的请求数，为 2 时两次请求都失败了
+         */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private volatile Throwable primaryError;
+    }
+
+    private final class ServiceHedging {
+        private final LatencyHistogram latency = new LatencyHistogram(properties.getWindow().toNanos());
+
+        private final HedgeBudget budget = new HedgeBudget(properties.getBudgetPercent());
+
+        Duration delay() {
+            long nanos = latency.percentile(properties.getDelayPercentile(), properties.getMinSamples());
+            if (nanos < 0) {
+                return properties.getDelay();
+            }
+            long min = properties.getMinDelay().toNanos();
+            long max = properties.getMaxDelay().toNanos();
+            return Duration.ofNanos(Math.max(min, Math.min(max, nanos)));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import lombok.Data;
+import org.springframework.http.HttpMethod;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对冲请求配置
+ */
+@Data
+public class HedgingProperties {
+    /**
+     * 是否开启对冲请求
+     */
+    private boolean enabled;
+
+    /**
+     * 允许对冲的请求方法，只应该包含幂等的方法
+     */
+    private List<String> methods = new ArrayList<>(List.of(HttpMethod.GET.name(), HttpMethod.HEAD.name()));
+
+    /**
+     * 使用服务响应时间的哪个分位数作为对冲延迟
+     */
+    private double delayPercentile = 0.95;
+
+    /**
+     * 样本数不足时使用的固定对冲延迟
+     */
+    private Duration delay = Duration.ofMillis(100);
+
+    /**
+     * 对冲延迟的下限
+     */
+    private Duration minDelay = Duration.ofMillis(5);
+
+    /**
+     * 对冲延迟的上限
+     */
+    private Duration maxDelay = Duration.ofSeconds(2);
+
+    /**
+     * 使用分位数计算对冲延迟之前至少需要的响应时间样本数
+     */
+    private int minSamples = 100;
+
+    /**
+     * 统计响应时间分布的窗口，分布由最近两个窗口的样本计算
+     */
+    private Duration window = Duration.ofSeconds(30);
+
+    /**
+     * 对冲请求数最多占请求数的百分比，避免对冲在服务过载时放大负载
+     */
+    private int budgetPercent = 10;
+}
@@ -0,0 +1,106 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的响应时间分布，用于计算对冲延迟.
+ * <p></p>
+ * 桶的边界按 1.25 倍递增（100 微秒到约 130 秒），分位数的误差在 25% 以内，对于对冲延迟已经足够。
+ * 样本按窗口轮换，分位数由当前窗口及上一个窗口的样本计算，旧的样本会在两个窗口之后被丢弃。
+ * 分位数的计算结果缓存 1 秒钟。
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private static final long MIN_NANOS = 100_000L;
+
+    private static final double FACTOR = 1.25;
+
+    private static final double LOG_FACTOR = Math.log(FACTOR);
+
+    private static final long CACHE_NANOS = 1_000_000_000L;
+
+    private final long windowNanos;
+
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+    private volatile long rotateAt;
+
+    private volatile Cached cached;
+
+    public LatencyHistogram(long windowNanos) {
+        this.windowNanos = Math.max(1, windowNanos);
+        this.rotateAt = System.nanoTime() + this.windowNanos;
+    }
+
+    public void record(long latencyNanos) {
+        long now = System.nanoTime();
+        if (now - rotateAt >= 0) {
+            rotate(now);
+        }
+        current.incrementAndGet(bucketOf(latencyNanos));
+    }
+
+    /**
+     * 返回分位数，单位纳秒，样本数小于 minSamples 时返回 -1
+     *
+     * @param quantile 分位数，例如 0.95
+     * @param minSamples 至少需要的样本数
+     */
+    public long percentile(double quantile, int minSamples) {
+        long now = System.nanoTime();
+        Cached cached = this.cached;
+        if (cached != null && cached.quantile == quantile && now - cached.expireAt < 0) {
+            return cached.value;
+        }
+        AtomicLongArray current = this.current;
+        AtomicLongArray previous = this.previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = current.get(i) + previous.get(i);
+            total += counts[i];
+        }
+        long value = -1;
+        if (total >= minSamples && total > 0) {
+            long target = (long) Math.ceil(total * quantile);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += counts[i];
+                if (cumulative >= target) {
+                    value = upperBoundOf(i);
+                    break;
+                }
+            }
+        }
+        this.cached = new Cached(quantile, value, now + CACHE_NANOS);
+        return value;
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - rotateAt < 0) {
+            return;
+        }
+        // 超过两个窗口没有样本时，上一个窗口的样本也已经过期
+        previous = now - rotateAt >= windowNanos ? new AtomicLongArray(BUCKETS) : current;
+        current = new AtomicLongArray(BUCKETS);
+        rotateAt = now + windowNanos;
+    }
+
+    static int bucketOf(long latencyNanos) {
+        if (latencyNanos <= MIN_NANOS) {
+            return 0;
+        }
+        int bucket = (int) Math.ceil(Math.log((double) latencyNanos / MIN_NANOS) / LOG_FACTOR);
+        return Math.min(BUCKETS - 1, bucket);
+    }
+
+    static long upperBoundOf(int bucket) {
+        return (long) (MIN_NANOS * Math.pow(FACTOR, bucket));
+    }
+
+    private record Cached(double quantile, long value, long expireAt) {
+    }
+}
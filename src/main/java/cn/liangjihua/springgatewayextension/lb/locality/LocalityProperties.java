@@ -0,0 +1,39 @@
+package cn.liangjihua.springgatewayextension.lb.locality;
+
+import lombok.Data;
+
+/**
+ * 就近路由配置
+ */
+@Data
+public class LocalityProperties {
+    /**
+     * 是否开启就近路由
+     */
+    private boolean enabled;
+
+    /**
+     * 网关所在的可用区，为空时使用 spring.cloud.loadbalancer.zone
+     */
+    private String zone;
+
+    /**
+     * 实例 metadata 中可用区（或机架）的 key
+     */
+    private String zoneMetadataKey = "zone";
+
+    /**
+     * 没有配置可用区时，与网关 IPv4 地址前缀长度相同的实例视为同一个子网，小于等于 0 时不按子网划分
+     */
+    private int subnetPrefixLength;
+
+    /**
+     * 一个层级中可用（未被摘除）的实例数少于该值时溢出到下一个层级
+     */
+    private int minInstances = 1;
+
+    /**
+     * 一个层级中实例的平均在途请求数超过该值时溢出到下一个层级，小于等于 0 时不按负载溢出
+     */
+    private double maxAverageInflight;
+}
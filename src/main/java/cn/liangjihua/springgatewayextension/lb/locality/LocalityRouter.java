@@ -0,0 +1,193 @@
+package cn.liangjihua.springgatewayextension.lb.locality;
+
+import cn.hutool.core.util.StrUtil;
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateStates;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * 就近路由.
+ * <p></p>
+ * 将版本隔离选出的候选实例按照与网关的距离划分为多个层级：同一台主机、同一个可用区（实例 metadata）或同一个子网、所有实例，
+ * 依次选择第一个满足条件的层级：层级中可用的实例数不少于 minInstances，并且平均在途请求数不超过 maxAverageInflight，
+ * 否则溢出到下一个层级。版本隔离在层级划分之前完成，因此每个层级中都只有请求版本对应的实例。
+ * <p></p>
+ * 层级按照候选实例列表预先计算（附加在 {@link CandidateInstances} 上），每个层级也是 {@link CandidateInstances}，
+ * 有状态的选择器及异常实例过滤在每个层级上独立工作。
+ */
+public class LocalityRouter {
+    public static final LocalityRouter DISABLED = new LocalityRouter(new LocalityProperties(), null, null);
+
+    private final boolean enabled;
+
+    private final String zone;
+
+    private final String zoneMetadataKey;
+
+    private final int subnetPrefixLength;
+
+    private final int minInstances;
+
+    private final double maxAverageInflight;
+
+    private final LocalAddressResolver localAddressResolver;
+
+    private final CandidateStates<List<ServiceInstance>[]> tiers = new CandidateStates<>(this::buildTiers);
+
+    /**
+     * @param properties 配置
+     * @param zone 网关所在的可用区，可以为 null
+     * @param localAddressResolver 本机地址
+     */
+    public LocalityRouter(LocalityProperties properties, String zone, LocalAddressResolver localAddressResolver) {
+        this.enabled = properties.isEnabled();
+        this.zone = StrUtil.isNotBlank(zone) ? zone : null;
+        this.zoneMetadataKey = properties.getZoneMetadataKey();
+        this.subnetPrefixLength = Math.min(32, properties.getSubnetPrefixLength());
+        this.minInstances = Math.max(1, properties.getMinInstances());
+        this.maxAverageInflight = properties.getMaxAverageInflight();
+        this.localAddressResolver = localAddressResolver;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从候选实例中选择最近的满足条件的层级.
+     *
+     * @param candidates 版本隔离选出的候选实例
+     * @param filter 去掉不可用实例的过滤器
+     * @param stats 实例 -> 负载统计
+     * @return 过滤后的层级中的实例
+     */
+    public List<ServiceInstance> select(List<ServiceInstance> candidates,
+                                        UnaryOperator<List<ServiceInstance>> filter,
+                                        Function<ServiceInstance, InstanceStats> stats) {
+        if (!enabled || candidates.isEmpty()) {
+            return filter.apply(candidates);
+        }
+        List<ServiceInstance>[] levels = tiers.get(candidates);
+        for (List<ServiceInstance> level : levels) {
+            List<ServiceInstance> available = filter.apply(level);
+            if (available.size() >= minInstances && !isOverloaded(available, stats)) {
+                return available;
+            }
+        }
+        return filter.apply(candidates);
+    }
+
+    private boolean isOverloaded(List<ServiceInstance> instances, Function<ServiceInstance, InstanceStats> stats) {
+        if (maxAverageInflight <= 0) {
+            return false;
+        }
+        long inflight = 0;
+        for (ServiceInstance instance : instances) {
+            InstanceStats instanceStats = stats.apply(instance);
+            if (instanceStats != null) {
+                inflight += instanceStats.getInflight();
+            }
+        }
+        return inflight > maxAverageInflight * instances.size();
+    }
+
+    /**
+     * 划分层级，只保留非空、并且比上一个层级大、比所有实例小的层级；所有实例作为最后的溢出层级不在结果中
+     */
+    @SuppressWarnings("unchecked")
+    private List<ServiceInstance>[] buildTiers(List<ServiceInstance> candidates) {
+        Set<String> localAddresses = localAddressResolver.getAddresses();
+        int[] localSubnets = subnetPrefixLength > 0 && zone == null ? subnetsOf(localAddresses) : new int[0];
+        List<ServiceInstance> host = new ArrayList<>();
+        List<ServiceInstance> near = new ArrayList<>();
+        for (ServiceInstance instance : candidates) {
+            boolean sameHost = instance.getHost() != null && localAddresses.contains(instance.getHost());
+            if (sameHost) {
+                host.add(instance);
+            }
+            if (sameHost || isNear(instance, localSubnets)) {
+                near.add(instance);
+            }
+        }
+        List<List<ServiceInstance>> levels = new ArrayList<>(2);
+        if (!host.isEmpty() && host.size() < candidates.size()) {
+            levels.add(CandidateInstances.of(host));
+        }
+        if (near.size() > host.size() && near.size() < candidates.size()) {
+            levels.add(CandidateInstances.of(near));
+        }
+        return levels.toArray(new List[0]);
+    }
+
+    private boolean isNear(ServiceInstance instance, int[] localSubnets) {
+        if (zone != null) {
+            return zone.equals(instance.getMetadata().get(zoneMetadataKey));
+        }
+        if (localSubnets.length == 0) {
+            return false;
+        }
+        int address = ipv4Of(instance.getHost());
+        if (address == 0) {
+            return false;
+        }
+        int subnet = address & mask();
+        for (int localSubnet : localSubnets) {
+            if (localSubnet == subnet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] subnetsOf(Set<String> addresses) {
+        return addresses.stream()
+            .mapToInt(LocalityRouter::ipv4Of)
+            .filter(address -> address != 0 && (address >>> 24) != 127)
+            .map(address -> address & mask())
+            .distinct()
+            .toArray();
+    }
+
+    private int mask() {
+        return subnetPrefixLength >= 32 ? -1 : ~(-1 >>> subnetPrefixLength);
+    }
+
+    /**
+     * 解析点分十进制的 IPv4 地址，不是 IPv4 地址时返回 0
+     */
+    static int ipv4Of(String host) {
+        if (host == null) {
+            return 0;
+        }
+        int address = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return 0;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                address = (address << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return 0;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return 0;
+        }
+        return (address << 8) | octet;
+    }
+}
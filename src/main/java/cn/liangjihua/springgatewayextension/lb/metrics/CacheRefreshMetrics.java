@@ -0,0 +1,40 @@
+package cn.liangjihua.springgatewayextension.lb.metrics;
+
+import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * {@link ServiceInstanceCacheRefresh} 的指标：
+ * 收到的 nacos 实例变更事件数，以及按结果（applied 驱逐缓存，skipped 实例没有变化）统计的刷新次数.
+ */
+public class CacheRefreshMetrics implements MeterBinder {
+    private final ServiceInstanceCacheRefresh cacheRefresh;
+
+    public CacheRefreshMetrics(ServiceInstanceCacheRefresh cacheRefresh) {
+        this.cacheRefresh = cacheRefresh;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh refresh = cacheRefresh.getRefresh();
+        if (refresh == null) {
+            return;
+        }
+        FunctionCounter.builder("lb.cache.refresh.events", refresh,
+                ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh::getEventsReceived)
+            .description("收到的 nacos 服务实例变更事件数")
+            .register(registry);
+        FunctionCounter.builder("lb.cache.refresh", refresh,
+                ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh::getRefreshesApplied)
+            .description("服务实例缓存的驱逐次数")
+            .tag("result", "applied")
+            .register(registry);
+        FunctionCounter.builder("lb.cache.refresh", refresh,
+                ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh::getRefreshesSkipped)
+            .description("服务实例缓存的驱逐次数")
+            .tag("result", "skipped")
+            .register(registry);
+    }
+}
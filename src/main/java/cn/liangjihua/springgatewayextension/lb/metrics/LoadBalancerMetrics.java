@@ -0,0 +1,76 @@
+package cn.liangjihua.springgatewayextension.lb.metrics;
+
+import cn.liangjihua.springgatewayextension.lb.supplier.SingleFlightServiceInstanceListSupplier;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 负载均衡的 Micrometer 指标.
+ * <p></p>
+ * 所有服务的负载均衡器共享同一个实例，每个负载均衡器在创建时通过 {@link #forService} 获取自己的
+ * {@link ServiceMetrics}，指标在获取时预先注册，选取实例的路径上不需要再根据 tag 查找指标。
+ * 没有 {@link MeterRegistry} 或关闭指标时使用 {@link #NOOP}。
+ */
+public class LoadBalancerMetrics {
+    public static final LoadBalancerMetrics NOOP = new LoadBalancerMetrics(null, 0);
+
+    public static final int DEFAULT_MAX_VERSION_TAGS = 20;
+
+    private final MeterRegistry registry;
+
+    private final int maxVersionTags;
+
+    /**
+     * @param registry 指标注册表，为 null 时不记录任何指标
+     * @param maxVersionTags 每个服务最多使用的版本号 tag 数，超出的版本号统一记为 other
+     */
+    public LoadBalancerMetrics(MeterRegistry registry, int maxVersionTags) {
+        this.registry = registry;
+        this.maxVersionTags = maxVersionTags;
+    }
+
+    public boolean isEnabled() {
+        return registry != null;
+    }
+
+    /**
+     * 返回服务的指标
+     *
+     * @param serviceId 服务 id
+     * @param chooser 服务使用的实例选择器名称
+     */
+    public ServiceMetrics forService(String serviceId, String chooser) {
+        if (registry == null) {
+            return ServiceMetrics.NOOP;
+        }
+        return new ServiceMetrics(registry, serviceId, chooser, maxVersionTags);
+    }
+
+    /**
+     * 注册服务实例加载的指标 lb.instances.load：result 为 cached（命中缓存）、fetched（访问注册中心）、
+     * coalesced（加入了正在进行的加载）或 stale（返回了上一次加载的实例列表）
+     *
+     * @param serviceId 服务 id
+     * @param supplier 服务的 supplier
+     */
+    public void bindInstanceLoading(String serviceId, SingleFlightServiceInstanceListSupplier supplier) {
+        if (registry == null) {
+            return;
+        }
+        registerLoadCounter(serviceId, supplier, "cached", SingleFlightServiceInstanceListSupplier::getCacheHits);
+        registerLoadCounter(serviceId, supplier, "fetched", SingleFlightServiceInstanceListSupplier::getFetches);
+        registerLoadCounter(serviceId, supplier, "coalesced", SingleFlightServiceInstanceListSupplier::getCoalesced);
+        registerLoadCounter(serviceId, supplier, "stale", SingleFlightServiceInstanceListSupplier::getStaleServed);
+    }
+
+    private void registerLoadCounter(String serviceId, SingleFlightServiceInstanceListSupplier supplier, String result,
+                                     ToDoubleFunction<SingleFlightServiceInstanceListSupplier> count) {
+        FunctionCounter.builder("lb.instances.load", supplier, count)
+            .description("获取服务实例列表的次数")
+            .tag("service", serviceId)
+            .tag("result", result)
+            .register(registry);
+    }
+}
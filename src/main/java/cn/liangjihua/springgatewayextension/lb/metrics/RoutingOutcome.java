@@ -0,0 +1,37 @@
+package cn.liangjihua.springgatewayextension.lb.metrics;
+
+/**
+ * 一次负载均衡的路由结果
+ */
+public enum RoutingOutcome {
+    /**
+     * 命中了请求版本号对应的实例
+     */
+    VERSION_HIT("version_hit"),
+    /**
+     * 请求没有版本号或版本号没有对应实例，使用了本地实例
+     */
+    LOCAL_FALLBACK("local_fallback"),
+    /**
+     * 请求没有版本号或版本号没有对应实例，并且没有本地实例，使用了无版本号的实例
+     */
+    NON_VERSIONED_FALLBACK("non_versioned_fallback"),
+    /**
+     * 没有可用的实例
+     */
+    EMPTY("empty"),
+    /**
+     * 候选实例都已达到并发上限，请求被拒绝
+     */
+    REJECTED("rejected");
+
+    private final String tag;
+
+    RoutingOutcome(String tag) {
+        this.tag = tag;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+}
@@ -0,0 +1,206 @@
+package cn.liangjihua.springgatewayextension.lb.metrics;
+
+import cn.hutool.core.util.StrUtil;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个服务的负载均衡指标，所有指标都带有 service tag.
+ * <ul>
+ *     <li>lb.choose.duration：选取实例的耗时，包括获取实例列表</li>
+ *     <li>lb.choose.candidates：候选实例数</li>
+ *     <li>lb.choose.outcome：路由结果，见 {@link RoutingOutcome}</li>
+ *     <li>lb.choose.version：请求的版本号，没有版本号记为 none。版本号来自请求头，只有命中了版本实例（{@link RoutingOutcome#VERSION_HIT}）
+ *     的版本号才会作为 tag，并且 tag 的数量有上限，其他的记为 other</li>
+ *     <li>lb.chooser.selections：选择器选中每个实例的次数，带有 chooser 及 instance tag，
+ *     实例下线后通过 {@link #retainSelections} 移除</li>
+ * </ul>
+ */
+public final class ServiceMetrics {
+    static final ServiceMetrics NOOP = new ServiceMetrics();
+
+    static final String NO_VERSION = "none";
+
+    static final String OTHER_VERSION = "other";
+
+    private final MeterRegistry registry;
+
+    private final String serviceId;
+
+    /**
+     * 当前的选择器名称，策略热更新后通过 {@link #useChooser} 更新
+     */
+    private volatile String chooser;
+
+    private final int maxVersionTags;
+
+    private final Timer chooseTimer;
+
+    private final DistributionSummary candidates;
+
+    private final Counter[] outcomes;
+
+    private final Map<String, Counter> versions = new ConcurrentHashMap<>();
+
+    private final Counter noVersion;
+
+    private final Counter otherVersion;
+
+    /**
+     * 实例负载统计 -> 选中次数，负载统计在实例存活期间不变，使用引用比较
+     */
+    private final Map<InstanceStats, Counter> selections = new ConcurrentHashMap<>();
+
+    private ServiceMetrics() {
+        this.registry = null;
+        this.serviceId = null;
+        this.chooser = null;
+        this.maxVersionTags = 0;
+        this.chooseTimer = null;
+        this.candidates = null;
+        this.outcomes = null;
+        this.noVersion = null;
+        this.otherVersion = null;
+    }
+
+    ServiceMetrics(MeterRegistry registry, String serviceId, String chooser, int maxVersionTags) {
+        this.registry = registry;
+        this.serviceId = serviceId;
+        this.chooser = chooser;
+        this.maxVersionTags = maxVersionTags;
+        this.chooseTimer = Timer.builder("lb.choose.duration")
+            .description("选取服务实例的耗时")
+            .tag("service", serviceId)
+            .register(registry);
+        this.candidates = DistributionSummary.builder("lb.choose.candidates")
+            .description("候选实例数")
+            .tag("service", serviceId)
+            .register(registry);
+        RoutingOutcome[] values = RoutingOutcome.values();
+        this.outcomes = new Counter[values.length];
+        for (RoutingOutcome outcome : values) {
+            outcomes[outcome.ordinal()] = Counter.builder("lb.choose.outcome")
+                .tag("service", serviceId)
+                .tag("outcome", outcome.getTag())
+                .register(registry);
+        }
+        this.noVersion = versionCounter(NO_VERSION);
+        this.otherVersion = versionCounter(OTHER_VERSION);
+    }
+
+    public boolean isEnabled() {
+        return registry != null;
+    }
+
+    /**
+     * 记录一次选取实例
+     *
+     * @param version 请求的版本号
+     * @param outcome 路由结果
+     * @param candidateSize 候选实例数
+     * @param selected 选中实例的负载统计，没有选中实例时为 null
+     * @param durationNanos 选取实例的耗时
+     */
+    public void record(String version, RoutingOutcome outcome, int candidateSize, InstanceStats selected,
+                       long durationNanos) {
+        if (registry == null) {
+            return;
+        }
+        chooseTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+        candidates.record(candidateSize);
+        outcomes[outcome.ordinal()].increment();
+        versionCounterOf(version, outcome).increment();
+        if (selected != null) {
+            selections.computeIfAbsent(selected, this::selectionCounter).increment();
+        }
+    }
+
+    /**
+     * 移除已经下线的实例的 lb.chooser.selections 指标，由负载均衡器在路由索引重建时调用，
+     * 避免实例频繁上下线时指标及负载统计对象无限增长.
+     * <p></p>
+     * 使用旧索引处理中的请求可能会为已经下线的实例重新创建指标，在下一次重建索引时移除。
+     *
+     * @param live 当前存活的实例的负载统计
+     */
+    public void retainSelections(Collection<InstanceStats> live) {
+        if (registry == null || selections.isEmpty()) {
+            return;
+        }
+        Set<InstanceStats> liveStats = Collections.newSetFromMap(new IdentityHashMap<>());
+        liveStats.addAll(live);
+        selections.entrySet().removeIf(entry -> {
+            if (liveStats.contains(entry.getKey())) {
+                return false;
+            }
+            registry.remove(entry.getValue());
+            return true;
+        });
+    }
+
+    /**
+     * 服务的选择器变化（策略热更新）后更新 lb.chooser.selections 的 chooser tag，
+     * 旧的选择器的指标被移除，之后的选中次数记录在新的 tag 下.
+     *
+     * @param chooser 选择器名称
+     */
+    public void useChooser(String chooser) {
+        if (registry == null || chooser.equals(this.chooser)) {
+            return;
+        }
+        synchronized (this) {
+            if (chooser.equals(this.chooser)) {
+                return;
+            }
+            this.chooser = chooser;
+            selections.values().forEach(registry::remove);
+            selections.clear();
+        }
+    }
+
+    private Counter versionCounterOf(String version, RoutingOutcome outcome) {
+        if (StrUtil.isBlank(version)) {
+            return noVersion;
+        }
+        // 客户端可以传入任意的版本号，未命中的版本号不占用 tag，避免占满上限
+        if (outcome != RoutingOutcome.VERSION_HIT) {
+            return otherVersion;
+        }
+        Counter counter = versions.get(version);
+        if (counter != null) {
+            return counter;
+        }
+        // 并发时可能略微超出上限，可以接受
+        if (versions.size() >= maxVersionTags) {
+            return otherVersion;
+        }
+        return versions.computeIfAbsent(version, this::versionCounter);
+    }
+
+    private Counter versionCounter(String version) {
+        return Counter.builder("lb.choose.version")
+            .tag("service", serviceId)
+            .tag("version", version)
+            .register(registry);
+    }
+
+    private Counter selectionCounter(InstanceStats stats) {
+        String key = stats.getKey();
+        return Counter.builder("lb.chooser.selections")
+            .tag("service", serviceId)
+            .tag("chooser", chooser)
+            .tag("instance", key.substring(key.indexOf('/') + 1))
+            .register(registry);
+    }
+}
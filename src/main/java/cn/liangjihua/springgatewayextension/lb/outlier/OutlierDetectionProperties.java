@@ -0,0 +1,51 @@
+package cn.liangjihua.springgatewayextension.lb.outlier;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 被动异常实例检测配置
+ */
+@Data
+public class OutlierDetectionProperties {
+    /**
+     * 是否开启异常实例检测
+     */
+    private boolean enabled;
+
+    /**
+     * 连续失败多少次后摘除实例
+     */
+    private int consecutiveFailures = 5;
+
+    /**
+     * 滑动窗口内失败率达到多少后摘除实例
+     */
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * 滑动窗口内请求数达到多少后才计算失败率
+     */
+    private int minimumRequests = 20;
+
+    /**
+     * 计算失败率的滑动窗口大小
+     */
+    private Duration window = Duration.ofSeconds(10);
+
+    /**
+     * 第一次摘除的时间，之后每次摘除时间翻倍
+     */
+    private Duration baseEjectionTime = Duration.ofSeconds(30);
+
+    /**
+     * 最长的摘除时间
+     */
+    private Duration maxEjectionTime = Duration.ofMinutes(5);
+
+    /**
+     * 一组候选实例中最多可以摘除的实例百分比，保证某个版本的实例不会被全部摘除
+     */
+    private int maxEjectionPercent = 50;
+}
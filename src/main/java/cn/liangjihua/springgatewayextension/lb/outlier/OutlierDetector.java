@@ -0,0 +1,155 @@
+package cn.liangjihua.springgatewayextension.lb.outlier;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.stats.FailureStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 被动异常实例检测.
+ * <p></p>
+ * 在请求结束时（{@link cn.liangjihua.springgatewayextension.lb.VersionLoadBalancerLifecycle#onComplete}）
+ * 记录请求是否失败（连接异常或 5xx），实例连续失败次数或滑动窗口内的失败率超过阈值时，将实例临时摘除，
+ * 摘除时间随摘除次数指数增长。在 nacos 将实例下线的信息同步过来之前
+ * （见 {@link cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh}），
+ * 请求不会持续的发送到已经失败的实例上。
+ * <p></p>
+ * 选取实例时，{@link #filter} 从候选实例中去掉被摘除的实例，但是最多只会去掉
+ * maxEjectionPercent 比例的实例，因此某个版本的实例不会被全部摘除。
+ * 没有实例被摘除时 {@link #filter} 直接返回原候选实例；过滤的结果按照候选实例缓存，只在摘除状态变化时重新计算。
+ */
+@Slf4j
+public class OutlierDetector {
+    private final OutlierDetectionProperties properties;
+
+    private final InstanceStatsRegistry statsRegistry;
+
+    private final Set<InstanceStats> ejected = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 摘除状态的版本号，每次摘除或恢复实例时递增，用于判断缓存的过滤结果是否有效
+     */
+    private final AtomicLong epoch = new AtomicLong();
+
+    public OutlierDetector(OutlierDetectionProperties properties, InstanceStatsRegistry statsRegistry) {
+        this.properties = properties;
+        this.statsRegistry = statsRegistry;
+    }
+
+    /**
+     * 记录请求的结果，必要时摘除实例.
+     *
+     * @param stats 处理请求的实例的统计
+     * @param failed 请求是否失败
+     */
+    public void onComplete(InstanceStats stats, boolean failed) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        FailureStats failureStats = stats.getFailureStats();
+        if (!failed) {
+            failureStats.recordSuccess(now);
+            return;
+        }
+        int consecutiveFailures = failureStats.recordFailure(now);
+        if (failureStats.isEjected(now)) {
+            return;
+        }
+        double failureRate = failureStats.failureRate(now, properties.getMinimumRequests());
+        if (consecutiveFailures >= properties.getConsecutiveFailures()
+            || failureRate >= properties.getFailureRateThreshold() && failureRate > 0) {
+            eject(stats, now, consecutiveFailures, failureRate);
+        }
+    }
+
+    /**
+     * 从候选实例中去掉被摘除的实例.
+     *
+     * @param candidates 候选实例
+     * @return 过滤后的候选实例，没有实例被摘除时返回 candidates 本身
+     */
+    public List<ServiceInstance> filter(List<ServiceInstance> candidates) {
+        if (!properties.isEnabled() || ejected.isEmpty() || candidates.isEmpty()) {
+            return candidates;
+        }
+        long now = System.nanoTime();
+        if (candidates instanceof CandidateInstances candidateInstances) {
+            FilterState state = candidateInstances.getState(this, c -> new FilterState());
+            Filtered filtered = state.filtered;
+            if (filtered != null && filtered.epoch == epoch.get() && now - filtered.validUntil < 0) {
+                return filtered.instances;
+            }
+            filtered = compute(candidates, now);
+            state.filtered = filtered;
+            return filtered.instances;
+        }
+        return compute(candidates, now).instances;
+    }
+
+    /**
+     * 当前被摘除的实例数量
+     */
+    public int getEjectedCount() {
+        return ejected.size();
+    }
+
+    private Filtered compute(List<ServiceInstance> candidates, long now) {
+        restoreExpired(now);
+        long currentEpoch = epoch.get();
+        int maxEjected = candidates.size() * properties.getMaxEjectionPercent() / 100;
+        int ejectedCandidates = 0;
+        long validUntil = now + properties.getMaxEjectionTime().toNanos();
+        List<ServiceInstance> available = new ArrayList<>(candidates.size());
+        for (ServiceInstance candidate : candidates) {
+            InstanceStats stats = statsRegistry.get(candidate);
+            FailureStats failureStats = stats != null ? stats.getFailureStats() : null;
+            if (failureStats != null && failureStats.isEjected(now) && ejectedCandidates < maxEjected) {
+                ejectedCandidates++;
+                if (failureStats.getEjectedUntil() - validUntil < 0) {
+                    validUntil = failureStats.getEjectedUntil();
+                }
+            } else {
+                available.add(candidate);
+            }
+        }
+        List<ServiceInstance> instances = ejectedCandidates == 0 ? candidates : CandidateInstances.of(available);
+        return new Filtered(currentEpoch, validUntil, instances);
+    }
+
+    private void eject(InstanceStats stats, long now, int consecutiveFailures, double failureRate) {
+        FailureStats failureStats = stats.getFailureStats();
+        if (failureStats.eject(now, properties.getBaseEjectionTime().toNanos(),
+            properties.getMaxEjectionTime().toNanos())) {
+            ejected.add(stats);
+            epoch.incrementAndGet();
+            log.warn("服务实例 {} 连续失败 {} 次，失败率 {}，暂时摘除 {} ms", stats.getKey(), consecutiveFailures,
+                failureRate, (failureStats.getEjectedUntil() - now) / 1_000_000);
+        }
+    }
+
+    private void restoreExpired(long now) {
+        for (InstanceStats stats : ejected) {
+            if (stats.getFailureStats().restore(now)) {
+                ejected.remove(stats);
+                epoch.incrementAndGet();
+                log.info("服务实例 {} 摘除时间到期，恢复使用", stats.getKey());
+            }
+        }
+    }
+
+    private static final class FilterState {
+        private volatile Filtered filtered;
+    }
+
+    private record Filtered(long epoch, long validUntil, List<ServiceInstance> instances) {
+    }
+}
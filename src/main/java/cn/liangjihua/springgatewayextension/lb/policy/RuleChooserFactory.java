@@ -0,0 +1,17 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashProperties;
+import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+
+/**
+ * 创建需要按服务配置参数的选择器，见 {@link ServicePolicyRegistry#registerFactory}.
+ */
+@FunctionalInterface
+public interface RuleChooserFactory {
+
+    /**
+     * @param consistentHash 服务的一致性哈希配置，服务没有配置时为全局配置
+     * @return 选择器
+     */
+    IRuleChooser create(ConsistentHashProperties consistentHash);
+}
@@ -0,0 +1,14 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+
+/**
+ * 解析完成的服务负载均衡策略，不可变；配置变化时由 {@link ServicePolicyRegistry} 整体替换.
+ *
+ * @param chooser 实例选择器
+ * @param fallback 版本号没有对应实例时的 fallback 方式
+ * @param localityRouter 就近路由
+ */
+public record ServicePolicy(IRuleChooser chooser, VersionFallback fallback, LocalityRouter localityRouter) {
+}
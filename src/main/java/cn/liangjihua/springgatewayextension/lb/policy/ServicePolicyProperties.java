@@ -0,0 +1,31 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashProperties;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityProperties;
+import lombok.Data;
+
+/**
+ * 单个服务的负载均衡策略，未配置的项使用全局配置
+ */
+@Data
+public class ServicePolicyProperties {
+    /**
+     * {@link cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser} 的全限定类名
+     */
+    private String chooser;
+
+    /**
+     * 一致性哈希选择器的参数
+     */
+    private ConsistentHashProperties consistentHash;
+
+    /**
+     * 版本号没有对应实例时的 fallback 方式
+     */
+    private VersionFallback fallback;
+
+    /**
+     * 就近路由配置
+     */
+    private LocalityProperties locality;
+}
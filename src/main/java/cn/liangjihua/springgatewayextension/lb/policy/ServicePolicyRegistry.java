@@ -0,0 +1,214 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashProperties;
+import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.config.VersionIsolationProperties;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityProperties;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+import lombok.extern.slf4j.Slf4j;
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashRuleChooser;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 按服务配置的负载均衡策略.
+ * <p></p>
+ * 策略配置在 spring.gateway.lb.version.isolation.services.&lt;serviceId&gt; 下，包括选择器及其参数、
+ * 版本号的 fallback 方式以及就近路由，未配置的项使用全局配置：
+ * <pre>
+ * spring.gateway.lb.version.isolation.services.order-service.chooser=...PeakEwmaRuleChooser
+ * spring.gateway.lb.version.isolation.services.product-service.chooser=...ConsistentHashRuleChooser
+ * spring.gateway.lb.version.isolation.services.product-service.consistent-hash.header=X-Product-Id
+ * </pre>
+ * 选择器的优先级为：服务配置的选择器、全局配置的选择器、负载均衡器子容器中的 {@link IRuleChooser} bean。
+ * <p></p>
+ * 每个服务的策略在负载均衡器创建时解析一次，选择器预先创建好，负载均衡时只读取一个 volatile 引用。
+ * 配置变化（{@link EnvironmentChangeEvent}，例如 nacos 配置中心刷新）时重新绑定配置，
+ * 只有生效配置发生变化的服务才会创建新的选择器并替换策略，负载均衡器子容器不需要重建。
+ */
+@Slf4j
+public class ServicePolicyRegistry implements ApplicationListener<EnvironmentChangeEvent> {
+    private final Environment environment;
+
+    private final AutowireCapableBeanFactory beanFactory;
+
+    private final LocalityRouter defaultLocalityRouter;
+
+    /**
+     * 创建 defaultLocalityRouter 时的全局就近路由配置，全局配置变化后需要重新创建就近路由
+     */
+    private final LocalityProperties defaultLocality;
+
+    private final LocalAddressResolver localAddressResolver;
+
+    private final Map<String, PolicyRef> policies = new ConcurrentHashMap<>();
+
+    /**
+     * 选择器类 -> 按服务配置参数创建选择器的工厂
+     */
+    private final Map<Class<?>, RuleChooserFactory> factories = new ConcurrentHashMap<>();
+
+    private volatile VersionIsolationProperties properties;
+
+    public ServicePolicyRegistry(Environment environment,
+                                 AutowireCapableBeanFactory beanFactory,
+                                 LocalityRouter defaultLocalityRouter,
+                                 LocalAddressResolver localAddressResolver) {
+        this.environment = environment;
+        this.beanFactory = beanFactory;
+        this.defaultLocalityRouter = defaultLocalityRouter;
+        this.localAddressResolver = localAddressResolver;
+        this.properties = bind();
+        this.defaultLocality = properties.getLocality();
+        registerFactory(ConsistentHashRuleChooser.class, ConsistentHashRuleChooser::new);
+    }
+
+    /**
+     * 注册按服务配置参数创建选择器的工厂，服务配置了该选择器时使用工厂创建，而不是作为 spring bean 创建.
+     *
+     * @param chooserClass 选择器类
+     * @param factory 工厂
+     */
+    public void registerFactory(Class<? extends IRuleChooser> chooserClass, RuleChooserFactory factory) {
+        factories.put(chooserClass, factory);
+    }
+
+    /**
+     * 返回服务的策略，第一次获取时解析.
+     *
+     * @param serviceId 服务 id
+     * @param defaultChooser 没有配置选择器时使用的选择器
+     * @return 总是返回服务当前策略的 Supplier，配置变化后返回新的策略
+     */
+    public Supplier<ServicePolicy> getPolicy(String serviceId, IRuleChooser defaultChooser) {
+        return policies.computeIfAbsent(serviceId, id -> {
+            PolicyRef ref = new PolicyRef(id, defaultChooser);
+            ref.refresh(properties);
+            return ref;
+        });
+    }
+
+    @Override
+    public void onApplicationEvent(EnvironmentChangeEvent event) {
+        boolean changed = event.getKeys().stream().anyMatch(key -> key.startsWith(VersionIsolationProperties.PREFIX));
+        if (!changed) {
+            return;
+        }
+        // 不依赖 ConfigurationPropertiesRebinder 与此监听器的执行顺序，直接从 Environment 重新绑定
+        VersionIsolationProperties rebound = bind();
+        this.properties = rebound;
+        policies.values().forEach(ref -> ref.refresh(rebound));
+    }
+
+    private VersionIsolationProperties bind() {
+        return Binder.get(environment).bindOrCreate(VersionIsolationProperties.PREFIX, VersionIsolationProperties.class);
+    }
+
+    /**
+     * 服务的生效配置，用于判断配置变化后是否需要替换策略
+     */
+    private record Effective(String chooser, ConsistentHashProperties consistentHash, VersionFallback fallback,
+                             LocalityProperties locality, LocalityProperties globalLocality) {
+
+        static Effective of(VersionIsolationProperties properties, ServicePolicyProperties service) {
+            ServicePolicyProperties policy = service != null ? service : new ServicePolicyProperties();
+            return new Effective(
+                policy.getChooser() != null ? policy.getChooser() : properties.getChooser(),
+                policy.getConsistentHash() != null ? policy.getConsistentHash() : properties.getConsistentHash(),
+                policy.getFallback() != null ? policy.getFallback() : properties.getFallback(),
+                policy.getLocality(),
+                properties.getLocality());
+        }
+    }
+
+    private final class PolicyRef implements Supplier<ServicePolicy> {
+        private final String serviceId;
+
+        private final IRuleChooser defaultChooser;
+
+        private volatile ServicePolicy policy;
+
+        private Effective effective;
+
+        private PolicyRef(String serviceId, IRuleChooser defaultChooser) {
+            this.serviceId = serviceId;
+            this.defaultChooser = defaultChooser;
+        }
+
+        @Override
+        public ServicePolicy get() {
+            return policy;
+        }
+
+        synchronized void refresh(VersionIsolationProperties properties) {
+            Effective updated = Effective.of(properties, properties.getServices().get(serviceId));
+            if (updated.equals(effective)) {
+                return;
+            }
+            IRuleChooser chooser = updated.chooser() != null
+                ? newChooser(updated.chooser(), updated.consistentHash()) : null;
+            LocalityRouter localityRouter = resolveLocalityRouter(updated);
+            boolean initial = effective == null;
+            this.policy = new ServicePolicy(chooser != null ? chooser : defaultChooser, updated.fallback(),
+                localityRouter);
+            this.effective = updated;
+            if (!initial) {
+                log.info("serviceId为：{}的服务负载均衡策略已更新，选择器：{}，fallback：{}", serviceId,
+                    policy.chooser().getClass().getSimpleName(), updated.fallback());
+            }
+        }
+    }
+
+    /**
+     * 服务配置了就近路由时使用服务的配置；否则全局配置没有变化时使用容器中的就近路由，变化后按照新的全局配置创建
+     */
+    private LocalityRouter resolveLocalityRouter(Effective effective) {
+        if (effective.locality() != null) {
+            return newLocalityRouter(effective.locality(), effective.globalLocality());
+        }
+        if (effective.globalLocality().equals(defaultLocality)) {
+            return defaultLocalityRouter;
+        }
+        return newLocalityRouter(effective.globalLocality(), effective.globalLocality());
+    }
+
+    private LocalityRouter newLocalityRouter(LocalityProperties locality, LocalityProperties global) {
+        String zone = locality.getZone() != null ? locality.getZone()
+            : global.getZone() != null ? global.getZone() : environment.getProperty("spring.cloud.loadbalancer.zone");
+        return new LocalityRouter(locality, zone, localAddressResolver);
+    }
+
+    /**
+     * 创建选择器：注册了 {@link RuleChooserFactory} 的选择器使用服务的一致性哈希配置创建，
+     * 其他选择器作为 spring bean 创建（构造方法注入容器中的依赖）；创建失败时返回 null，使用默认的选择器
+     */
+    private IRuleChooser newChooser(String chooserClass, ConsistentHashProperties consistentHash) {
+        try {
+            Class<?> ruleClass = ClassUtils.forName(chooserClass, ServicePolicyRegistry.class.getClassLoader());
+            if (!IRuleChooser.class.isAssignableFrom(ruleClass)) {
+                log.error("{} 不是 lb 的选择器，将使用默认的选择器", chooserClass);
+                return null;
+            }
+            RuleChooserFactory factory = factories.get(ruleClass);
+            if (factory != null) {
+                return factory.create(consistentHash);
+            }
+            return (IRuleChooser) beanFactory.createBean(ruleClass);
+        } catch (ClassNotFoundException e) {
+            log.error("没有找到指定的 lb 的选择器，将使用默认的选择器", e);
+        } catch (BeansException e) {
+            log.error("无法创建指定的 lb 的选择器，将使用默认的选择器", e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+/**
+ * 请求没有版本号，或者请求的版本号没有对应实例时使用的候选实例
+ */
+public enum VersionFallback {
+    /**
+     * 优先本地实例，没有本地实例时使用无版本号的实例
+     */
+    LOCAL_THEN_NON_VERSIONED,
+    /**
+     * 只使用无版本号的实例
+     */
+    NON_VERSIONED,
+    /**
+     * 请求的版本号没有对应实例时不 fallback，没有版本号的请求与 NON_VERSIONED 相同
+     */
+    NONE
+}
@@ -0,0 +1,24 @@
+package cn.liangjihua.springgatewayextension.lb.recorder;
+
+import lombok.Data;
+
+/**
+ * 路由决策记录配置
+ */
+@Data
+public class FlightRecorderProperties {
+    /**
+     * 是否记录最近的路由决策
+     */
+    private boolean enabled = true;
+
+    /**
+     * 保留的决策数，向上取整为 2 的幂
+     */
+    private int capacity = 1024;
+
+    /**
+     * 采样：平均每多少次决策记录一次，1 为全部记录
+     */
+    private int sampleRate = 1;
+}
@@ -0,0 +1,16 @@
+package cn.liangjihua.springgatewayextension.lb.recorder;
+
+/**
+ * 一次路由决策，由 {@link RoutingFlightRecorder#snapshot} 从记录槽中复制出来.
+ *
+ * @param timestamp 决策时间，毫秒时间戳
+ * @param service 服务 id
+ * @param version 请求的版本号，可能为 null
+ * @param outcome 路由结果，见 {@link cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome}
+ * @param instance 选中的实例 host:port，没有选中实例时为 null
+ * @param candidates 候选实例数
+ * @param durationNanos 选取实例的耗时，单位纳秒
+ */
+public record RoutingDecision(long timestamp, String service, String version, String outcome, String instance,
+                              int candidates, long durationNanos) {
+}
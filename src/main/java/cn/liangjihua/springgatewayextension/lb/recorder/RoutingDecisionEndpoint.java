@@ -0,0 +1,36 @@
+package cn.liangjihua.springgatewayextension.lb.recorder;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * 查询最近的路由决策的 actuator 端点：/actuator/lbdecisions?service=user-service&amp;version=wangxiaohu&amp;limit=50
+ */
+@Endpoint(id = "lbdecisions")
+public class RoutingDecisionEndpoint {
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final RoutingFlightRecorder recorder;
+
+    public RoutingDecisionEndpoint(RoutingFlightRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * 按服务及版本号查询最近的路由决策，从新到旧排列.
+     *
+     * @param service 服务 id，为空时不过滤
+     * @param version 请求的版本号，为空时不过滤
+     * @param limit 最多返回的决策数，默认 100
+     */
+    @ReadOperation
+    public List<RoutingDecision> decisions(@Nullable String service, @Nullable String version,
+                                           @Nullable Integer limit) {
+        return recorder.snapshot(decision -> (service == null || service.equals(decision.service()))
+                && (version == null || version.equals(decision.version())),
+            limit != null && limit > 0 ? limit : DEFAULT_LIMIT);
+    }
+}
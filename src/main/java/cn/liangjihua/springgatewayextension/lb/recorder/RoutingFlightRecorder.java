@@ -0,0 +1,153 @@
+package cn.liangjihua.springgatewayextension.lb.recorder;
+
+import cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 最近的路由决策记录，默认开启.
+ * <p></p>
+ * 固定大小的环形缓冲区，槽在创建时预先分配，记录决策时只写入槽的字段（引用已有的字符串），不创建对象也不加锁：
+ * 每个写入者通过一次 getAndIncrement 获取序号及对应的槽，槽上的版本号实现 seqlock：
+ * 写入前通过 CAS 将版本号置为奇数（另一个写入者正在写入同一个槽时放弃本次记录），写入后置为偶数；
+ * 读取者在版本号前后一致且为偶数时才使用读取到的字段，因此读取不会阻塞写入，也不会读到写了一半的决策。
+ * <p></p>
+ * 决策通过 {@link RoutingDecisionEndpoint} 按服务或版本号查询，用于排查
+ * "为什么我的 X-service-version 请求被路由到了基线实例"。
+ */
+public class RoutingFlightRecorder {
+    public static final RoutingFlightRecorder DISABLED = new RoutingFlightRecorder(false, 1, 1);
+
+    private final boolean enabled;
+
+    private final int sampleRate;
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final AtomicLong cursor = new AtomicLong();
+
+    public RoutingFlightRecorder(FlightRecorderProperties properties) {
+        this(properties.isEnabled(), properties.getCapacity(), properties.getSampleRate());
+    }
+
+    public RoutingFlightRecorder(boolean enabled, int capacity, int sampleRate) {
+        this.enabled = enabled;
+        this.sampleRate = Math.max(1, sampleRate);
+        int size = enabled ? Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 20)) * 2 - 1) : 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次路由决策，按照采样率丢弃部分决策.
+     *
+     * @param service 服务 id
+     * @param version 请求的版本号
+     * @param outcome 路由结果
+     * @param instance 选中的实例，可能为 null
+     * @param candidates 候选实例数
+     * @param durationNanos 选取实例的耗时
+     */
+    public void record(String service, String version, RoutingOutcome outcome, ServiceInstance instance,
+                       int candidates, long durationNanos) {
+        if (!enabled || sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        Slot slot = slots[(int) (cursor.getAndIncrement() & mask)];
+        long version0 = slot.version.get();
+        if ((version0 & 1) != 0 || !slot.version.compareAndSet(version0, version0 + 1)) {
+            return;
+        }
+        slot.timestamp = System.currentTimeMillis();
+        slot.service = service;
+        slot.requestedVersion = version;
+        slot.outcome = outcome;
+        slot.host = instance != null ? instance.getHost() : null;
+        slot.port = instance != null ? instance.getPort() : 0;
+        slot.candidates = candidates;
+        slot.durationNanos = durationNanos;
+        slot.version.set(version0 + 2);
+    }
+
+    /**
+     * 复制最近的决策，从新到旧排列.
+     *
+     * @param filter 过滤条件
+     * @param limit 最多返回的决策数
+     * @return 决策列表
+     */
+    public List<RoutingDecision> snapshot(Predicate<RoutingDecision> filter, int limit) {
+        List<RoutingDecision> decisions = new ArrayList<>(Math.min(limit, slots.length));
+        if (!enabled) {
+            return decisions;
+        }
+        long end = cursor.get();
+        for (long i = end - 1; i >= 0 && i >= end - slots.length && decisions.size() < limit; i--) {
+            RoutingDecision decision = read(slots[(int) (i & mask)]);
+            if (decision != null && filter.test(decision)) {
+                decisions.add(decision);
+            }
+        }
+        return decisions;
+    }
+
+    private static RoutingDecision read(Slot slot) {
+        long before = slot.version.get();
+        if (before == 0 || (before & 1) != 0) {
+            return null;
+        }
+        long timestamp = slot.timestamp;
+        String service = slot.service;
+        String requestedVersion = slot.requestedVersion;
+        RoutingOutcome outcome = slot.outcome;
+        String host = slot.host;
+        int port = slot.port;
+        int candidates = slot.candidates;
+        long durationNanos = slot.durationNanos;
+        // 保证上面的字段读取不会被重排到第二次读取版本号之后
+        VarHandle.acquireFence();
+        if (slot.version.get() != before) {
+            return null;
+        }
+        return new RoutingDecision(timestamp, service, requestedVersion, outcome != null ? outcome.getTag() : null,
+            host != null ? host + ":" + port : null, candidates, durationNanos);
+    }
+
+    /**
+     * 预先分配的记录槽，普通字段的可见性由 version 的 volatile 写/读保证
+     */
+    private static final class Slot {
+        private final AtomicLong version = new AtomicLong();
+
+        private long timestamp;
+
+        private String service;
+
+        private String requestedVersion;
+
+        private RoutingOutcome outcome;
+
+        private String host;
+
+        private int port;
+
+        private int candidates;
+
+        private long durationNanos;
+    }
+}
@@ -0,0 +1,87 @@
+package cn.liangjihua.springgatewayextension.lb.slowstart;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 新实例慢启动.
+ * <p></p>
+ * 新实例的 JVM 还没有完成 JIT 编译，各种缓存也是空的，如果立即分配与其他实例相同的流量会造成延迟尖刺。
+ * 慢启动在预热时间内把新实例的权重从一个较小的比例逐渐（线性或指数）增加到配置的权重。
+ * <p></p>
+ * 预热的开始时间记录在 {@link InstanceStats} 中：实例第一次出现在实例列表中时创建统计，实例下线之后统计被移除，
+ * 再次上线时重新开始预热；配置了注册时间的 metadata key 时使用注册时间，注册时间变化时重新开始预热。
+ * <p></p>
+ * 权重相关的选择器（例如 {@link cn.liangjihua.springgatewayextension.lb.chooser.WeightedRoundRuleChooser}）
+ * 通过 {@link #factor} 计算实例的有效权重。
+ */
+public class SlowStart {
+    public static final SlowStart DISABLED = new SlowStart(new SlowStartProperties());
+
+    private final boolean enabled;
+
+    private final long windowMillis;
+
+    private final SlowStartProperties.Ramp ramp;
+
+    private final double minFactor;
+
+    private final String registrationTimeKey;
+
+    public SlowStart(SlowStartProperties properties) {
+        this.enabled = properties.isEnabled() && properties.getWindow().toMillis() > 0;
+        this.windowMillis = properties.getWindow().toMillis();
+        this.ramp = properties.getRamp();
+        this.minFactor = Math.min(1.0, Math.max(0.01, properties.getMinWeightPercent() / 100.0));
+        this.registrationTimeKey = properties.getRegistrationTimeKey();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 返回实例当前的权重系数，预热结束或未开启慢启动时为 1.
+     *
+     * @param instance 服务实例
+     * @param stats 实例的负载统计
+     * @param nowMillis 当前时间
+     * @return (0, 1] 之间的权重系数
+     */
+    public double factor(ServiceInstance instance, InstanceStats stats, long nowMillis) {
+        if (!enabled || stats == null) {
+            return 1.0;
+        }
+        if (registrationTimeKey != null) {
+            stats.updateRegistrationTime(registrationTimeOf(instance));
+        }
+        long elapsed = Math.max(0L, nowMillis - stats.getWarmupStartMillis());
+        if (elapsed >= windowMillis) {
+            return 1.0;
+        }
+        double progress = (double) elapsed / windowMillis;
+        if (ramp == SlowStartProperties.Ramp.EXPONENTIAL) {
+            return minFactor * Math.pow(1.0 / minFactor, progress);
+        }
+        return minFactor + (1.0 - minFactor) * progress;
+    }
+
+    /**
+     * 返回实例预热结束的时间
+     */
+    public long getWarmupEndMillis(InstanceStats stats) {
+        return stats.getWarmupStartMillis() + windowMillis;
+    }
+
+    private long registrationTimeOf(ServiceInstance instance) {
+        String value = instance.getMetadata().get(registrationTimeKey);
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package cn.liangjihua.springgatewayextension.lb.slowstart;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 新实例慢启动配置
+ */
+@Data
+public class SlowStartProperties {
+    /**
+     * 是否开启慢启动
+     */
+    private boolean enabled;
+
+    /**
+     * 预热时间，新实例的权重在这段时间内逐渐增加到配置的权重
+     */
+    private Duration window = Duration.ofSeconds(60);
+
+    /**
+     * 权重增加的方式
+     */
+    private Ramp ramp = Ramp.LINEAR;
+
+    /**
+     * 预热开始时的权重占配置权重的百分比
+     */
+    private int minWeightPercent = 10;
+
+    /**
+     * 实例 metadata 中注册时间（毫秒时间戳）的 key，配置后以注册时间作为预热的开始时间，
+     * 注册时间变化（实例重新注册）时重新预热；不配置时以实例第一次出现在实例列表中的时间作为预热的开始时间
+     */
+    private String registrationTimeKey;
+
+    public enum Ramp {
+        /**
+         * 线性增加
+         */
+        LINEAR,
+        /**
+         * 指数增加，开始时增加得慢，结束时增加得快
+         */
+        EXPONENTIAL
+    }
+}
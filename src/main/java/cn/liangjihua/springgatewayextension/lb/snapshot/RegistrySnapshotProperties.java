@@ -0,0 +1,32 @@
+package cn.liangjihua.springgatewayextension.lb.snapshot;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 服务实例快照配置
+ */
+@Data
+public class RegistrySnapshotProperties {
+    /**
+     * 是否将服务实例列表保存到本地快照，并在启动时使用快照
+     */
+    private boolean enabled;
+
+    /**
+     * 快照文件路径，为空时使用 ${java.io.tmpdir}/spring-gateway-extension/registry.snapshot；
+     * 容器中应当指定到重启后仍然保留的卷上
+     */
+    private String file;
+
+    /**
+     * 写入快照的间隔，只有实例列表变化时才会写入
+     */
+    private Duration writeInterval = Duration.ofSeconds(30);
+
+    /**
+     * 快照的最长有效期，启动时超过有效期的快照会被忽略
+     */
+    private Duration maxAge = Duration.ofDays(7);
+}
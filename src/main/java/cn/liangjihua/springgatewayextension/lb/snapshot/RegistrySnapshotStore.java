@@ -0,0 +1,261 @@
+package cn.liangjihua.springgatewayextension.lb.snapshot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 服务实例列表的本地快照.
+ * <p></p>
+ * 负载均衡器从注册中心获取到实例列表后通过 {@link #record} 记录在内存中（只替换引用，不在请求路径上做 IO），
+ * 后台线程按照固定间隔在实例列表变化时将所有服务的实例列表（包括版本号等 metadata）写入快照文件，
+ * 写入临时文件后原子替换，进程在写入过程中退出也不会损坏已有的快照。
+ * 应用启动时读取快照，注册中心在启动时不可用或很慢时，负载均衡器先使用快照中的实例列表
+ * （见 {@link SnapshotSeededServiceInstanceListSupplier}），注册中心的数据到达后替换快照。
+ * <p></p>
+ * 快照格式：magic、格式版本、写入时间、服务数，之后依次为每个服务的 serviceId 及实例
+ * （instanceId、host、port、secure、metadata），最后为之前所有内容的 CRC32，校验失败的快照会被忽略。
+ */
+@Slf4j
+public class RegistrySnapshotStore implements InitializingBean, DisposableBean {
+    private static final int MAGIC = 0x4C42534E;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path file;
+
+    private final Duration writeInterval;
+
+    private final Duration maxAge;
+
+    /**
+     * 启动时从快照文件中读取的实例列表
+     */
+    private volatile Map<String, List<ServiceInstance>> seeds = Collections.emptyMap();
+
+    /**
+     * 从注册中心获取到的最新的实例列表
+     */
+    private final Map<String, List<ServiceInstance>> current = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty;
+
+    private ScheduledExecutorService scheduler;
+
+    public RegistrySnapshotStore(Path file, Duration writeInterval, Duration maxAge) {
+        this.file = file;
+        this.writeInterval = writeInterval;
+        this.maxAge = maxAge;
+    }
+
+    public RegistrySnapshotStore(RegistrySnapshotProperties properties) {
+        this(properties.getFile() != null ? Path.of(properties.getFile())
+                : Path.of(System.getProperty("java.io.tmpdir"), "spring-gateway-extension", "registry.snapshot"),
+            properties.getWriteInterval(), properties.getMaxAge());
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        seeds = read();
+        // 快照中的服务在注册中心的数据到达之前仍然需要写回快照
+        current.putAll(seeds);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lb-registry-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, writeInterval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        flush();
+    }
+
+    /**
+     * 返回启动时快照中服务的实例列表.
+     *
+     * @param serviceId 服务 id
+     * @return 实例列表，快照中没有该服务时返回 null
+     */
+    public List<ServiceInstance> getSeed(String serviceId) {
+        return seeds.get(serviceId);
+    }
+
+    /**
+     * 记录从注册中心获取到的实例列表，空列表不会覆盖已有的实例列表.
+     *
+     * @param serviceId 服务 id
+     * @param instances 实例列表
+     */
+    public void record(String serviceId, List<ServiceInstance> instances) {
+        if (instances == null || instances.isEmpty()) {
+            return;
+        }
+        List<ServiceInstance> previous = current.put(serviceId, instances);
+        if (previous != instances) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 实例列表有变化时写入快照文件
+     */
+    public synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            write(new HashMap<>(current));
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            log.warn("写入服务实例快照 {} 失败", file, e);
+        }
+    }
+
+    private void write(Map<String, List<ServiceInstance>> snapshot) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writeTo(out, snapshot, System.currentTimeMillis());
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.debug("写入服务实例快照 {}，共 {} 个服务", file, snapshot.size());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Map<String, List<ServiceInstance>> read() {
+        try (InputStream in = Files.newInputStream(file)) {
+            Map<String, List<ServiceInstance>> snapshot = readFrom(in, System.currentTimeMillis() - maxAge.toMillis());
+            log.info("读取服务实例快照 {}，共 {} 个服务", file, snapshot.size());
+            return snapshot;
+        } catch (NoSuchFileException e) {
+            return Collections.emptyMap();
+        } catch (IOException | RuntimeException e) {
+            log.warn("读取服务实例快照 {} 失败，忽略快照", file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    static void writeTo(OutputStream out, Map<String, List<ServiceInstance>> snapshot, long timestamp)
+        throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(timestamp);
+        data.writeInt(snapshot.size());
+        for (Map.Entry<String, List<ServiceInstance>> entry : snapshot.entrySet()) {
+            data.writeUTF(entry.getKey());
+            data.writeInt(entry.getValue().size());
+            for (ServiceInstance instance : entry.getValue()) {
+                data.writeUTF(instance.getInstanceId() != null ? instance.getInstanceId() : "");
+                data.writeUTF(instance.getHost());
+                data.writeInt(instance.getPort());
+                data.writeBoolean(instance.isSecure());
+                Map<String, String> metadata = instance.getMetadata();
+                data.writeInt(metadata.size());
+                for (Map.Entry<String, String> meta : metadata.entrySet()) {
+                    data.writeUTF(meta.getKey());
+                    data.writeUTF(meta.getValue() != null ? meta.getValue() : "");
+                }
+            }
+        }
+        data.flush();
+        data.writeLong(checked.getChecksum().getValue());
+        data.flush();
+    }
+
+    /**
+     * 读取快照.
+     *
+     * @param notBefore 快照的写入时间早于此时间时忽略快照
+     * @return 服务 id -> 实例列表
+     * @throws IOException 快照格式错误或校验失败
+     */
+    static Map<String, List<ServiceInstance>> readFrom(InputStream in, long notBefore) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("不是服务实例快照文件");
+        }
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("不支持的快照格式版本：" + version);
+        }
+        long timestamp = data.readLong();
+        int serviceCount = data.readInt();
+        Map<String, List<ServiceInstance>> snapshot = new HashMap<>(serviceCount * 2);
+        for (int i = 0; i < serviceCount; i++) {
+            String serviceId = data.readUTF();
+            int instanceCount = data.readInt();
+            List<ServiceInstance> instances = new ArrayList<>(instanceCount);
+            for (int j = 0; j < instanceCount; j++) {
+                String instanceId = data.readUTF();
+                String host = data.readUTF();
+                int port = data.readInt();
+                boolean secure = data.readBoolean();
+                int metadataSize = data.readInt();
+                Map<String, String> metadata = new HashMap<>(metadataSize * 2);
+                for (int k = 0; k < metadataSize; k++) {
+                    metadata.put(data.readUTF(), data.readUTF());
+                }
+                instances.add(new DefaultServiceInstance(instanceId.isEmpty() ? null : instanceId, serviceId, host,
+                    port, secure, metadata));
+            }
+            snapshot.put(serviceId, Collections.unmodifiableList(instances));
+        }
+        long expected = checked.getChecksum().getValue();
+        if (data.readLong() != expected) {
+            throw new IOException("快照校验失败");
+        }
+        if (timestamp < notBefore) {
+            log.info("服务实例快照写入于 {}，已经超过有效期", timestamp);
+            return Collections.emptyMap();
+        }
+        return snapshot;
+    }
+}
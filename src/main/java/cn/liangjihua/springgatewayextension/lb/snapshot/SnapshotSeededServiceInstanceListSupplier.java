@@ -0,0 +1,77 @@
+package cn.liangjihua.springgatewayextension.lb.snapshot;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 使用本地快照作为初始实例列表的 {@link ServiceInstanceListSupplier}.
+ * <p></p>
+ * 在第一次从注册中心获取到非空的实例列表之前，如果快照中有该服务的实例列表，则立即返回快照中的实例列表，
+ * 同时在后台从注册中心加载（同一时刻最多一次）；之后直接使用 delegate，并将获取到的实例列表记录到快照中。
+ * 快照中没有该服务时与 delegate 完全一致。
+ *
+ * @see RegistrySnapshotStore
+ */
+@Slf4j
+public class SnapshotSeededServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+    private final RegistrySnapshotStore store;
+
+    /**
+     * 是否已经从注册中心获取到了非空的实例列表
+     */
+    private volatile boolean live;
+
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    public SnapshotSeededServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                     RegistrySnapshotStore store) {
+        super(delegate);
+        this.store = store;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return Flux.defer(() -> seedOr(getDelegate().get()));
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get(Request request) {
+        return Flux.defer(() -> seedOr(getDelegate().get(request)));
+    }
+
+    private Flux<List<ServiceInstance>> seedOr(Flux<List<ServiceInstance>> instances) {
+        Flux<List<ServiceInstance>> recorded = instances.doOnNext(this::onLoaded);
+        if (live) {
+            return recorded;
+        }
+        List<ServiceInstance> seed = store.getSeed(getServiceId());
+        if (seed == null) {
+            return recorded;
+        }
+        if (loading.compareAndSet(false, true)) {
+            recorded.next()
+                .doFinally(signal -> loading.set(false))
+                .subscribe(loaded -> {
+                }, e -> log.warn("从注册中心加载serviceId为：{}的服务实例失败，继续使用快照", getServiceId(), e));
+        }
+        return Flux.just(seed);
+    }
+
+    private void onLoaded(List<ServiceInstance> instances) {
+        if (instances.isEmpty()) {
+            return;
+        }
+        if (!live) {
+            live = true;
+            log.info("serviceId为：{}的服务已从注册中心获取到实例列表，不再使用快照", getServiceId());
+        }
+        store.record(getServiceId(), instances);
+    }
+}
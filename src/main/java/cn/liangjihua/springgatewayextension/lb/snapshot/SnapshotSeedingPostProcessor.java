@@ -0,0 +1,29 @@
+package cn.liangjihua.springgatewayextension.lb.snapshot;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+/**
+ * 在负载均衡器子容器中使用 {@link SnapshotSeededServiceInstanceListSupplier} 包装服务实例 supplier，
+ * 无论 supplier 是默认的带缓存的 supplier、合并加载的 supplier 还是 nacos 镜像.
+ */
+public class SnapshotSeedingPostProcessor implements BeanPostProcessor {
+    private final ObjectProvider<RegistrySnapshotStore> store;
+
+    public SnapshotSeedingPostProcessor(ObjectProvider<RegistrySnapshotStore> store) {
+        this.store = store;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof ServiceInstanceListSupplier supplier
+            && !(bean instanceof SnapshotSeededServiceInstanceListSupplier)) {
+            RegistrySnapshotStore snapshotStore = store.getIfAvailable();
+            if (snapshotStore != null) {
+                return new SnapshotSeededServiceInstanceListSupplier(supplier, snapshotStore);
+            }
+        }
+        return bean;
+    }
+}
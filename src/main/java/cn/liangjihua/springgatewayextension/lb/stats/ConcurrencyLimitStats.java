@@ -0,0 +1,51 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+/**
+ * 单个服务实例的自适应并发上限.
+ * <p></p>
+ * 上限的计算方法由 {@link cn.liangjihua.springgatewayextension.lb.concurrency.AdaptiveConcurrencyLimiter} 决定，
+ * 更新时需要同步在此对象上（在请求结束时，不在选取实例的路径上）；选取实例时只读取 {@link #getLimit()}，无锁。
+ */
+public class ConcurrencyLimitStats {
+    /**
+     * 取整后的并发上限，0 表示还没有初始化
+     */
+    private volatile int limit;
+
+    private double estimatedLimit;
+
+    /**
+     * 长期的响应时间均值，用于判断实例是否出现了排队
+     */
+    private double longRttNanos;
+
+    ConcurrencyLimitStats() {
+    }
+
+    /**
+     * 当前的并发上限，0 表示还没有初始化
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public double getEstimatedLimit() {
+        return estimatedLimit;
+    }
+
+    public double getLongRttNanos() {
+        return longRttNanos;
+    }
+
+    /**
+     * 更新并发上限，调用方需要同步在此对象上.
+     *
+     * @param estimatedLimit 新的并发上限
+     * @param longRttNanos 新的长期响应时间均值
+     */
+    public void update(double estimatedLimit, double longRttNanos) {
+        this.estimatedLimit = estimatedLimit;
+        this.longRttNanos = longRttNanos;
+        this.limit = Math.max(1, (int) estimatedLimit);
+    }
+}
@@ -0,0 +1,157 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个服务实例的失败统计及摘除状态.
+ * <p></p>
+ * 包括连续失败次数，以及一个按时间分桶的滑动窗口，用于计算最近一段时间内的失败率。
+ * 摘除的策略由 {@link cn.liangjihua.springgatewayextension.lb.outlier.OutlierDetector} 决定。
+ */
+public class FailureStats {
+    private static final int BUCKETS = 10;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final long bucketNanos;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    private volatile boolean ejected;
+
+    private volatile long ejectedUntil;
+
+    private int ejections;
+
+    private long lastRestoredAt;
+
+    FailureStats(long windowNanos) {
+        this.bucketNanos = Math.max(1, windowNanos / BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * 记录一次失败的请求.
+     *
+     * @return 连续失败的次数
+     */
+    public int recordFailure(long now) {
+        bucket(now).record(true);
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * 记录一次成功的请求.
+     */
+    public void recordSuccess(long now) {
+        bucket(now).record(false);
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * 滑动窗口内的失败率，请求数小于 minimumRequests 时返回 0.
+     */
+    public double failureRate(long now, int minimumRequests) {
+        long current = now / bucketNanos;
+        long requests = 0;
+        long failures = 0;
+        for (Bucket bucket : buckets) {
+            long slot = bucket.slot.get();
+            if (slot > current - BUCKETS && slot <= current) {
+                requests += bucket.requests.get();
+                failures += bucket.failures.get();
+            }
+        }
+        return requests < minimumRequests || requests == 0 ? 0 : (double) failures / requests;
+    }
+
+    public boolean isEjected(long now) {
+        return ejected && now - ejectedUntil < 0;
+    }
+
+    /**
+     * 是否处于摘除状态并且摘除时间已经到期.
+     */
+    public boolean isEjectionExpired(long now) {
+        return ejected && now - ejectedUntil >= 0;
+    }
+
+    public long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    /**
+     * 摘除实例，摘除时间随摘除次数指数增长.
+     * <p></p>
+     * 实例恢复之后超过 maxEjectionNanos 没有再被摘除时，摘除次数清零。
+     *
+     * @return 是否摘除成功，实例已经处于摘除状态时返回 false
+     */
+    public synchronized boolean eject(long now, long baseEjectionNanos, long maxEjectionNanos) {
+        if (ejected) {
+            return false;
+        }
+        if (ejections > 0 && now - lastRestoredAt > maxEjectionNanos) {
+            ejections = 0;
+        }
+        long duration = baseEjectionNanos << Math.min(ejections, 20);
+        if (duration <= 0 || duration > maxEjectionNanos) {
+            duration = maxEjectionNanos;
+        }
+        ejections++;
+        ejectedUntil = now + duration;
+        ejected = true;
+        consecutiveFailures.set(0);
+        for (Bucket bucket : buckets) {
+            bucket.reset();
+        }
+        return true;
+    }
+
+    /**
+     * 恢复摘除时间已经到期的实例.
+     *
+     * @return 是否恢复成功
+     */
+    public synchronized boolean restore(long now) {
+        if (!isEjectionExpired(now)) {
+            return false;
+        }
+        ejected = false;
+        lastRestoredAt = now;
+        return true;
+    }
+
+    private Bucket bucket(long now) {
+        long slot = now / bucketNanos;
+        Bucket bucket = buckets[(int) Math.floorMod(slot, (long) BUCKETS)];
+        long current = bucket.slot.get();
+        if (current != slot && bucket.slot.compareAndSet(current, slot)) {
+            bucket.reset();
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+        private final AtomicLong slot = new AtomicLong(Long.MIN_VALUE);
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private final AtomicInteger failures = new AtomicInteger();
+
+        void record(boolean failed) {
+            requests.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+        }
+
+        void reset() {
+            requests.set(0);
+            failures.set(0);
+        }
+    }
+}
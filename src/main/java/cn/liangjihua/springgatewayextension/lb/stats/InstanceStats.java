@@ -0,0 +1,165 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个服务实例的负载统计.
+ * <p></p>
+ * 由 {@link InstanceStatsRegistry} 创建，同一个服务实例在其存活期间总是对应同一个对象，
+ * 负载均衡的生命周期回调更新统计，{@link cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser} 读取统计。
+ * 读取统计都是无锁的，只有更新延迟的 EWMA 时需要同步（在请求结束时，不在选取实例的路径上）。
+ */
+public class InstanceStats {
+    /**
+     * 有请求正在处理中，但还没有延迟数据的实例的代价，与 finagle 一致
+     */
+    private static final double PENALTY = Long.MAX_VALUE >> 16;
+
+    private final String key;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    /**
+     * EWMA 的衰减时间常数
+     */
+    private final double decayNanos;
+
+    /**
+     * 对峰值敏感的延迟 EWMA，0 表示还没有延迟数据
+     */
+    private volatile double latencyEwma;
+
+    private volatile long latencyStamp;
+
+    private final FailureStats failureStats;
+
+    private final ConcurrencyLimitStats concurrencyLimitStats = new ConcurrencyLimitStats();
+
+    /**
+     * 慢启动预热的开始时间，默认为统计创建（实例第一次出现在实例列表中）的时间
+     */
+    private volatile long warmupStartMillis = System.currentTimeMillis();
+
+    /**
+     * 实例 metadata 中的注册时间，0 表示未知
+     */
+    private volatile long registrationMillis;
+
+    InstanceStats(String key, double decayNanos, long failureWindowNanos) {
+        this.key = key;
+        this.decayNanos = decayNanos;
+        this.failureStats = new FailureStats(failureWindowNanos);
+    }
+
+    /**
+     * 实例的标识：serviceId/host:port
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 正在处理中的请求数
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public void incrementInflight() {
+        inflight.incrementAndGet();
+    }
+
+    public void decrementInflight() {
+        int current;
+        do {
+            current = inflight.get();
+            if (current <= 0) {
+                return;
+            }
+        } while (!inflight.compareAndSet(current, current - 1));
+    }
+
+    /**
+     * 记录一次请求的响应时间.
+     * <p></p>
+     * 对峰值敏感：响应时间大于当前值时直接使用响应时间，否则按照距离上一次记录的时间进行指数衰减，
+     * 使得实例变慢时能够立即被感知，恢复之后则逐渐回落。
+     *
+     * @param latencyNanos 响应时间，单位纳秒
+     */
+    public synchronized void observeLatency(long latencyNanos) {
+        long now = System.nanoTime();
+        double ewma = latencyEwma;
+        if (latencyNanos > ewma) {
+            latencyEwma = latencyNanos;
+        } else {
+            double weight = Math.exp(-(now - latencyStamp) / decayNanos);
+            latencyEwma = ewma * weight + latencyNanos * (1 - weight);
+        }
+        latencyStamp = now;
+    }
+
+    /**
+     * 延迟 EWMA 衰减到当前时刻的值，单位纳秒，0 表示还没有延迟数据.
+     */
+    public double getLatencyEwma() {
+        double ewma = latencyEwma;
+        if (ewma == 0) {
+            return 0;
+        }
+        return ewma * Math.exp(-(System.nanoTime() - latencyStamp) / decayNanos);
+    }
+
+    /**
+     * peak EWMA 代价：延迟 EWMA * (正在处理中的请求数 + 1).
+     * <p></p>
+     * 没有延迟数据的实例（新上线的实例）在没有请求正在处理时代价为 0，
+     * 即乐观地认为其响应最快；有请求正在处理但仍未得到延迟数据时使用一个很大的惩罚值。
+     */
+    public double getPeakEwmaCost() {
+        int pending = inflight.get();
+        double ewma = getLatencyEwma();
+        if (ewma == 0) {
+            return pending == 0 ? 0 : PENALTY + pending;
+        }
+        return ewma * (pending + 1);
+    }
+
+    /**
+     * 慢启动预热的开始时间
+     */
+    public long getWarmupStartMillis() {
+        return warmupStartMillis;
+    }
+
+    /**
+     * 更新实例的注册时间，注册时间变化（实例重新注册）时以注册时间作为预热的开始时间.
+     *
+     * @param registrationMillis 注册时间，小于等于 0 时忽略
+     */
+    public void updateRegistrationTime(long registrationMillis) {
+        if (registrationMillis > 0 && registrationMillis != this.registrationMillis) {
+            this.registrationMillis = registrationMillis;
+            this.warmupStartMillis = Math.min(registrationMillis, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 失败统计及摘除状态
+     */
+    public FailureStats getFailureStats() {
+        return failureStats;
+    }
+
+    /**
+     * 自适应并发上限
+     */
+    public ConcurrencyLimitStats getConcurrencyLimitStats() {
+        return concurrencyLimitStats;
+    }
+
+    @Override
+    public String toString() {
+        return key + "{inflight=" + inflight.get() + ", latencyEwma=" + latencyEwma + "}";
+    }
+}
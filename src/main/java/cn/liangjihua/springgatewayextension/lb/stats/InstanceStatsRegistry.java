@@ -0,0 +1,85 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务实例负载统计的注册表，所有服务的负载均衡器共享.
+ * <p></p>
+ * 注册表只保存当前存活的实例：路由索引在服务实例列表变化后重建时，
+ * 会通过 {@link #retain} 移除已经下线的实例的统计，因此注册表的大小与存活的实例数量一致。
+ * 已经被移除的统计对象仍然可以被正在处理中的请求安全地更新。
+ */
+public class InstanceStatsRegistry {
+    public static final Duration DEFAULT_LATENCY_DECAY_TIME = Duration.ofSeconds(10);
+
+    public static final Duration DEFAULT_FAILURE_WINDOW = Duration.ofSeconds(10);
+
+    private final Map<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    private final double latencyDecayNanos;
+
+    private final long failureWindowNanos;
+
+    public InstanceStatsRegistry() {
+        this(DEFAULT_LATENCY_DECAY_TIME, DEFAULT_FAILURE_WINDOW);
+    }
+
+    /**
+     * @param latencyDecayTime 延迟 EWMA 的衰减时间常数，越小对延迟变化越敏感
+     * @param failureWindow 计算失败率的滑动窗口大小
+     */
+    public InstanceStatsRegistry(Duration latencyDecayTime, Duration failureWindow) {
+        this.latencyDecayNanos = Math.max(1, latencyDecayTime.toNanos());
+        this.failureWindowNanos = Math.max(1, failureWindow.toNanos());
+    }
+
+    /**
+     * 获取实例的统计，不存在时创建.
+     */
+    public InstanceStats getOrCreate(ServiceInstance instance) {
+        return stats.computeIfAbsent(keyOf(instance), key -> new InstanceStats(key, latencyDecayNanos,
+            failureWindowNanos));
+    }
+
+    /**
+     * 获取实例的统计，不存在时返回 null.
+     */
+    public InstanceStats get(ServiceInstance instance) {
+        return stats.get(keyOf(instance));
+    }
+
+    /**
+     * 移除在 previous 中但不在 current 中的统计，即已经下线的实例的统计.
+     *
+     * @param previous 变化前的实例统计
+     * @param current 变化后的实例统计
+     */
+    public void retain(Collection<InstanceStats> previous, Collection<InstanceStats> current) {
+        if (previous.isEmpty()) {
+            return;
+        }
+        Set<InstanceStats> live = Collections.newSetFromMap(new IdentityHashMap<>());
+        live.addAll(current);
+        for (InstanceStats stat : previous) {
+            if (!live.contains(stat)) {
+                stats.remove(stat.getKey(), stat);
+            }
+        }
+    }
+
+    public int size() {
+        return stats.size();
+    }
+
+    static String keyOf(ServiceInstance instance) {
+        return instance.getServiceId() + "/" + instance.getHost() + ":" + instance.getPort();
+    }
+}
@@ -0,0 +1,34 @@
+package cn.liangjihua.springgatewayextension.lb.supplier;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 从 {@link NacosInstanceMirror} 获取服务实例的 {@link ServiceInstanceListSupplier}.
+ * <p></p>
+ * 实例列表由 nacos 推送更新，不经过 spring cloud loadbalancer 的缓存，
+ * 负载均衡时不会因为缓存过期或被驱逐而同步访问注册中心。
+ */
+public class MirroredServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+    private final String serviceId;
+
+    private final NacosInstanceMirror mirror;
+
+    public MirroredServiceInstanceListSupplier(String serviceId, NacosInstanceMirror mirror) {
+        this.serviceId = serviceId;
+        this.mirror = mirror;
+    }
+
+    @Override
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return mirror.watch(serviceId);
+    }
+}
@@ -0,0 +1,226 @@
+package cn.liangjihua.springgatewayextension.lb.supplier;
+
+import com.alibaba.cloud.nacos.discovery.NacosServiceDiscovery;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.alibaba.nacos.client.naming.event.InstancesChangeEvent;
+import com.alibaba.nacos.common.notify.Event;
+import com.alibaba.nacos.common.notify.NotifyCenter;
+import com.alibaba.nacos.common.notify.listener.Subscriber;
+import com.alibaba.nacos.common.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.client.ServiceInstance;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * nacos 服务实例的本地镜像.
+ * <p></p>
+ * 每个服务在第一次被订阅时从注册中心加载一次实例列表（加载同时会在 nacos 客户端中订阅该服务），
+ * 之后直接使用 nacos 推送的 {@link InstancesChangeEvent} 更新镜像，负载均衡时不再需要访问注册中心。
+ * 每个服务对应一个热的 {@link Flux}，新的订阅者会立即收到当前的实例列表，
+ * 之后只有在实例成员（地址、端口、metadata）发生变化时才会发出新的列表，
+ * 因此列表对象在成员不变时保持不变，负载均衡器的路由索引也不会被重复构建。
+ * <p></p>
+ * 初始加载失败时，同一个服务在 {@code retryInterval} 内的订阅不会重新加载，避免注册中心不可用时每个请求都访问注册中心。
+ *
+ * @see MirroredServiceInstanceListSupplier
+ */
+@Slf4j
+public class NacosInstanceMirror extends Subscriber<InstancesChangeEvent> implements InitializingBean, DisposableBean {
+    public static final Duration DEFAULT_RETRY_INTERVAL = Duration.ofSeconds(5);
+
+    /**
+     * 服务 id -> 初始实例列表，在订阅该服务时调用一次，加载失败时超过重试间隔之后的订阅会重新加载
+     */
+    private final Function<String, List<ServiceInstance>> loader;
+
+    /**
+     * 镜像的服务分组，其他分组的事件会被忽略；为空时不按分组过滤
+     */
+    private final String group;
+
+    /**
+     * 初始加载失败之后，再次加载的最小间隔
+     */
+    private final long retryIntervalNanos;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public NacosInstanceMirror(Function<String, List<ServiceInstance>> loader, String group) {
+        this(loader, group, DEFAULT_RETRY_INTERVAL);
+    }
+
+    /**
+     * @param loader 服务 id -> 初始实例列表
+     * @param group 镜像的服务分组，为空时不按分组过滤
+     * @param retryInterval 初始加载失败之后，再次加载的最小间隔
+     */
+    public NacosInstanceMirror(Function<String, List<ServiceInstance>> loader, String group, Duration retryInterval) {
+        this.loader = loader;
+        this.group = group;
+        this.retryIntervalNanos = Math.max(0, retryInterval.toNanos());
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        NotifyCenter.registerSubscriber(this);
+    }
+
+    @Override
+    public void destroy() {
+        NotifyCenter.deregisterSubscriber(this);
+    }
+
+    /**
+     * 返回服务实例列表的热 {@link Flux}，订阅时立即发出当前的实例列表（尚未加载时在加载完成后发出）.
+     *
+     * @param serviceId 服务 id
+     * @return 只在实例成员变化时发出新列表的 Flux，列表不可变
+     */
+    public Flux<List<ServiceInstance>> watch(String serviceId) {
+        Entry entry = entries.computeIfAbsent(serviceId, Entry::new);
+        if (!entry.loadRequested.get() && System.nanoTime() - entry.retryAt >= 0
+            && entry.loadRequested.compareAndSet(false, true)) {
+            load(entry);
+        }
+        return entry.sink.asFlux();
+    }
+
+    /**
+     * 返回服务当前的实例列表，服务未被镜像或尚未加载完成时返回 null
+     */
+    public List<ServiceInstance> getInstances(String serviceId) {
+        Entry entry = entries.get(serviceId);
+        return entry != null ? entry.current : null;
+    }
+
+    @Override
+    public void onEvent(InstancesChangeEvent event) {
+        if (StringUtils.isNotBlank(group) && StringUtils.isNotBlank(event.getGroupName())
+            && !group.equals(event.getGroupName())) {
+            return;
+        }
+        String serviceId = stripServiceName(event.getServiceName());
+        Entry entry = entries.get(serviceId);
+        if (entry == null) {
+            // 只镜像负载均衡器订阅过的服务
+            return;
+        }
+        List<ServiceInstance> instances = new ArrayList<>();
+        if (event.getHosts() != null) {
+            for (Instance host : event.getHosts()) {
+                ServiceInstance instance = NacosServiceDiscovery.hostToServiceInstance(host, serviceId);
+                if (instance != null) {
+                    instances.add(instance);
+                }
+            }
+        }
+        entry.pushed = true;
+        entry.publish(instances);
+    }
+
+    @Override
+    public Class<? extends Event> subscribeType() {
+        return InstancesChangeEvent.class;
+    }
+
+    private void load(Entry entry) {
+        Mono.fromCallable(() -> loader.apply(entry.serviceId))
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(instances -> {
+                // 加载期间已经收到了推送，推送的数据更新
+                if (!entry.pushed) {
+                    entry.publish(instances);
+                }
+            }, e -> {
+                log.warn("加载服务 {} 的实例列表失败，将在 {} ms 后的订阅时重试", entry.serviceId,
+                    TimeUnit.NANOSECONDS.toMillis(retryIntervalNanos), e);
+                entry.retryAt = System.nanoTime() + retryIntervalNanos;
+                entry.loadRequested.set(false);
+                if (entry.current == null) {
+                    // 不让等待中的请求一直挂起
+                    entry.publish(Collections.emptyList());
+                }
+            });
+    }
+
+    private static String stripServiceName(String serviceName) {
+        if (StringUtils.isNotBlank(serviceName)) {
+            return serviceName.substring(serviceName.lastIndexOf("@") + 1);
+        }
+        return serviceName;
+    }
+
+    /**
+     * 判断两个实例列表的成员是否相同：地址、端口及 metadata 都相同，与顺序无关
+     */
+    static boolean isSameMembership(List<ServiceInstance> previous, List<ServiceInstance> current) {
+        if (previous == null || previous.size() != current.size()) {
+            return false;
+        }
+        Map<String, ServiceInstance> byAddress = new HashMap<>(previous.size() * 2);
+        for (ServiceInstance instance : previous) {
+            byAddress.put(instance.getHost() + ":" + instance.getPort(), instance);
+        }
+        for (ServiceInstance instance : current) {
+            ServiceInstance old = byAddress.get(instance.getHost() + ":" + instance.getPort());
+            if (old == null || !Objects.equals(old.getMetadata(), instance.getMetadata())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final String serviceId;
+
+        private final Sinks.Many<List<ServiceInstance>> sink = Sinks.many().replay().latest();
+
+        private final AtomicBoolean loadRequested = new AtomicBoolean();
+
+        /**
+         * 是否已经收到过 nacos 推送，推送的数据总是比加载的数据新
+         */
+        private volatile boolean pushed;
+
+        private volatile List<ServiceInstance> current;
+
+        /**
+         * 最早可以（重新）加载的时间，加载失败后推迟一个重试间隔
+         */
+        private volatile long retryAt = System.nanoTime();
+
+        private Entry(String serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        /**
+         * 推送线程与加载线程可能同时发布，sink 不允许并发发出元素
+         */
+        private synchronized void publish(List<ServiceInstance> instances) {
+            if (isSameMembership(current, instances)) {
+                return;
+            }
+            List<ServiceInstance> snapshot = Collections.unmodifiableList(new ArrayList<>(instances));
+            current = snapshot;
+            sink.tryEmitNext(snapshot);
+            log.debug("服务 {} 的实例镜像已更新，实例数：{}", serviceId, snapshot.size());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package cn.liangjihua.springgatewayextension.lb.supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheManager;
+import org.springframework.cloud.loadbalancer.core.DelegatingServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier.SERVICE_INSTANCE_CACHE_NAME;
+
+/**
+ * 合并并发加载的 {@link ServiceInstanceListSupplier}，代替 spring cloud loadbalancer 默认的带缓存的 supplier.
+ * <p></p>
+ * 默认的 CachingServiceInstanceListSupplier 在缓存过期或被驱逐（见
+ * {@link cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh}）之后，同时到达的每一个请求都会访问一次注册中心。
+ * 此 supplier 使用同一个缓存，但是每个服务同一时刻最多只有一个正在进行的加载：
+ * <ul>
+ *     <li>缓存命中时直接返回</li>
+ *     <li>缓存未命中，但上一次加载的实例列表没有超过 maxStale 时，立即返回上一次的实例列表，并在后台重新加载（stale-while-revalidate）</li>
+ *     <li>否则等待正在进行的加载，没有正在进行的加载时发起一次加载，之后的请求共享这一次加载的结果</li>
+ * </ul>
+ * 加载与请求内容无关，因此合并加载只适用于不根据请求过滤实例的 delegate，例如注册中心查询。
+ */
+@Slf4j
+public class SingleFlightServiceInstanceListSupplier extends DelegatingServiceInstanceListSupplier {
+    private final LoadBalancerCacheManager cacheManager;
+
+    private final long maxStaleNanos;
+
+    /**
+     * 正在进行的加载，没有时为 null
+     */
+    private final AtomicReference<Mono<List<ServiceInstance>>> pending = new AtomicReference<>();
+
+    private volatile Snapshot lastKnown;
+
+    private final LongAdder cacheHits = new LongAdder();
+
+    private final LongAdder fetches = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder staleServed = new LongAdder();
+
+    /**
+     * @param delegate 访问注册中心的 supplier
+     * @param cacheManager loadbalancer 缓存，为 null 时只合并并发的加载
+     * @param maxStale 缓存未命中时，上一次加载的实例列表最多可以使用多久
+     */
+    public SingleFlightServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                   LoadBalancerCacheManager cacheManager,
+                                                   Duration maxStale) {
+        super(delegate);
+        this.cacheManager = cacheManager;
+        this.maxStaleNanos = maxStale.toNanos();
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return Flux.defer(() -> load(getDelegate()::get).flux());
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get(Request request) {
+        return Flux.defer(() -> load(() -> getDelegate().get(request)).flux());
+    }
+
+    private Mono<List<ServiceInstance>> load(Supplier<Flux<List<ServiceInstance>>> fetch) {
+        List<ServiceInstance> cached = getCached();
+        if (cached != null) {
+            cacheHits.increment();
+            return Mono.just(cached);
+        }
+        Snapshot snapshot = lastKnown;
+        if (snapshot != null && System.nanoTime() - snapshot.loadedAt < maxStaleNanos) {
+            staleServed.increment();
+            if (pending.get() == null) {
+                join(fetch).subscribe(instances -> {
+                }, e -> log.warn("后台重新加载serviceId为：{}的服务实例失败", getServiceId(), e));
+            }
+            return Mono.just(snapshot.instances);
+        }
+        return join(fetch);
+    }
+
+    /**
+     * 加入正在进行的加载，没有正在进行的加载时发起一次加载
+     */
+    private Mono<List<ServiceInstance>> join(Supplier<Flux<List<ServiceInstance>>> fetch) {
+        while (true) {
+            Mono<List<ServiceInstance>> current = pending.get();
+            if (current != null) {
+                coalesced.increment();
+                return current;
+            }
+            Sinks.One<List<ServiceInstance>> sink = Sinks.one();
+            Mono<List<ServiceInstance>> shared = sink.asMono();
+            if (!pending.compareAndSet(null, shared)) {
+                continue;
+            }
+            fetches.increment();
+            // 加载不随请求取消，结果写入缓存之后再通知等待的请求，之后到达的请求可以直接命中缓存
+            fetch.get().next().subscribe(instances -> {
+                store(instances);
+                pending.compareAndSet(shared, null);
+                sink.tryEmitValue(instances);
+            }, e -> {
+                pending.compareAndSet(shared, null);
+                sink.tryEmitError(e);
+            }, () -> {
+                pending.compareAndSet(shared, null);
+                sink.tryEmitEmpty();
+            });
+            return shared;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ServiceInstance> getCached() {
+        Cache cache = getCache();
+        if (cache == null) {
+            return null;
+        }
+        List<ServiceInstance> instances = cache.get(getServiceId(), List.class);
+        // 与 CachingServiceInstanceListSupplier 一致，空列表视为未命中
+        return instances == null || instances.isEmpty() ? null : instances;
+    }
+
+    private void store(List<ServiceInstance> instances) {
+        Cache cache = getCache();
+        if (cache != null) {
+            cache.put(getServiceId(), instances);
+        }
+        lastKnown = new Snapshot(instances, System.nanoTime());
+    }
+
+    private Cache getCache() {
+        return cacheManager != null ? cacheManager.getCache(SERVICE_INSTANCE_CACHE_NAME) : null;
+    }
+
+    /**
+     * 命中缓存的次数
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * 访问注册中心的次数
+     */
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    /**
+     * 加入了正在进行的加载，没有单独访问注册中心的次数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 缓存未命中时返回了上一次加载的实例列表的次数
+     */
+    public long getStaleServed() {
+        return staleServed.sum();
+    }
+
+    private record Snapshot(List<ServiceInstance> instances, long loadedAt) {
+    }
+}
@@ -0,0 +1,21 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * 从 cookie 中解析版本号
+ */
+public class CookieVersionResolver implements VersionResolver {
+    private final String name;
+
+    public CookieVersionResolver(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String resolve(RequestData requestData) {
+        MultiValueMap<String, String> cookies = requestData.getCookies();
+        return cookies != null ? cookies.getFirst(name) : null;
+    }
+}
@@ -0,0 +1,21 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * 从请求头中解析版本号
+ */
+public class HeaderVersionResolver implements VersionResolver {
+    private final String name;
+
+    public HeaderVersionResolver(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String resolve(RequestData requestData) {
+        HttpHeaders headers = requestData.getHeaders();
+        return headers != null ? headers.getFirst(name) : null;
+    }
+}
@@ -0,0 +1,67 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import org.springframework.cloud.client.loadbalancer.RequestData;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 从 query 参数中解析版本号.
+ * <p></p>
+ * 直接在原始的 query 字符串中查找指定的参数，不会将整个 query 解码为 map，
+ * 只有在参数值中包含转义字符时才会进行解码。
+ */
+public class QueryVersionResolver implements VersionResolver {
+    private final String name;
+
+    public QueryVersionResolver(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String resolve(RequestData requestData) {
+        URI url = requestData.getUrl();
+        return url != null ? findParameter(url.getRawQuery(), name) : null;
+    }
+
+    /**
+     * 在原始的 query 字符串中查找第一个名称为 name 的参数的值.
+     *
+     * @param rawQuery 未解码的 query 字符串
+     * @param name 参数名
+     * @return 解码后的参数值，不存在时返回 null
+     */
+    static String findParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        int length = rawQuery.length();
+        int nameLength = name.length();
+        int start = 0;
+        while (start < length) {
+            int end = rawQuery.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end - start > nameLength
+                && rawQuery.charAt(start + nameLength) == '='
+                && rawQuery.regionMatches(start, name, 0, nameLength)) {
+                return decode(rawQuery.substring(start + nameLength + 1, end));
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
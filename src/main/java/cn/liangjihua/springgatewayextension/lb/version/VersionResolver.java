@@ -0,0 +1,23 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import org.springframework.cloud.client.loadbalancer.RequestData;
+
+/**
+ * 从请求中解析版本号的 SPI.
+ * <p></p>
+ * 多个解析器按照配置的顺序组成 {@link VersionResolverChain}，第一个解析出非空版本号的解析器生效。
+ * 注册到 spring 容器中的 {@link VersionResolver} bean 会作为自定义解析器
+ * 加入到解析链中 {@link VersionResolverType#CUSTOM} 所在的位置。
+ * <p></p>
+ * 解析器在每一次请求的负载均衡中都会被调用，实现时应避免不必要的对象创建。
+ */
+public interface VersionResolver {
+
+    /**
+     * 从请求中解析版本号.
+     *
+     * @param requestData 请求数据
+     * @return 版本号，没有时返回 null 或空字符串
+     */
+    String resolve(RequestData requestData);
+}
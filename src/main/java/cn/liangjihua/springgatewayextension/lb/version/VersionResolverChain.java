@@ -0,0 +1,73 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.REQUEST_VERSION_KEY;
+
+/**
+ * 有序的版本号解析链，依次调用各个 {@link VersionResolver}，返回第一个非空的版本号.
+ * <p></p>
+ * 默认的解析链与之前的行为一致：先从 query 参数中解析，再从请求头中解析，参数名均为 X-service-version。
+ */
+public final class VersionResolverChain {
+    private final VersionResolver[] resolvers;
+
+    public VersionResolverChain(List<? extends VersionResolver> resolvers) {
+        this.resolvers = resolvers.toArray(new VersionResolver[0]);
+    }
+
+    /**
+     * 默认的解析链：query 参数 -> 请求头
+     */
+    public static VersionResolverChain defaultChain() {
+        return new VersionResolverChain(List.of(new QueryVersionResolver(REQUEST_VERSION_KEY),
+            new HeaderVersionResolver(REQUEST_VERSION_KEY)));
+    }
+
+    /**
+     * 按照配置的顺序构建解析链.
+     *
+     * @param types 解析器类型的顺序
+     * @param queryParam query 参数名
+     * @param header 请求头名称
+     * @param cookie cookie 名称
+     * @param customResolvers 自定义的解析器，按顺序放在 {@link VersionResolverType#CUSTOM} 的位置
+     * @return 解析链
+     */
+    public static VersionResolverChain of(List<VersionResolverType> types,
+                                          String queryParam,
+                                          String header,
+                                          String cookie,
+                                          List<? extends VersionResolver> customResolvers) {
+        List<VersionResolver> resolvers = new ArrayList<>();
+        for (VersionResolverType type : types) {
+            switch (type) {
+                case QUERY -> resolvers.add(new QueryVersionResolver(queryParam));
+                case HEADER -> resolvers.add(new HeaderVersionResolver(header));
+                case COOKIE -> resolvers.add(new CookieVersionResolver(cookie));
+                case CUSTOM -> resolvers.addAll(customResolvers);
+            }
+        }
+        return new VersionResolverChain(resolvers);
+    }
+
+    /**
+     * 从请求中解析版本号.
+     *
+     * @param requestData 请求数据
+     * @return 版本号，所有解析器都没有解析出版本号时返回 null
+     */
+    public String resolve(RequestData requestData) {
+        for (VersionResolver resolver : resolvers) {
+            String version = resolver.resolve(requestData);
+            if (StrUtil.isNotBlank(version)) {
+                return version;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+/**
+ * 版本号解析器类型，用于配置解析链的顺序
+ */
+public enum VersionResolverType {
+    /**
+     * 从 query 参数中解析
+     */
+    QUERY,
+    /**
+     * 从请求头中解析
+     */
+    HEADER,
+    /**
+     * 从 cookie 中解析
+     */
+    COOKIE,
+    /**
+     * 注册到 spring 容器中的自定义 {@link VersionResolver}
+     */
+    CUSTOM
+}
@@ -0,0 +1,74 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LoadBalancerWarmUpTest {
+
+    private final LoadBalancerClientFactory clientFactory = mock(LoadBalancerClientFactory.class);
+
+    @SuppressWarnings("unchecked")
+    private final ObjectProvider<DiscoveryClient> discoveryClient = mock(ObjectProvider.class);
+
+    @Test
+    void servicesAreWarmedUp() {
+        ServiceInstanceListSupplier supplier = supplier(Flux.just(List.<ServiceInstance>of(
+            new DefaultServiceInstance("a", "user-service", "10.0.0.1", 8080, false))));
+        when(clientFactory.getInstance("user-service", ServiceInstanceListSupplier.class)).thenReturn(supplier);
+
+        assertEquals(1, warmUp(Duration.ofSeconds(5)).warmUp("user-service").block(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void timeoutCancelsPendingWarmUpWithoutFailing() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ServiceInstanceListSupplier supplier = supplier(Flux.<List<ServiceInstance>>never()
+            .doOnCancel(() -> cancelled.set(true)));
+        when(clientFactory.getInstance("user-service", ServiceInstanceListSupplier.class)).thenReturn(supplier);
+
+        long start = System.nanoTime();
+        warmUp(Duration.ofMillis(100)).run(null);
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 5000);
+        assertTrue(cancelled.get());
+    }
+
+    @Test
+    void failedServiceDoesNotStopOthers() {
+        when(clientFactory.getInstance("broken", ServiceInstanceListSupplier.class))
+            .thenThrow(new IllegalStateException("boom"));
+        ServiceInstanceListSupplier supplier = supplier(Flux.just(List.of()));
+        when(clientFactory.getInstance("user-service", ServiceInstanceListSupplier.class)).thenReturn(supplier);
+
+        new LoadBalancerWarmUp(clientFactory, discoveryClient, List.of("broken", "user-service"), false, 1,
+            Duration.ofSeconds(5)).run(null);
+
+        verify(supplier).get();
+    }
+
+    private LoadBalancerWarmUp warmUp(Duration timeout) {
+        return new LoadBalancerWarmUp(clientFactory, discoveryClient, List.of("user-service"), false, 2, timeout);
+    }
+
+    private static ServiceInstanceListSupplier supplier(Flux<List<ServiceInstance>> instances) {
+        ServiceInstanceListSupplier supplier = mock(ServiceInstanceListSupplier.class);
+        when(supplier.get()).thenReturn(instances);
+        return supplier;
+    }
+}
@@ -0,0 +1,35 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.hutool.core.net.NetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class LocalAddressResolverTest {
+
+    @Test
+    void loopbackAddressesAreNotLocalCandidates() throws UnknownHostException {
+        assertFalse(LocalAddressResolver.isLocalCandidate(InetAddress.getByName("127.0.0.1")));
+        assertFalse(LocalAddressResolver.isLocalCandidate(InetAddress.getByName("127.0.1.1")));
+        assertFalse(LocalAddressResolver.isLocalCandidate(InetAddress.getByName("::1")));
+        assertTrue(LocalAddressResolver.isLocalCandidate(InetAddress.getByName("10.0.0.1")));
+        assertTrue(LocalAddressResolver.isLocalCandidate(InetAddress.getByName("172.17.0.1")));
+    }
+
+    @Test
+    void loopbackInstancesAreNotLocal() {
+        // 与原有行为一致：hutool 选出的本机地址总是被视为本机地址，它是回环地址时无法验证
+        InetAddress localhost = NetUtil.getLocalhost();
+        assumeFalse(localhost == null || localhost.isLoopbackAddress());
+
+        LocalAddressResolver resolver = new LocalAddressResolver();
+        assertFalse(resolver.isLocal("127.0.0.1"));
+        assertFalse(resolver.isLocal("::1"));
+        assertTrue(resolver.isLocal(localhost.getHostAddress()));
+    }
+}
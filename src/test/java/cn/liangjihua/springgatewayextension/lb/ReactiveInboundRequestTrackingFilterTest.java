@@ -0,0 +1,56 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class ReactiveInboundRequestTrackingFilterTest {
+
+    private final InboundRequestTracker tracker = new InboundRequestTracker();
+
+    private final ReactiveInboundRequestTrackingFilter filter = new ReactiveInboundRequestTrackingFilter(tracker);
+
+    private final ServerWebExchange exchange = mock(ServerWebExchange.class);
+
+    @Test
+    void requestIsTrackedUntilCompleted() {
+        AtomicInteger inflight = new AtomicInteger(-1);
+
+        filter.filter(exchange, e -> Mono.fromRunnable(() -> inflight.set(tracker.getInflight())))
+            .block(Duration.ofSeconds(5));
+
+        assertEquals(1, inflight.get());
+        assertEquals(0, tracker.getInflight());
+    }
+
+    @Test
+    void failedRequestIsNoLongerTracked() {
+        assertThrows(IllegalStateException.class, () -> filter.filter(exchange,
+            e -> Mono.error(new IllegalStateException("boom"))).block(Duration.ofSeconds(5)));
+
+        assertEquals(0, tracker.getInflight());
+    }
+
+    @Test
+    void cancelledRequestIsNoLongerTracked() {
+        filter.filter(exchange, e -> Mono.never()).subscribe().dispose();
+
+        assertEquals(0, tracker.getInflight());
+    }
+
+    @Test
+    void nothingIsTrackedUntilSubscribed() {
+        Mono<Void> result = filter.filter(exchange, e -> Mono.empty());
+
+        assertEquals(0, tracker.getInflight());
+        result.block(Duration.ofSeconds(5));
+        assertEquals(0, tracker.getInflight());
+    }
+}
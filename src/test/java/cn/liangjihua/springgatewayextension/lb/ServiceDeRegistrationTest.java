@@ -0,0 +1,115 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.cloud.client.serviceregistry.ServiceRegistry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ServiceDeRegistrationTest {
+
+    @SuppressWarnings("unchecked")
+    private final ServiceRegistry<Registration> serviceRegistry = mock(ServiceRegistry.class);
+
+    private final Registration registration = mock(Registration.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final InboundRequestTracker tracker = new InboundRequestTracker();
+
+    @Test
+    void waitsQuietPeriodBeforeDrained() throws InterruptedException {
+        ServiceDeRegistration deRegistration = start(2000, 100, tracker);
+
+        long elapsed = stop(deRegistration);
+
+        verify(serviceRegistry).deregister(registration);
+        assertFalse(deRegistration.isRunning());
+        assertTrue(elapsed >= 100, "elapsed " + elapsed);
+        assertTrue(elapsed < 2000, "elapsed " + elapsed);
+        assertDrain(ServiceDeRegistration.DRAINED);
+    }
+
+    @Test
+    void requestDuringQuietPeriodExtendsWait() throws InterruptedException {
+        ServiceDeRegistration deRegistration = start(2000, 100, tracker);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        deRegistration.stop(done::countDown);
+
+        Thread.sleep(60);
+        tracker.begin();
+        tracker.end();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 160, "elapsed " + elapsed);
+        assertDrain(ServiceDeRegistration.DRAINED);
+    }
+
+    @Test
+    void inflightRequestTimesOutAtMaxWait() throws InterruptedException {
+        ServiceDeRegistration deRegistration = start(300, 50, tracker);
+        tracker.begin();
+
+        long elapsed = stop(deRegistration);
+
+        assertTrue(elapsed >= 300, "elapsed " + elapsed);
+        assertDrain(ServiceDeRegistration.TIMEOUT);
+    }
+
+    @Test
+    void withoutTrackerWaitsQuietPeriodOnly() throws InterruptedException {
+        ServiceDeRegistration deRegistration = start(2000, 100, null);
+
+        long elapsed = stop(deRegistration);
+
+        assertTrue(elapsed >= 100, "elapsed " + elapsed);
+        assertTrue(elapsed < 2000, "elapsed " + elapsed);
+        assertDrain(ServiceDeRegistration.UNTRACKED);
+    }
+
+    @Test
+    void stopWithoutStartDoesNotDeregister() throws InterruptedException {
+        ServiceDeRegistration deRegistration = new ServiceDeRegistration(serviceRegistry, registration,
+            2000, 100, tracker, meterRegistry);
+
+        assertTrue(stop(deRegistration) < 100);
+        verify(serviceRegistry, never()).deregister(registration);
+        assertEquals(0, meterRegistry.find("lb.deregistration.drain").timers().size());
+    }
+
+    private ServiceDeRegistration start(long maxWaitMillis, long quietMillis, InboundRequestTracker tracker) {
+        ServiceDeRegistration deRegistration = new ServiceDeRegistration(serviceRegistry, registration,
+            maxWaitMillis, quietMillis, tracker, meterRegistry);
+        deRegistration.start();
+        assertTrue(deRegistration.isRunning());
+        return deRegistration;
+    }
+
+    private static long stop(ServiceDeRegistration deRegistration) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        deRegistration.stop(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void assertDrain(String result) {
+        Timer timer = meterRegistry.find("lb.deregistration.drain").tag("result", result).timer();
+        assertNotNull(timer);
+        assertEquals(1, timer.count());
+        assertEquals(1, meterRegistry.find("lb.deregistration.drain").timers().size());
+    }
+}
@@ -0,0 +1,196 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh;
+import com.alibaba.cloud.nacos.discovery.NacosServiceDiscovery;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.alibaba.nacos.client.naming.event.InstancesChangeEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier.SERVICE_INSTANCE_CACHE_NAME;
+
+class ServiceInstanceCacheRefreshTest {
+    private static final String SERVICE_ID = "user-service";
+
+    private final Cache cache = new ConcurrentMapCache(SERVICE_INSTANCE_CACHE_NAME);
+
+    private LoadBalancerCacheRefresh refresh;
+
+    @AfterEach
+    void tearDown() {
+        if (refresh != null) {
+            refresh.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentEventsAreCoalescedIntoOneRefresh() throws Exception {
+        refresh = new LoadBalancerCacheRefresh(cacheManager(), 500);
+        cache.put(SERVICE_ID, toServiceInstances(host("10.0.0.1", 1.0)));
+
+        int threads = 8;
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                String ip = "10.0.0." + (i + 2);
+                executor.execute(() -> {
+                    ready.countDown();
+                    await(go);
+                    refresh.onEvent(event(host(ip, 1.0)));
+                });
+            }
+            assertTrue(ready.await(5, TimeUnit.SECONDS));
+            go.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        // 合并窗口结束前缓存不会被驱逐
+        assertNotNull(cache.get(SERVICE_ID));
+
+        awaitRefreshes(1);
+        assertNull(cache.get(SERVICE_ID));
+        assertEquals(threads, refresh.getEventsReceived());
+        assertEquals(1, refresh.getRefreshesApplied());
+        assertEquals(0, refresh.getRefreshesSkipped());
+    }
+
+    @Test
+    void eventsAfterWindowStartNewRefresh() throws Exception {
+        refresh = new LoadBalancerCacheRefresh(cacheManager(), 20);
+        cache.put(SERVICE_ID, toServiceInstances(host("10.0.0.1", 1.0)));
+        refresh.onEvent(event(host("10.0.0.2", 1.0)));
+        awaitRefreshes(1);
+
+        cache.put(SERVICE_ID, toServiceInstances(host("10.0.0.2", 1.0)));
+        refresh.onEvent(event(host("10.0.0.3", 1.0)));
+        awaitRefreshes(2);
+        assertNull(cache.get(SERVICE_ID));
+    }
+
+    @Test
+    void unchangedInstancesKeepCache() {
+        refresh = new LoadBalancerCacheRefresh(cacheManager(), 0);
+        cache.put(SERVICE_ID, toServiceInstances(host("10.0.0.1", 1.0)));
+
+        refresh.onEvent(event(host("10.0.0.1", 1.0)));
+
+        assertNotNull(cache.get(SERVICE_ID));
+        assertEquals(0, refresh.getRefreshesApplied());
+        assertEquals(1, refresh.getRefreshesSkipped());
+    }
+
+    @Test
+    void sameInstancesIgnoreOrderAndUnavailableHosts() {
+        Instance a = host("10.0.0.1", 1.0);
+        Instance b = host("10.0.0.2", 1.0);
+        Instance unhealthy = host("10.0.0.3", 1.0);
+        unhealthy.setHealthy(false);
+        Instance disabled = host("10.0.0.4", 1.0);
+        disabled.setEnabled(false);
+
+        assertTrue(LoadBalancerCacheRefresh.isSameInstances(toServiceInstances(a, b),
+            List.of(b, unhealthy, a, disabled)));
+    }
+
+    @Test
+    void changedInstancesAreDetected() {
+        List<ServiceInstance> cached = toServiceInstances(host("10.0.0.1", 1.0), host("10.0.0.2", 1.0));
+
+        // 实例下线
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached, List.of(host("10.0.0.1", 1.0))));
+        // 实例替换
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached,
+            List.of(host("10.0.0.1", 1.0), host("10.0.0.3", 1.0))));
+        // 实例变为不健康
+        Instance unhealthy = host("10.0.0.2", 1.0);
+        unhealthy.setHealthy(false);
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached, List.of(host("10.0.0.1", 1.0), unhealthy)));
+        // 权重变化
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached,
+            List.of(host("10.0.0.1", 1.0), host("10.0.0.2", 2.0))));
+        // metadata 变化
+        Instance upgraded = host("10.0.0.2", 1.0);
+        upgraded.setMetadata(Map.of("version", "v2"));
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached, List.of(host("10.0.0.1", 1.0), upgraded)));
+        // metadata 被移除
+        Instance untagged = host("10.0.0.2", 1.0);
+        untagged.setMetadata(new HashMap<>());
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(cached, List.of(host("10.0.0.1", 1.0), untagged)));
+    }
+
+    @Test
+    void unknownCacheContentIsNeverSame() {
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(null, List.of()));
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(List.of(), null));
+        assertFalse(LoadBalancerCacheRefresh.isSameInstances(List.of("10.0.0.1:8080"), List.of(host("10.0.0.1", 1.0))));
+    }
+
+    private LoadBalancerCacheManager cacheManager() {
+        LoadBalancerCacheManager cacheManager = mock(LoadBalancerCacheManager.class);
+        when(cacheManager.getCache(SERVICE_INSTANCE_CACHE_NAME)).thenReturn(cache);
+        return cacheManager;
+    }
+
+    private void awaitRefreshes(long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (refresh.getRefreshesApplied() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, refresh.getRefreshesApplied());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Instance host(String ip, double weight) {
+        Instance instance = new Instance();
+        instance.setIp(ip);
+        instance.setPort(8080);
+        instance.setHealthy(true);
+        instance.setEnabled(true);
+        instance.setWeight(weight);
+        instance.setMetadata(new HashMap<>(Map.of("version", "v1")));
+        return instance;
+    }
+
+    private static InstancesChangeEvent event(Instance... hosts) {
+        return new InstancesChangeEvent(null, "DEFAULT_GROUP@@" + SERVICE_ID, "DEFAULT_GROUP", "", List.of(hosts));
+    }
+
+    private static List<ServiceInstance> toServiceInstances(Instance... hosts) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (Instance host : hosts) {
+            instances.add(NacosServiceDiscovery.hostToServiceInstance(host, SERVICE_ID));
+        }
+        return instances;
+    }
+}
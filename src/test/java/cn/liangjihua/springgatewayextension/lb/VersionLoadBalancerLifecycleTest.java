@@ -0,0 +1,50 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionLoadBalancerLifecycleTest {
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+    private final VersionLoadBalancerLifecycle lifecycle = new VersionLoadBalancerLifecycle(registry);
+
+    private final ServiceInstance instance = new DefaultServiceInstance("a", "test", "10.0.0.1", 8080, false);
+
+    @Test
+    void failedRequestRaisesLatencyToPenalty() {
+        InstanceStats stats = registry.getOrCreate(instance);
+        complete(stats, CompletionContext.Status.FAILED);
+
+        assertEquals(0, stats.getInflight());
+        assertTrue(stats.getLatencyEwma() > VersionLoadBalancerLifecycle.FAILURE_LATENCY_PENALTY.toNanos() * 0.9,
+            "失败的请求应当按照惩罚值记录响应时间：" + stats.getLatencyEwma());
+    }
+
+    @Test
+    void successfulRequestRecordsElapsedTime() {
+        InstanceStats stats = registry.getOrCreate(instance);
+        complete(stats, CompletionContext.Status.SUCCESS);
+
+        assertEquals(0, stats.getInflight());
+        assertTrue(stats.getLatencyEwma() > 0
+            && stats.getLatencyEwma() < VersionLoadBalancerLifecycle.FAILURE_LATENCY_PENALTY.toNanos());
+    }
+
+    private void complete(InstanceStats stats, CompletionContext.Status status) {
+        Request<RequestDataContext> request = new DefaultRequest<>(new RequestDataContext());
+        VersionResponse response = new VersionResponse(instance, stats);
+        lifecycle.onStartRequest(request, response);
+        assertEquals(1, stats.getInflight());
+        lifecycle.onComplete(new CompletionContext<>(status, request, response));
+    }
+}
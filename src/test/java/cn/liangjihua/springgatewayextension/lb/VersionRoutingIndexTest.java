@@ -0,0 +1,207 @@
+package cn.liangjihua.springgatewayextension.lb;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome;
+import cn.liangjihua.springgatewayextension.lb.policy.VersionFallback;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VersionRoutingIndexTest {
+    private static final String LOCAL_HOST = "10.0.0.100";
+
+    private final LocalAddressResolver localAddressResolver = mock(LocalAddressResolver.class);
+
+    private final InstanceStatsRegistry statsRegistry = new InstanceStatsRegistry();
+
+    private final ServiceInstance v1a = instance("v1a", "10.0.0.1", "v1");
+
+    private final ServiceInstance v1b = instance("v1b", "10.0.0.2", "v1");
+
+    private final ServiceInstance v2 = instance("v2", "10.0.0.3", "v2");
+
+    private final ServiceInstance nonVersioned = instance("nv", "10.0.0.4", null);
+
+    private final ServiceInstance local = instance("local", LOCAL_HOST, "v3");
+
+    private final ServiceInstance nullVersion = instance("null-version", "10.0.0.5", null, true);
+
+    private final List<ServiceInstance> instances = List.of(v1a, v2, nonVersioned, v1b, local, nullVersion);
+
+    VersionRoutingIndexTest() {
+        when(localAddressResolver.getAddresses()).thenReturn(Set.of(LOCAL_HOST));
+    }
+
+    @Test
+    void instancesAreBucketedByVersionAndHost() {
+        VersionRoutingIndex index = index(instances);
+
+        assertEquals(List.of(v1a, v1b), index.getCandidateInstances("v1"));
+        assertEquals(List.of(v2), index.getCandidateInstances("v2"));
+        assertEquals(List.of(local), index.getCandidateInstances("v3"));
+        assertEquals(List.of(nonVersioned), index.getNonVersionedInstances());
+        assertEquals(List.of(local), index.getHostInstances());
+        // 版本号为 null 的实例既不属于任何版本，也不是无版本号的实例
+        assertFalse(index.getCandidateInstances("v1").contains(nullVersion));
+        assertFalse(index.getNonVersionedInstances().contains(nullVersion));
+        assertInstanceOf(CandidateInstances.class, index.getCandidateInstances("v1"));
+    }
+
+    @Test
+    void lookupsReturnSameCandidateLists() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(index.getCandidateInstances("v1"), index.getCandidateInstances("v1"));
+        assertSame(index.getHostInstances(), index.getCandidateInstances(null));
+        assertSame(index.getHostInstances(), index.getCandidateInstances("missing"));
+        assertSame(index.getNonVersionedInstances(),
+            index.getCandidateInstances("missing", VersionFallback.NON_VERSIONED));
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances("", VersionFallback.NONE));
+        assertTrue(index.getCandidateInstances("missing", VersionFallback.NONE).isEmpty());
+    }
+
+    @Test
+    void withoutLocalInstancesDefaultIsNonVersioned() {
+        VersionRoutingIndex index = index(List.of(v1a, nonVersioned));
+
+        assertTrue(index.getHostInstances().isEmpty());
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances(null));
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances("missing"));
+    }
+
+    @Test
+    void outcomeIsResolvedByReference() {
+        VersionRoutingIndex index = index(instances);
+
+        assertEquals(RoutingOutcome.VERSION_HIT, index.getOutcome(index.getCandidateInstances("v1")));
+        assertEquals(RoutingOutcome.LOCAL_FALLBACK, index.getOutcome(index.getCandidateInstances("missing")));
+        assertEquals(RoutingOutcome.NON_VERSIONED_FALLBACK,
+            index.getOutcome(index.getCandidateInstances("missing", VersionFallback.NON_VERSIONED)));
+        assertEquals(RoutingOutcome.EMPTY,
+            index.getOutcome(index.getCandidateInstances("missing", VersionFallback.NONE)));
+        // 内容相同但不是索引中的列表，不会被当作 fallback
+        assertEquals(RoutingOutcome.VERSION_HIT, index.getOutcome(new ArrayList<>(index.getHostInstances())));
+    }
+
+    @Test
+    void versionHitOnLocalInstanceIsLocalFallbackOnlyByReference() {
+        VersionRoutingIndex index = index(instances);
+
+        // v3 只有本地实例，但与本地实例列表不是同一个对象
+        assertEquals(RoutingOutcome.VERSION_HIT, index.getOutcome(index.getCandidateInstances("v3")));
+    }
+
+    @Test
+    void statsAreIndexedPerInstance() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(statsRegistry.get(v1a), index.getStats(v1a));
+        assertEquals(instances.size(), index.getAllStats().size());
+        assertEquals(instances.size(), statsRegistry.size());
+    }
+
+    @Test
+    void builtFromComparesSourceAndAddressesByReference() {
+        VersionRoutingIndex index = index(instances);
+
+        assertTrue(index.isBuiltFrom(instances, localAddressResolver));
+        assertFalse(index.isBuiltFrom(new ArrayList<>(instances), localAddressResolver));
+        when(localAddressResolver.getAddresses()).thenReturn(Set.of(LOCAL_HOST, "10.0.0.200"));
+        assertFalse(index.isBuiltFrom(instances, localAddressResolver));
+    }
+
+    @Test
+    void usableVersionIsKept() {
+        VersionRoutingIndex index = index(instances);
+        Predicate<List<ServiceInstance>> usable = usableExcept(Set.of(v1a));
+
+        assertSame(index.getCandidateInstances("v1"),
+            index.getCandidateInstances("v1", VersionFallback.LOCAL_THEN_NON_VERSIONED, usable));
+    }
+
+    @Test
+    void unhealthyVersionFallsBackToLocalThenNonVersioned() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(index.getHostInstances(), index.getCandidateInstances("v1",
+            VersionFallback.LOCAL_THEN_NON_VERSIONED, usableExcept(Set.of(v1a, v1b))));
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances("v1",
+            VersionFallback.LOCAL_THEN_NON_VERSIONED, usableExcept(Set.of(v1a, v1b, local))));
+    }
+
+    @Test
+    void unhealthyVersionFallsBackToNonVersionedSkippingLocal() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances("v1",
+            VersionFallback.NON_VERSIONED, usableExcept(Set.of(v1a, v1b))));
+    }
+
+    @Test
+    void unhealthyVersionWithoutFallbackIsKept() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(index.getCandidateInstances("v1"), index.getCandidateInstances("v1",
+            VersionFallback.NONE, usableExcept(Set.of(v1a, v1b))));
+    }
+
+    @Test
+    void unhealthyLocalDefaultFallsBackToNonVersioned() {
+        VersionRoutingIndex index = index(instances);
+
+        assertSame(index.getNonVersionedInstances(), index.getCandidateInstances("missing",
+            VersionFallback.LOCAL_THEN_NON_VERSIONED, usableExcept(Set.of(local))));
+    }
+
+    @Test
+    void allTiersUnhealthyReturnOriginalCandidates() {
+        VersionRoutingIndex index = index(instances);
+        Predicate<List<ServiceInstance>> noneUsable = candidates -> false;
+
+        assertSame(index.getCandidateInstances("v1"),
+            index.getCandidateInstances("v1", VersionFallback.LOCAL_THEN_NON_VERSIONED, noneUsable));
+        assertSame(index.getCandidateInstances("v1"),
+            index.getCandidateInstances("v1", VersionFallback.NON_VERSIONED, noneUsable));
+        assertSame(index.getHostInstances(),
+            index.getCandidateInstances(null, VersionFallback.LOCAL_THEN_NON_VERSIONED, noneUsable));
+        assertSame(index.getNonVersionedInstances(),
+            index.getCandidateInstances(null, VersionFallback.NON_VERSIONED, noneUsable));
+    }
+
+    private VersionRoutingIndex index(List<ServiceInstance> instances) {
+        return VersionRoutingIndex.build(instances, localAddressResolver, statsRegistry);
+    }
+
+    private static Predicate<List<ServiceInstance>> usableExcept(Set<ServiceInstance> unhealthy) {
+        return candidates -> candidates.stream().anyMatch(instance -> !unhealthy.contains(instance));
+    }
+
+    private static ServiceInstance instance(String id, String host, String version) {
+        return instance(id, host, version, false);
+    }
+
+    private static ServiceInstance instance(String id, String host, String version, boolean nullVersion) {
+        Map<String, String> metadata = new HashMap<>();
+        if (version != null || nullVersion) {
+            metadata.put(SERVICE_META_VERSION_KEY, version);
+        }
+        return new DefaultServiceInstance(id, "service", host, 8080, false, metadata);
+    }
+}
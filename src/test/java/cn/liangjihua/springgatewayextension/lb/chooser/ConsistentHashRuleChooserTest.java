@@ -0,0 +1,71 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRuleChooserTest {
+
+    @Test
+    void tableIsBalanced() {
+        List<ServiceInstance> instances = instances(10);
+        int[] table = ConsistentHashRuleChooser.buildTable(instances);
+        int[] counts = new int[instances.size()];
+        for (int index : table) {
+            counts[index]++;
+        }
+        int expected = table.length / instances.size();
+        for (int count : counts) {
+            assertTrue(Math.abs(count - expected) <= expected / 10 + 1);
+        }
+    }
+
+    @Test
+    void removingAnInstanceOnlyMovesItsSlots() {
+        List<ServiceInstance> instances = instances(10);
+        List<ServiceInstance> remaining = new ArrayList<>(instances.subList(0, 9));
+        int[] before = ConsistentHashRuleChooser.buildTable(instances);
+        int[] after = ConsistentHashRuleChooser.buildTable(remaining);
+        assertEquals(before.length, after.length);
+
+        int moved = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (before[i] != 9 && before[i] != after[i]) {
+                moved++;
+            }
+        }
+        assertTrue(moved < before.length / 10);
+    }
+
+    @Test
+    void tableDoesNotDependOnCandidateOrder() {
+        List<ServiceInstance> instances = instances(10);
+        List<ServiceInstance> shuffled = new ArrayList<>(instances);
+        Collections.shuffle(shuffled, new Random(42));
+        Collections.swap(shuffled, 0, 9);
+        int[] table = ConsistentHashRuleChooser.buildTable(instances);
+        int[] shuffledTable = ConsistentHashRuleChooser.buildTable(shuffled);
+
+        for (int i = 0; i < table.length; i++) {
+            assertSame(instances.get(table[i]), shuffled.get(shuffledTable[i]));
+        }
+    }
+
+    private static List<ServiceInstance> instances(int count) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            instances.add(new DefaultServiceInstance("i" + i, "service", "10.0.0." + i, 8080, false, Map.of()));
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,80 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeastRequestRuleChooserTest {
+
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+    private final LeastRequestRuleChooser chooser = new LeastRequestRuleChooser(registry);
+
+    @Test
+    void lessLoadedOfTwoIsAlwaysChosen() {
+        CandidateInstances instances = CandidateInstances.of(List.of(instance("a"), instance("b")));
+        inflight(instances.get(0), 5);
+        inflight(instances.get(1), 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", chooser.choose(instances).getInstanceId());
+        }
+    }
+
+    @Test
+    void mostLoadedInstanceIsNeverChosen() {
+        CandidateInstances instances = CandidateInstances.of(List.of(instance("a"), instance("b"), instance("c")));
+        inflight(instances.get(2), 3);
+
+        Map<String, Integer> chosen = choose(instances, 300);
+        assertFalse(chosen.containsKey("c"));
+        assertTrue(chosen.get("a") > 0);
+        assertTrue(chosen.get("b") > 0);
+    }
+
+    @Test
+    void loadChangesAreSeenWithoutNewCandidates() {
+        CandidateInstances instances = CandidateInstances.of(List.of(instance("a"), instance("b")));
+        inflight(instances.get(0), 1);
+        assertEquals("b", chooser.choose(instances).getInstanceId());
+
+        registry.get(instances.get(0)).decrementInflight();
+        inflight(instances.get(1), 1);
+        assertEquals("a", chooser.choose(instances).getInstanceId());
+    }
+
+    @Test
+    void emptyAndSingleCandidates() {
+        assertNull(chooser.choose(List.of()));
+        ServiceInstance only = instance("a");
+        assertEquals(only, chooser.choose(CandidateInstances.of(List.of(only))));
+    }
+
+    private Map<String, Integer> choose(List<ServiceInstance> instances, int times) {
+        Map<String, Integer> chosen = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            chosen.merge(chooser.choose(instances).getInstanceId(), 1, Integer::sum);
+        }
+        return chosen;
+    }
+
+    private void inflight(ServiceInstance instance, int count) {
+        for (int i = 0; i < count; i++) {
+            registry.getOrCreate(instance).incrementInflight();
+        }
+    }
+
+    private static ServiceInstance instance(String id) {
+        return new DefaultServiceInstance(id, "service", id, 8080, false);
+    }
+}
@@ -0,0 +1,60 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RoundRuleChooserTest {
+
+    private final RoundRuleChooser chooser = new RoundRuleChooser();
+
+    @Test
+    void cursorIsKeptPerCandidateSet() {
+        CandidateInstances v1 = CandidateInstances.of(List.of(instance("a"), instance("b"), instance("c")));
+        CandidateInstances v2 = CandidateInstances.of(List.of(instance("d"), instance("e")));
+
+        List<ServiceInstance> chosenV1 = new ArrayList<>();
+        List<ServiceInstance> chosenV2 = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            chosenV1.add(chooser.choose(v1));
+            chosenV2.add(chooser.choose(v2));
+        }
+        // 交替使用两组候选实例时，每一组仍然按顺序依次选择自己的实例
+        assertRoundRobin(v1, chosenV1);
+        assertRoundRobin(v2, chosenV2);
+    }
+
+    @Test
+    void plainListsKeepCursorWhileUnchanged() {
+        List<ServiceInstance> instances = List.of(instance("a"), instance("b"), instance("c"));
+
+        List<ServiceInstance> chosen = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            chosen.add(chooser.choose(instances));
+        }
+        assertRoundRobin(instances, chosen);
+    }
+
+    @Test
+    void emptyCandidates() {
+        assertNull(chooser.choose(List.of()));
+        assertNull(chooser.choose(null));
+    }
+
+    private static void assertRoundRobin(List<ServiceInstance> instances, List<ServiceInstance> chosen) {
+        int start = instances.indexOf(chosen.get(0));
+        for (int i = 0; i < chosen.size(); i++) {
+            assertEquals(instances.get((start + i) % instances.size()), chosen.get(i), "第 " + i + " 次选择");
+        }
+    }
+
+    private static ServiceInstance instance(String id) {
+        return new DefaultServiceInstance(id, "service", id, 8080, false);
+    }
+}
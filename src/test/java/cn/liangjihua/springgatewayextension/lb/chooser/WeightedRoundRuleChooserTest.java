@@ -0,0 +1,65 @@
+package cn.liangjihua.springgatewayextension.lb.chooser;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cn.liangjihua.springgatewayextension.lb.constants.LbConstants.SERVICE_META_WEIGHT_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WeightedRoundRuleChooserTest {
+
+    @Test
+    void chooseIsSmoothAndWeighted() {
+        CandidateInstances instances = CandidateInstances.of(List.of(
+            instance("a", "5"), instance("b", "1"), instance("c", "1")));
+        WeightedRoundRuleChooser chooser = new WeightedRoundRuleChooser();
+
+        List<String> chosen = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            chosen.add(chooser.choose(instances).getInstanceId());
+        }
+        assertEquals(List.of("a", "a", "b", "a", "c", "a", "a"), chosen);
+    }
+
+    @Test
+    void zeroWeightIsNeverChosen() {
+        CandidateInstances instances = CandidateInstances.of(List.of(instance("a", "1"), instance("b", "0")));
+        WeightedRoundRuleChooser chooser = new WeightedRoundRuleChooser();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a", chooser.choose(instances).getInstanceId());
+        }
+    }
+
+    @Test
+    void oversizedWeightsAreClampedWithoutOverflow() {
+        CandidateInstances instances = CandidateInstances.of(List.of(
+            instance("a", "1e12"), instance("b", "30000000"), instance("c", "10000")));
+        WeightedRoundRuleChooser chooser = new WeightedRoundRuleChooser();
+
+        Map<String, Integer> chosen = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            chosen.merge(chooser.choose(instances).getInstanceId(), 1, Integer::sum);
+        }
+        // 超过最大权重的实例都按最大权重处理，流量平均分配
+        assertEquals(Map.of("a", 100, "b", 100, "c", 100), chosen);
+    }
+
+    @Test
+    void invalidWeights() {
+        assertEquals(100, WeightedRoundRuleChooser.weightOf(instance("a", "x")));
+        assertEquals(0, WeightedRoundRuleChooser.weightOf(instance("a", "-1")));
+        assertEquals(0, WeightedRoundRuleChooser.weightOf(instance("a", "NaN")));
+        assertEquals(1_000_000, WeightedRoundRuleChooser.weightOf(instance("a", "Infinity")));
+        assertEquals(150, WeightedRoundRuleChooser.weightOf(instance("a", "1.5")));
+    }
+
+    private static ServiceInstance instance(String id, String weight) {
+        return new DefaultServiceInstance(id, "service", id, 8080, false, Map.of(SERVICE_META_WEIGHT_KEY, weight));
+    }
+}
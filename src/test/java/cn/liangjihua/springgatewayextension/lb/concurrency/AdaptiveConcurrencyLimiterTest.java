@@ -0,0 +1,114 @@
+package cn.liangjihua.springgatewayextension.lb.concurrency;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long MILLIS = 1_000_000;
+
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+    @Test
+    void aimdBacksOffOnDropAndGrowsWhenBusy() {
+        AdaptiveConcurrencyLimiter limiter = limiter(ConcurrencyLimitProperties.Algorithm.AIMD);
+        InstanceStats stats = registry.getOrCreate(instance(1));
+
+        limiter.onSample(stats, 10 * MILLIS, 10, false);
+        assertEquals(11, limiter.getLimit(stats));
+        // 并发远小于上限时不增加
+        limiter.onSample(stats, 10 * MILLIS, 1, false);
+        assertEquals(11, limiter.getLimit(stats));
+        limiter.onSample(stats, -1, 10, true);
+        assertEquals(9, limiter.getLimit(stats));
+        // 超时视为失败
+        limiter.onSample(stats, 2000 * MILLIS, 10, false);
+        assertEquals(8, limiter.getLimit(stats));
+    }
+
+    @Test
+    void gradientShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = limiter(ConcurrencyLimitProperties.Algorithm.GRADIENT);
+        InstanceStats stats = registry.getOrCreate(instance(1));
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample(stats, 10 * MILLIS, limiter.getLimit(stats), false);
+        }
+        int steady = limiter.getLimit(stats);
+        assertTrue(steady > 20, "响应时间平稳时上限应当增长：" + steady);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onSample(stats, 100 * MILLIS, limiter.getLimit(stats), false);
+        }
+        assertTrue(limiter.getLimit(stats) < steady / 2, "响应时间上升时上限应当降低：" + limiter.getLimit(stats));
+    }
+
+    @Test
+    void filterSkipsSaturatedInstances() {
+        AdaptiveConcurrencyLimiter limiter = limiter(ConcurrencyLimitProperties.Algorithm.AIMD);
+        List<ServiceInstance> candidates = List.of(instance(1), instance(2));
+        candidates.forEach(registry::getOrCreate);
+        assertSame(candidates, limiter.filter(candidates, registry::get));
+
+        InstanceStats busy = registry.get(candidates.get(0));
+        for (int i = 0; i < 10; i++) {
+            busy.incrementInflight();
+        }
+        assertEquals(List.of(candidates.get(1)), limiter.filter(candidates, registry::get));
+
+        InstanceStats other = registry.get(candidates.get(1));
+        for (int i = 0; i < 10; i++) {
+            other.incrementInflight();
+        }
+        assertTrue(limiter.filter(candidates, registry::get).isEmpty());
+    }
+
+    @Test
+    void chooserStateSurvivesRepeatedSaturatedPicks() {
+        AdaptiveConcurrencyLimiter limiter = limiter(ConcurrencyLimitProperties.Algorithm.AIMD);
+        List<ServiceInstance> candidates = CandidateInstances.of(List.of(instance(1), instance(2), instance(3)));
+        candidates.forEach(registry::getOrCreate);
+        InstanceStats busy = registry.get(candidates.get(0));
+        for (int i = 0; i < 10; i++) {
+            busy.incrementInflight();
+        }
+
+        List<ServiceInstance> filtered = limiter.filter(candidates, registry::get);
+        assertInstanceOf(CandidateInstances.class, filtered);
+        assertEquals(List.of(candidates.get(1), candidates.get(2)), filtered);
+
+        RoundRuleChooser chooser = new RoundRuleChooser();
+        ServiceInstance previous = chooser.choose(filtered);
+        for (int i = 0; i < 10; i++) {
+            List<ServiceInstance> again = limiter.filter(candidates, registry::get);
+            assertSame(filtered, again);
+            // 游标没有被重置，两个可用实例交替被选中
+            ServiceInstance current = chooser.choose(again);
+            assertNotEquals(previous, current);
+            previous = current;
+        }
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(ConcurrencyLimitProperties.Algorithm algorithm) {
+        ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+        properties.setEnabled(true);
+        properties.setAlgorithm(algorithm);
+        properties.setInitialLimit(10);
+        return new AdaptiveConcurrencyLimiter(properties);
+    }
+
+    private static ServiceInstance instance(int index) {
+        return new DefaultServiceInstance("test-" + index, "test", "10.0.0." + index, 8080, false);
+    }
+}
@@ -0,0 +1,115 @@
+package cn.liangjihua.springgatewayextension.lb.health;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActiveHealthCheckerTest {
+
+    private final InstanceStatsRegistry statsRegistry = new InstanceStatsRegistry();
+
+    private ActiveHealthChecker checker;
+
+    @AfterEach
+    void tearDown() {
+        if (checker != null) {
+            checker.destroy();
+        }
+    }
+
+    @Test
+    void failedInstancesAreFilteredOut() throws Exception {
+        checker = new ActiveHealthChecker(properties());
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            acceptAll(server);
+            ServiceInstance up = instance("up", server.getLocalPort());
+            ServiceInstance down = instance("down", closedPort());
+            List<ServiceInstance> candidates = CandidateInstances.of(List.of(up, down));
+            checker.watch("user-service", candidates, statsRegistry::getOrCreate);
+
+            awaitUnhealthy(1);
+            assertEquals(List.of(up), checker.filter(candidates, statsRegistry::get));
+            assertTrue(checker.hasHealthy(candidates, statsRegistry::get));
+            assertFalse(checker.isUnhealthy(statsRegistry.get(up)));
+        }
+    }
+
+    @Test
+    void allUnhealthyCandidatesAreNotFiltered() throws Exception {
+        checker = new ActiveHealthChecker(properties());
+        List<ServiceInstance> candidates = CandidateInstances.of(List.of(instance("down", closedPort())));
+        checker.watch("user-service", candidates, statsRegistry::getOrCreate);
+
+        awaitUnhealthy(1);
+        assertFalse(checker.hasHealthy(candidates, statsRegistry::get));
+        assertSame(candidates, checker.filter(candidates, statsRegistry::get));
+    }
+
+    @Test
+    void removedInstancesAreNoLongerChecked() throws Exception {
+        checker = new ActiveHealthChecker(properties());
+        List<ServiceInstance> candidates = CandidateInstances.of(List.of(instance("down", closedPort())));
+        checker.watch("user-service", candidates, statsRegistry::getOrCreate);
+        awaitUnhealthy(1);
+
+        checker.watch("user-service", List.of(), statsRegistry::getOrCreate);
+        assertEquals(0, checker.getTargetCount());
+        assertEquals(0, checker.getUnhealthyCount());
+    }
+
+    private void awaitUnhealthy(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (checker.getUnhealthyCount() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, checker.getUnhealthyCount());
+    }
+
+    private static HealthCheckProperties properties() {
+        HealthCheckProperties properties = new HealthCheckProperties();
+        properties.setEnabled(true);
+        properties.setInterval(Duration.ofMillis(20));
+        properties.setJitter(Duration.ofMillis(5));
+        properties.setTimeout(Duration.ofMillis(500));
+        properties.setUnhealthyThreshold(1);
+        return properties;
+    }
+
+    private static ServiceInstance instance(String id, int port) {
+        return new DefaultServiceInstance(id, "user-service", "127.0.0.1", port, false);
+    }
+
+    private static void acceptAll(ServerSocket server) {
+        Thread thread = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    server.accept().close();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class HedgeBudgetTest {
+
+    @Test
+    void hedgesAreCappedByBudgetPercent() {
+        HedgeBudget budget = new HedgeBudget(10);
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            budget.deposit();
+            if (budget.tryWithdraw()) {
+                hedges++;
+            }
+        }
+        assertEquals(100, hedges);
+    }
+
+    @Test
+    void zeroBudgetNeverHedges() {
+        HedgeBudget budget = new HedgeBudget(0);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+    }
+}
@@ -0,0 +1,182 @@
+package cn.liangjihua.springgatewayextension.lb.hedge;
+
+import cn.liangjihua.springgatewayextension.lb.VersionLoadBalancer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HedgingExecutorTest {
+    private static final String SERVICE_ID = "user-service";
+
+    private final ServiceInstance primary = new DefaultServiceInstance("a", SERVICE_ID, "10.0.0.1", 8080, false);
+
+    private final ServiceInstance alternate = new DefaultServiceInstance("b", SERVICE_ID, "10.0.0.2", 8080, false);
+
+    private final RecordingLifecycle lifecycle = new RecordingLifecycle();
+
+    private final VersionLoadBalancer loadBalancer = mock(VersionLoadBalancer.class);
+
+    private final LoadBalancerClientFactory clientFactory = mock(LoadBalancerClientFactory.class);
+
+    @BeforeEach
+    void setUp() {
+        when(clientFactory.getInstance(SERVICE_ID, ReactorServiceInstanceLoadBalancer.class))
+            .thenReturn(loadBalancer);
+        when(clientFactory.getInstances(SERVICE_ID, LoadBalancerLifecycle.class))
+            .thenReturn(Map.of("lifecycle", lifecycle));
+        when(loadBalancer.choose(any())).thenReturn(Mono.<Response<ServiceInstance>>just(new DefaultResponse(primary)));
+        when(loadBalancer.chooseAlternate(any(), any()))
+            .thenReturn(Mono.<Response<ServiceInstance>>just(new DefaultResponse(alternate)));
+    }
+
+    @Test
+    void firstResponseWinsAndLoserIsCancelled() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(100));
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        String result = executor.execute(SERVICE_ID, request(HttpMethod.GET), instance -> instance == primary
+                ? Mono.<String>never().doOnCancel(() -> cancelled.set(true))
+                : Mono.just("alternate"))
+            .block(Duration.ofSeconds(5));
+
+        assertEquals("alternate", result);
+        assertTrue(cancelled.get());
+        assertEquals(1, executor.getHedgedCount());
+        assertEquals(2, lifecycle.started.get());
+        assertEquals(CompletionContext.Status.DISCARD, lifecycle.completed.get(primary.getHost()));
+        assertEquals(CompletionContext.Status.SUCCESS, lifecycle.completed.get(alternate.getHost()));
+    }
+
+    @Test
+    void failedAttemptIsReportedToLifecycle() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(100));
+
+        assertThrows(IllegalStateException.class, () -> executor.execute(SERVICE_ID, request(HttpMethod.GET),
+            instance -> Mono.<String>error(new IllegalStateException("boom"))).block(Duration.ofSeconds(5)));
+
+        assertEquals(CompletionContext.Status.FAILED, lifecycle.completed.get(primary.getHost()));
+        verify(loadBalancer, never()).chooseAlternate(any(), any());
+    }
+
+    @Test
+    void primaryFailingAfterHedgeFiredReturnsHedgeResult() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(100));
+
+        String result = executor.execute(SERVICE_ID, request(HttpMethod.GET), instance -> instance == primary
+                ? Mono.delay(Duration.ofMillis(100)).then(Mono.<String>error(new IllegalStateException("boom")))
+                : Mono.delay(Duration.ofMillis(200)).thenReturn("alternate"))
+            .block(Duration.ofSeconds(5));
+
+        assertEquals("alternate", result);
+        assertEquals(1, executor.getHedgedCount());
+        assertEquals(CompletionContext.Status.FAILED, lifecycle.completed.get(primary.getHost()));
+        assertEquals(CompletionContext.Status.SUCCESS, lifecycle.completed.get(alternate.getHost()));
+    }
+
+    @Test
+    void bothAttemptsFailingReturnsPrimaryError() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(100));
+
+        assertThrows(IllegalStateException.class, () -> executor.execute(SERVICE_ID, request(HttpMethod.GET),
+                instance -> instance == primary
+                    ? Mono.delay(Duration.ofMillis(100)).then(Mono.<String>error(new IllegalStateException("boom")))
+                    : Mono.<String>error(new IllegalArgumentException("hedge boom")))
+            .block(Duration.ofSeconds(5)));
+
+        assertEquals(1, executor.getHedgedCount());
+        assertEquals(CompletionContext.Status.FAILED, lifecycle.completed.get(primary.getHost()));
+        assertEquals(CompletionContext.Status.FAILED, lifecycle.completed.get(alternate.getHost()));
+    }
+
+    @Test
+    void nonIdempotentMethodsAreNeverHedged() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(100));
+
+        String result = executor.execute(SERVICE_ID, request(HttpMethod.POST),
+            instance -> Mono.delay(Duration.ofMillis(100)).thenReturn("primary")).block(Duration.ofSeconds(5));
+
+        assertEquals("primary", result);
+        assertEquals(0, executor.getHedgedCount());
+        verify(loadBalancer, never()).chooseAlternate(any(), any());
+        assertEquals(CompletionContext.Status.SUCCESS, lifecycle.completed.get(primary.getHost()));
+    }
+
+    @Test
+    void exhaustedBudgetStopsHedging() {
+        HedgingExecutor executor = new HedgingExecutor(clientFactory, properties(0));
+
+        String result = executor.execute(SERVICE_ID, request(HttpMethod.GET),
+            instance -> Mono.delay(Duration.ofMillis(100)).thenReturn("primary")).block(Duration.ofSeconds(5));
+
+        assertEquals("primary", result);
+        assertEquals(0, executor.getHedgedCount());
+        verify(loadBalancer, never()).chooseAlternate(any(), any());
+    }
+
+    private static HedgingProperties properties(int budgetPercent) {
+        HedgingProperties properties = new HedgingProperties();
+        properties.setEnabled(true);
+        properties.setDelay(Duration.ofMillis(20));
+        properties.setBudgetPercent(budgetPercent);
+        return properties;
+    }
+
+    private static Request<RequestDataContext> request(HttpMethod method) {
+        RequestData requestData = new RequestData(method, URI.create("http://" + SERVICE_ID + "/users"),
+            new HttpHeaders(), new HttpHeaders(), Map.of());
+        return new DefaultRequest<>(new RequestDataContext(requestData, "default"));
+    }
+
+    private static final class RecordingLifecycle
+        implements LoadBalancerLifecycle<RequestDataContext, ResponseData, ServiceInstance> {
+        private final AtomicInteger started = new AtomicInteger();
+
+        private final Map<String, CompletionContext.Status> completed = new ConcurrentHashMap<>();
+
+        @Override
+        public void onStart(Request<RequestDataContext> request) {
+        }
+
+        @Override
+        public void onStartRequest(Request<RequestDataContext> request, Response<ServiceInstance> lbResponse) {
+            started.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(CompletionContext<ResponseData, ServiceInstance, RequestDataContext> completionContext) {
+            completed.put(completionContext.getLoadBalancerResponse().getServer().getHost(),
+                completionContext.status());
+        }
+    }
+}
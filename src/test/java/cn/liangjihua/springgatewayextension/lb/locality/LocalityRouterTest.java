@@ -0,0 +1,52 @@
+package cn.liangjihua.springgatewayextension.lb.locality;
+
+import cn.liangjihua.springgatewayextension.lb.LocalAddressResolver;
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LocalityRouterTest {
+    private final CandidateInstances candidates = CandidateInstances.of(List.of(
+        instance("a1", "zone-a"), instance("a2", "zone-a"), instance("b1", "zone-b"), instance("b2", "zone-b")));
+
+    @Test
+    void prefersSameZone() {
+        LocalityRouter router = router(1);
+        List<ServiceInstance> selected = router.select(candidates, UnaryOperator.identity(), instance -> null);
+        assertEquals(List.of("a1", "a2"), selected.stream().map(ServiceInstance::getInstanceId).toList());
+    }
+
+    @Test
+    void spillsOverWhenZoneHasTooFewInstances() {
+        LocalityRouter router = router(3);
+        List<ServiceInstance> selected = router.select(candidates, UnaryOperator.identity(), instance -> null);
+        assertEquals(4, selected.size());
+    }
+
+    @Test
+    void parsesIpv4() {
+        assertEquals(0x0A000001, LocalityRouter.ipv4Of("10.0.0.1"));
+        assertEquals(0, LocalityRouter.ipv4Of("10.0.0"));
+        assertEquals(0, LocalityRouter.ipv4Of("10.0.0.256"));
+        assertEquals(0, LocalityRouter.ipv4Of("fe80::1"));
+    }
+
+    private static LocalityRouter router(int minInstances) {
+        LocalityProperties properties = new LocalityProperties();
+        properties.setEnabled(true);
+        properties.setMinInstances(minInstances);
+        return new LocalityRouter(properties, "zone-a", new LocalAddressResolver());
+    }
+
+    private static ServiceInstance instance(String id, String zone) {
+        return new DefaultServiceInstance(id, "service", "192.0.2." + (id.hashCode() & 0x7F), 8080, false,
+            Map.of("zone", zone));
+    }
+}
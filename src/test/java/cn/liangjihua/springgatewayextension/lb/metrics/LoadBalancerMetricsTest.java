@@ -0,0 +1,138 @@
+package cn.liangjihua.springgatewayextension.lb.metrics;
+
+import cn.liangjihua.springgatewayextension.lb.ServiceInstanceCacheRefresh;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import cn.liangjihua.springgatewayextension.lb.supplier.SingleFlightServiceInstanceListSupplier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LoadBalancerMetricsTest {
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final InstanceStatsRegistry statsRegistry = new InstanceStatsRegistry();
+
+    @Test
+    void recordsChooseMetrics() {
+        ServiceMetrics metrics = new LoadBalancerMetrics(registry, 20).forService("user-service", "RoundRuleChooser");
+        InstanceStats stats = stats(1);
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 3, stats, 1000);
+        metrics.record(null, RoutingOutcome.EMPTY, 0, null, 1000);
+
+        assertEquals(2, registry.get("lb.choose.duration").tag("service", "user-service").timer().count());
+        assertEquals(3, registry.get("lb.choose.candidates").summary().totalAmount());
+        assertEquals(1, registry.get("lb.choose.outcome").tag("outcome", "version_hit").counter().count());
+        assertEquals(1, registry.get("lb.choose.outcome").tag("outcome", "empty").counter().count());
+        assertEquals(1, registry.get("lb.choose.version").tag("version", "v1").counter().count());
+        assertEquals(1, registry.get("lb.choose.version").tag("version", ServiceMetrics.NO_VERSION).counter().count());
+        assertEquals(1, registry.get("lb.chooser.selections")
+            .tag("chooser", "RoundRuleChooser")
+            .tag("instance", "10.0.0.1:8080")
+            .counter().count());
+    }
+
+    @Test
+    void versionTagsAreCapped() {
+        ServiceMetrics metrics = new LoadBalancerMetrics(registry, 2).forService("user-service", "RoundRuleChooser");
+        for (String version : List.of("v1", "v2", "v3", "v4")) {
+            metrics.record(version, RoutingOutcome.VERSION_HIT, 1, null, 1000);
+        }
+        assertEquals(2, registry.get("lb.choose.version").tag("version", ServiceMetrics.OTHER_VERSION)
+            .counter().count());
+        assertNull(registry.find("lb.choose.version").tag("version", "v3").counter());
+    }
+
+    @Test
+    void unmatchedVersionsDoNotTakeTags() {
+        ServiceMetrics metrics = new LoadBalancerMetrics(registry, 1).forService("user-service", "RoundRuleChooser");
+        metrics.record("junk", RoutingOutcome.LOCAL_FALLBACK, 1, null, 1000);
+        metrics.record("junk2", RoutingOutcome.NON_VERSIONED_FALLBACK, 1, null, 1000);
+        metrics.record("junk3", RoutingOutcome.EMPTY, 0, null, 1000);
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 1, null, 1000);
+
+        assertEquals(3, registry.get("lb.choose.version").tag("version", ServiceMetrics.OTHER_VERSION)
+            .counter().count());
+        assertNull(registry.find("lb.choose.version").tag("version", "junk").counter());
+        assertEquals(1, registry.get("lb.choose.version").tag("version", "v1").counter().count());
+    }
+
+    @Test
+    void selectionsOfRemovedInstancesAreDropped() {
+        ServiceMetrics metrics = new LoadBalancerMetrics(registry, 20).forService("user-service", "RoundRuleChooser");
+        InstanceStats kept = stats(1);
+        InstanceStats removed = stats(2);
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 2, kept, 1000);
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 2, removed, 1000);
+        assertEquals(2, registry.find("lb.chooser.selections").counters().size());
+
+        metrics.retainSelections(List.of(kept));
+        assertEquals(1, registry.find("lb.chooser.selections").counters().size());
+        assertNull(registry.find("lb.chooser.selections").tag("instance", "10.0.0.2:8080").counter());
+    }
+
+    @Test
+    void chooserTagFollowsPolicyReload() {
+        ServiceMetrics metrics = new LoadBalancerMetrics(registry, 20).forService("user-service", "RoundRuleChooser");
+        InstanceStats stats = stats(1);
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 1, stats, 1000);
+
+        metrics.useChooser("PeakEwmaRuleChooser");
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 1, stats, 1000);
+        assertNull(registry.find("lb.chooser.selections").tag("chooser", "RoundRuleChooser").counter());
+        assertEquals(1, registry.get("lb.chooser.selections").tag("chooser", "PeakEwmaRuleChooser")
+            .counter().count());
+    }
+
+    @Test
+    void noopMetricsRegisterNothing() {
+        ServiceMetrics metrics = LoadBalancerMetrics.NOOP.forService("user-service", "RoundRuleChooser");
+        assertSame(ServiceMetrics.NOOP, metrics);
+        assertFalse(metrics.isEnabled());
+        metrics.record("v1", RoutingOutcome.VERSION_HIT, 1, stats(1), 1000);
+        metrics.retainSelections(List.of());
+        assertEquals(0, registry.getMeters().size());
+    }
+
+    @Test
+    void bindsInstanceLoadingCounters() {
+        SingleFlightServiceInstanceListSupplier supplier = mock(SingleFlightServiceInstanceListSupplier.class);
+        when(supplier.getCacheHits()).thenReturn(5L);
+        when(supplier.getFetches()).thenReturn(2L);
+        new LoadBalancerMetrics(registry, 20).bindInstanceLoading("user-service", supplier);
+
+        assertEquals(5, registry.get("lb.instances.load").tag("result", "cached").functionCounter().count());
+        assertEquals(2, registry.get("lb.instances.load").tag("result", "fetched").functionCounter().count());
+        assertEquals(0, registry.get("lb.instances.load").tag("result", "coalesced").functionCounter().count());
+    }
+
+    @Test
+    void bindsCacheRefreshCounters() {
+        ServiceInstanceCacheRefresh cacheRefresh = mock(ServiceInstanceCacheRefresh.class);
+        ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh refresh =
+            mock(ServiceInstanceCacheRefresh.LoadBalancerCacheRefresh.class);
+        when(cacheRefresh.getRefresh()).thenReturn(refresh);
+        when(refresh.getEventsReceived()).thenReturn(3L);
+        when(refresh.getRefreshesApplied()).thenReturn(2L);
+        when(refresh.getRefreshesSkipped()).thenReturn(1L);
+        new CacheRefreshMetrics(cacheRefresh).bindTo(registry);
+
+        assertEquals(3, registry.get("lb.cache.refresh.events").functionCounter().count());
+        assertEquals(2, registry.get("lb.cache.refresh").tag("result", "applied").functionCounter().count());
+        assertEquals(1, registry.get("lb.cache.refresh").tag("result", "skipped").functionCounter().count());
+    }
+
+    private InstanceStats stats(int index) {
+        return statsRegistry.getOrCreate(
+            new DefaultServiceInstance("test-" + index, "user-service", "10.0.0." + index, 8080, false));
+    }
+}
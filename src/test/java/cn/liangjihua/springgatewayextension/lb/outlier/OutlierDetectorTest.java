@@ -0,0 +1,128 @@
+package cn.liangjihua.springgatewayextension.lb.outlier;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.CandidateInstances;
+import cn.liangjihua.springgatewayextension.lb.stats.FailureStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutlierDetectorTest {
+    private static final long SECONDS = 1_000_000_000L;
+
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+    @Test
+    void consecutiveFailuresEjectInstance() {
+        OutlierDetector detector = new OutlierDetector(properties(100, Duration.ofSeconds(30)), registry);
+        List<ServiceInstance> candidates = candidates(3);
+        InstanceStats failing = registry.get(candidates.get(0));
+        InstanceStats flaky = registry.get(candidates.get(1));
+
+        fail(detector, failing, 2);
+        assertSame(candidates, detector.filter(candidates));
+        // 成功的请求使连续失败次数清零
+        fail(detector, flaky, 2);
+        detector.onComplete(flaky, false);
+        fail(detector, flaky, 2);
+        assertEquals(0, detector.getEjectedCount());
+
+        fail(detector, failing, 1);
+        assertEquals(1, detector.getEjectedCount());
+        assertEquals(List.of(candidates.get(1), candidates.get(2)), detector.filter(candidates));
+    }
+
+    @Test
+    void ejectedInstanceIsReadmittedAfterEjectionTime() throws InterruptedException {
+        OutlierDetector detector = new OutlierDetector(properties(100, Duration.ofMillis(1)), registry);
+        List<ServiceInstance> candidates = candidates(2);
+        fail(detector, registry.get(candidates.get(0)), 3);
+        assertEquals(1, detector.filter(candidates).size());
+
+        Thread.sleep(20);
+        assertSame(candidates, detector.filter(candidates));
+        assertEquals(0, detector.getEjectedCount());
+    }
+
+    @Test
+    void maxEjectionPercentCapsEjectedCandidates() {
+        OutlierDetector detector = new OutlierDetector(properties(50, Duration.ofSeconds(30)), registry);
+        List<ServiceInstance> candidates = candidates(4);
+        for (ServiceInstance candidate : candidates) {
+            fail(detector, registry.get(candidate), 3);
+        }
+        assertEquals(4, detector.getEjectedCount());
+        assertEquals(2, detector.filter(candidates).size());
+    }
+
+    @Test
+    void ejectionTimeGrowsExponentiallyUpToMax() {
+        FailureStats stats = registry.getOrCreate(instance(1)).getFailureStats();
+        long base = 10 * SECONDS;
+        long max = 60 * SECONDS;
+        long now = 0;
+
+        assertTrue(stats.eject(now, base, max));
+        assertFalse(stats.eject(now, base, max));
+        assertEquals(now + base, stats.getEjectedUntil());
+
+        now = stats.getEjectedUntil();
+        assertTrue(stats.restore(now));
+        stats.eject(now, base, max);
+        assertEquals(now + 2 * base, stats.getEjectedUntil());
+
+        now = stats.getEjectedUntil();
+        stats.restore(now);
+        stats.eject(now, base, max);
+        assertEquals(now + 4 * base, stats.getEjectedUntil());
+
+        now = stats.getEjectedUntil();
+        stats.restore(now);
+        stats.eject(now, base, max);
+        assertEquals(now + max, stats.getEjectedUntil());
+
+        // 恢复后超过最长摘除时间没有再被摘除，摘除时间回到初始值
+        now = stats.getEjectedUntil();
+        stats.restore(now);
+        now += max + 1;
+        stats.eject(now, base, max);
+        assertEquals(now + base, stats.getEjectedUntil());
+    }
+
+    private static void fail(OutlierDetector detector, InstanceStats stats, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.onComplete(stats, true);
+        }
+    }
+
+    private List<ServiceInstance> candidates(int count) {
+        ServiceInstance[] instances = new ServiceInstance[count];
+        for (int i = 0; i < count; i++) {
+            instances[i] = instance(i + 1);
+            registry.getOrCreate(instances[i]);
+        }
+        return CandidateInstances.of(List.of(instances));
+    }
+
+    private static OutlierDetectionProperties properties(int maxEjectionPercent, Duration baseEjectionTime) {
+        OutlierDetectionProperties properties = new OutlierDetectionProperties();
+        properties.setEnabled(true);
+        properties.setConsecutiveFailures(3);
+        properties.setMaxEjectionPercent(maxEjectionPercent);
+        properties.setBaseEjectionTime(baseEjectionTime);
+        return properties;
+    }
+
+    private static ServiceInstance instance(int index) {
+        return new DefaultServiceInstance("test-" + index, "test", "10.0.0." + index, 8080, false);
+    }
+}
@@ -0,0 +1,154 @@
+package cn.liangjihua.springgatewayextension.lb.policy;
+
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashProperties;
+import cn.liangjihua.springgatewayextension.lb.chooser.ConsistentHashRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.chooser.IRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.chooser.LeastRequestRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.chooser.RoundRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.chooser.WeightedRoundRuleChooser;
+import cn.liangjihua.springgatewayextension.lb.locality.LocalityRouter;
+import cn.liangjihua.springgatewayextension.lb.slowstart.SlowStart;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServicePolicyRegistryTest {
+    private static final String SERVICES = "spring.gateway.lb.version.isolation.services.";
+
+    private final MockEnvironment environment = new MockEnvironment();
+
+    private final IRuleChooser defaultChooser = new RoundRuleChooser();
+
+    private ServicePolicyRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        AutowiredAnnotationBeanPostProcessor autowiredProcessor = new AutowiredAnnotationBeanPostProcessor();
+        autowiredProcessor.setBeanFactory(beanFactory);
+        beanFactory.addBeanPostProcessor(autowiredProcessor);
+        beanFactory.registerSingleton("instanceStatsRegistry", new InstanceStatsRegistry());
+        beanFactory.registerSingleton("slowStart", SlowStart.DISABLED);
+        beanFactory.registerSingleton("tenantDirectory", new TenantDirectory());
+        environment.setProperty(SERVICES + "order-service.chooser", LeastRequestRuleChooser.class.getName());
+        environment.setProperty(SERVICES + "order-service.fallback", "NONE");
+        registry = new ServicePolicyRegistry(environment, beanFactory, LocalityRouter.DISABLED, null);
+    }
+
+    @Test
+    void servicesWithoutPolicyUseDefaults() {
+        ServicePolicy policy = registry.getPolicy("user-service", defaultChooser).get();
+        assertSame(defaultChooser, policy.chooser());
+        assertEquals(VersionFallback.LOCAL_THEN_NON_VERSIONED, policy.fallback());
+        assertSame(LocalityRouter.DISABLED, policy.localityRouter());
+    }
+
+    @Test
+    void servicePolicyIsResolvedOnce() {
+        Supplier<ServicePolicy> policy = registry.getPolicy("order-service", defaultChooser);
+        assertInstanceOf(LeastRequestRuleChooser.class, policy.get().chooser());
+        assertEquals(VersionFallback.NONE, policy.get().fallback());
+        assertSame(policy.get(), registry.getPolicy("order-service", defaultChooser).get());
+    }
+
+    @Test
+    void reloadReplacesOnlyChangedPolicies() {
+        Supplier<ServicePolicy> order = registry.getPolicy("order-service", defaultChooser);
+        Supplier<ServicePolicy> product = registry.getPolicy("product-service", defaultChooser);
+        ServicePolicy orderBefore = order.get();
+
+        environment.setProperty(SERVICES + "product-service.chooser", ConsistentHashRuleChooser.class.getName());
+        environment.setProperty(SERVICES + "product-service.consistent-hash.header", "X-Product-Id");
+        registry.onApplicationEvent(new EnvironmentChangeEvent(Set.of(SERVICES + "product-service.chooser",
+            SERVICES + "product-service.consistent-hash.header")));
+
+        assertInstanceOf(ConsistentHashRuleChooser.class, product.get().chooser());
+        assertSame(orderBefore, order.get());
+    }
+
+    @Test
+    void choosersAreCreatedAsBeans() {
+        environment.setProperty(SERVICES + "weighted-service.chooser", WeightedRoundRuleChooser.class.getName());
+        environment.setProperty(SERVICES + "tenant-service.chooser", TenantRuleChooser.class.getName());
+        reload(SERVICES + "weighted-service.chooser", SERVICES + "tenant-service.chooser");
+
+        assertInstanceOf(WeightedRoundRuleChooser.class,
+            registry.getPolicy("weighted-service", defaultChooser).get().chooser());
+        IRuleChooser tenantChooser = registry.getPolicy("tenant-service", defaultChooser).get().chooser();
+        assertInstanceOf(TenantRuleChooser.class, tenantChooser);
+        assertNotNull(((TenantRuleChooser) tenantChooser).directory);
+    }
+
+    @Test
+    void invalidChooserFallsBackToDefault() {
+        environment.setProperty(SERVICES + "missing-service.chooser", "com.example.MissingChooser");
+        environment.setProperty(SERVICES + "string-service.chooser", String.class.getName());
+        reload(SERVICES + "missing-service.chooser", SERVICES + "string-service.chooser");
+
+        assertSame(defaultChooser, registry.getPolicy("missing-service", defaultChooser).get().chooser());
+        assertSame(defaultChooser, registry.getPolicy("string-service", defaultChooser).get().chooser());
+    }
+
+    @Test
+    void registeredFactoryReceivesServiceConsistentHash() {
+        AtomicReference<ConsistentHashProperties> received = new AtomicReference<>();
+        registry.registerFactory(ConsistentHashRuleChooser.class, consistentHash -> {
+            received.set(consistentHash);
+            return new ConsistentHashRuleChooser(consistentHash);
+        });
+        environment.setProperty(SERVICES + "product-service.chooser", ConsistentHashRuleChooser.class.getName());
+        environment.setProperty(SERVICES + "product-service.consistent-hash.header", "X-Product-Id");
+        reload(SERVICES + "product-service.chooser", SERVICES + "product-service.consistent-hash.header");
+
+        assertInstanceOf(ConsistentHashRuleChooser.class,
+            registry.getPolicy("product-service", defaultChooser).get().chooser());
+        assertEquals("X-Product-Id", received.get().getHeader());
+    }
+
+    @Test
+    void globalLocalityChangeRebuildsDefaultRouter() {
+        Supplier<ServicePolicy> user = registry.getPolicy("user-service", defaultChooser);
+        assertSame(LocalityRouter.DISABLED, user.get().localityRouter());
+
+        environment.setProperty("spring.gateway.lb.version.isolation.locality.enabled", "true");
+        registry.onApplicationEvent(new EnvironmentChangeEvent(
+            Set.of("spring.gateway.lb.version.isolation.locality.enabled")));
+
+        assertNotSame(LocalityRouter.DISABLED, user.get().localityRouter());
+        assertTrue(user.get().localityRouter().isEnabled());
+        assertSame(defaultChooser, user.get().chooser());
+    }
+
+    private void reload(String... keys) {
+        registry.onApplicationEvent(new EnvironmentChangeEvent(Set.of(keys)));
+    }
+
+    static class TenantDirectory {
+    }
+
+    /**
+     * 依赖自定义 bean 的选择器
+     */
+    static class TenantRuleChooser extends RoundRuleChooser {
+        private final TenantDirectory directory;
+
+        TenantRuleChooser(TenantDirectory directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.liangjihua.springgatewayextension.lb.recorder;
+
+import cn.liangjihua.springgatewayextension.lb.metrics.RoutingOutcome;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoutingFlightRecorderTest {
+
+    private static final ServiceInstance INSTANCE =
+        new DefaultServiceInstance("a", "user-service", "10.0.0.1", 8080, false);
+
+    @Test
+    void decisionsAreReturnedNewestFirst() {
+        RoutingFlightRecorder recorder = new RoutingFlightRecorder(true, 8, 1);
+        recorder.record("user-service", "v1", RoutingOutcome.VERSION_HIT, INSTANCE, 3, 100);
+        recorder.record("user-service", "v2", RoutingOutcome.NON_VERSIONED_FALLBACK, INSTANCE, 2, 200);
+        recorder.record("order-service", null, RoutingOutcome.EMPTY, null, 0, 300);
+
+        List<RoutingDecision> decisions = recorder.snapshot(decision -> true, 10);
+        assertEquals(3, decisions.size());
+        assertEquals("order-service", decisions.get(0).service());
+        assertNull(decisions.get(0).instance());
+        assertEquals("non_versioned_fallback", decisions.get(1).outcome());
+        assertEquals("10.0.0.1:8080", decisions.get(2).instance());
+    }
+
+    @Test
+    void filterAndLimitAreApplied() {
+        RoutingFlightRecorder recorder = new RoutingFlightRecorder(true, 16, 1);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(i % 2 == 0 ? "user-service" : "order-service", "v1", RoutingOutcome.VERSION_HIT,
+                INSTANCE, 1, i);
+        }
+        List<RoutingDecision> decisions = recorder.snapshot(decision -> "user-service".equals(decision.service()), 3);
+        assertEquals(3, decisions.size());
+        assertEquals(8, decisions.get(0).durationNanos());
+        assertEquals(4, decisions.get(2).durationNanos());
+    }
+
+    @Test
+    void oldDecisionsAreOverwritten() {
+        RoutingFlightRecorder recorder = new RoutingFlightRecorder(true, 4, 1);
+        for (int i = 0; i < 10; i++) {
+            recorder.record("user-service", "v1", RoutingOutcome.VERSION_HIT, INSTANCE, 1, i);
+        }
+        List<RoutingDecision> decisions = recorder.snapshot(decision -> true, 100);
+        assertEquals(4, decisions.size());
+        assertEquals(9, decisions.get(0).durationNanos());
+        assertEquals(6, decisions.get(3).durationNanos());
+    }
+
+    @Test
+    void disabledRecorderKeepsNothing() {
+        RoutingFlightRecorder.DISABLED.record("user-service", "v1", RoutingOutcome.VERSION_HIT, INSTANCE, 1, 1);
+        assertTrue(RoutingFlightRecorder.DISABLED.snapshot(decision -> true, 10).isEmpty());
+    }
+}
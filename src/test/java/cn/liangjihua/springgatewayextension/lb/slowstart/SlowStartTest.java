@@ -0,0 +1,66 @@
+package cn.liangjihua.springgatewayextension.lb.slowstart;
+
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStats;
+import cn.liangjihua.springgatewayextension.lb.stats.InstanceStatsRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SlowStartTest {
+
+    @Test
+    void linearRamp() {
+        SlowStart slowStart = slowStart(SlowStartProperties.Ramp.LINEAR, null);
+        ServiceInstance instance = instance(Map.of());
+        InstanceStats stats = new InstanceStatsRegistry().getOrCreate(instance);
+        long start = stats.getWarmupStartMillis();
+
+        assertEquals(0.1, slowStart.factor(instance, stats, start), 1e-9);
+        assertEquals(0.55, slowStart.factor(instance, stats, start + 50_000), 1e-9);
+        assertEquals(1.0, slowStart.factor(instance, stats, start + 100_000), 1e-9);
+    }
+
+    @Test
+    void exponentialRamp() {
+        SlowStart slowStart = slowStart(SlowStartProperties.Ramp.EXPONENTIAL, null);
+        ServiceInstance instance = instance(Map.of());
+        InstanceStats stats = new InstanceStatsRegistry().getOrCreate(instance);
+        long start = stats.getWarmupStartMillis();
+
+        assertEquals(0.1, slowStart.factor(instance, stats, start), 1e-9);
+        assertEquals(Math.sqrt(0.1), slowStart.factor(instance, stats, start + 50_000), 1e-9);
+        assertEquals(1.0, slowStart.factor(instance, stats, start + 100_000), 1e-9);
+    }
+
+    @Test
+    void reRegistrationRestartsWarmup() {
+        SlowStart slowStart = slowStart(SlowStartProperties.Ramp.LINEAR, "register-time");
+        long now = System.currentTimeMillis();
+        InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+        ServiceInstance registered = instance(Map.of("register-time", String.valueOf(now - 200_000)));
+        InstanceStats stats = registry.getOrCreate(registered);
+        assertEquals(1.0, slowStart.factor(registered, stats, now), 1e-9);
+
+        ServiceInstance reRegistered = instance(Map.of("register-time", String.valueOf(now)));
+        assertEquals(0.1, slowStart.factor(reRegistered, registry.getOrCreate(reRegistered), now), 1e-9);
+    }
+
+    private static SlowStart slowStart(SlowStartProperties.Ramp ramp, String registrationTimeKey) {
+        SlowStartProperties properties = new SlowStartProperties();
+        properties.setEnabled(true);
+        properties.setWindow(Duration.ofSeconds(100));
+        properties.setRamp(ramp);
+        properties.setRegistrationTimeKey(registrationTimeKey);
+        return new SlowStart(properties);
+    }
+
+    private static ServiceInstance instance(Map<String, String> metadata) {
+        return new DefaultServiceInstance("a", "service", "10.0.0.1", 8080, false, metadata);
+    }
+}
@@ -0,0 +1,71 @@
+package cn.liangjihua.springgatewayextension.lb.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistrySnapshotStoreTest {
+
+    @Test
+    void roundTripKeepsVersionMetadata() throws IOException {
+        Map<String, List<ServiceInstance>> snapshot = Map.of("user-service", List.of(
+            instance("10.0.0.1", Map.of("version", "wangxiaohu")),
+            instance("10.0.0.2", Map.of())));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RegistrySnapshotStore.writeTo(out, snapshot, System.currentTimeMillis());
+
+        Map<String, List<ServiceInstance>> read =
+            RegistrySnapshotStore.readFrom(new ByteArrayInputStream(out.toByteArray()), 0);
+        List<ServiceInstance> instances = read.get("user-service");
+        assertEquals(2, instances.size());
+        assertEquals("10.0.0.1", instances.get(0).getHost());
+        assertEquals(8080, instances.get(0).getPort());
+        assertEquals("wangxiaohu", instances.get(0).getMetadata().get("version"));
+        assertTrue(instances.get(1).getMetadata().isEmpty());
+    }
+
+    @Test
+    void corruptedOrExpiredSnapshotIsIgnored() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RegistrySnapshotStore.writeTo(out, Map.of("user-service", List.of(instance("10.0.0.1", Map.of()))), 1000);
+        byte[] bytes = out.toByteArray();
+
+        assertTrue(RegistrySnapshotStore.readFrom(new ByteArrayInputStream(bytes), 2000).isEmpty());
+
+        bytes[bytes.length - 20] ^= 1;
+        assertThrows(IOException.class, () -> RegistrySnapshotStore.readFrom(new ByteArrayInputStream(bytes), 0));
+    }
+
+    @Test
+    void flushWritesRecordedInstances(@TempDir Path dir) {
+        Path file = dir.resolve("registry.snapshot");
+        RegistrySnapshotStore store = new RegistrySnapshotStore(file, Duration.ofHours(1), Duration.ofDays(1));
+        store.afterPropertiesSet();
+        assertNull(store.getSeed("user-service"));
+        store.record("user-service", List.of(instance("10.0.0.1", Map.of("version", "wangxiaohu"))));
+        store.destroy();
+
+        RegistrySnapshotStore restarted = new RegistrySnapshotStore(file, Duration.ofHours(1), Duration.ofDays(1));
+        restarted.afterPropertiesSet();
+        assertEquals("wangxiaohu", restarted.getSeed("user-service").get(0).getMetadata().get("version"));
+        restarted.destroy();
+    }
+
+    private static ServiceInstance instance(String host, Map<String, String> metadata) {
+        return new DefaultServiceInstance(host + ":8080", "user-service", host, 8080, false, metadata);
+    }
+}
@@ -0,0 +1,64 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class InstanceStatsRegistryTest {
+
+    private final InstanceStatsRegistry registry = new InstanceStatsRegistry();
+
+    @Test
+    void sameAddressSharesStats() {
+        InstanceStats stats = registry.getOrCreate(instance("a", "10.0.0.1"));
+        assertSame(stats, registry.getOrCreate(instance("a-restarted", "10.0.0.1")));
+        assertSame(stats, registry.get(instance("a", "10.0.0.1")));
+        assertNull(registry.get(instance("b", "10.0.0.2")));
+    }
+
+    @Test
+    void retainDropsRemovedInstances() {
+        InstanceStats a = registry.getOrCreate(instance("a", "10.0.0.1"));
+        InstanceStats b = registry.getOrCreate(instance("b", "10.0.0.2"));
+        InstanceStats c = registry.getOrCreate(instance("c", "10.0.0.3"));
+
+        registry.retain(List.of(a, b, c), List.of(a, c));
+
+        assertEquals(2, registry.size());
+        assertSame(a, registry.get(instance("a", "10.0.0.1")));
+        assertNull(registry.get(instance("b", "10.0.0.2")));
+        // 被移除的统计仍然可以被正在处理中的请求更新
+        b.decrementInflight();
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void retainKeepsStatsRecreatedForSameAddress() {
+        InstanceStats removed = registry.getOrCreate(instance("a", "10.0.0.1"));
+        registry.retain(List.of(removed), List.of());
+        InstanceStats recreated = registry.getOrCreate(instance("a", "10.0.0.1"));
+        assertNotSame(removed, recreated);
+
+        // 过期的 previous 不能移除重新创建的统计
+        registry.retain(List.of(removed), List.of());
+        assertSame(recreated, registry.get(instance("a", "10.0.0.1")));
+    }
+
+    @Test
+    void retainWithoutPreviousKeepsEverything() {
+        registry.getOrCreate(instance("a", "10.0.0.1"));
+        registry.retain(List.of(), List.of());
+        assertEquals(1, registry.size());
+    }
+
+    private static ServiceInstance instance(String id, String host) {
+        return new DefaultServiceInstance(id, "service", host, 8080, false);
+    }
+}
@@ -0,0 +1,49 @@
+package cn.liangjihua.springgatewayextension.lb.stats;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InstanceStatsTest {
+    private static final long MILLIS = 1_000_000;
+
+    private final InstanceStatsRegistry registry =
+        new InstanceStatsRegistry(Duration.ofMillis(50), InstanceStatsRegistry.DEFAULT_FAILURE_WINDOW);
+
+    private final InstanceStats stats =
+        registry.getOrCreate(new DefaultServiceInstance("a", "test", "10.0.0.1", 8080, false));
+
+    @Test
+    void higherLatencyIsAdoptedImmediately() {
+        stats.observeLatency(10 * MILLIS);
+        stats.observeLatency(100 * MILLIS);
+        double ewma = stats.getLatencyEwma();
+        assertTrue(ewma > 90 * MILLIS && ewma <= 100 * MILLIS, "峰值应当立即生效：" + ewma);
+    }
+
+    @Test
+    void lowerLatencyDecaysGradually() throws InterruptedException {
+        stats.observeLatency(100 * MILLIS);
+        stats.observeLatency(10 * MILLIS);
+        assertTrue(stats.getLatencyEwma() > 50 * MILLIS, "较低的响应时间不应立即生效：" + stats.getLatencyEwma());
+
+        Thread.sleep(300);
+        assertTrue(stats.getLatencyEwma() < 10 * MILLIS, "EWMA 应当随时间衰减：" + stats.getLatencyEwma());
+    }
+
+    @Test
+    void peakEwmaCostAccountsForInflightRequests() {
+        assertEquals(0, stats.getPeakEwmaCost());
+        stats.incrementInflight();
+        assertTrue(stats.getPeakEwmaCost() > 1e12, "没有延迟数据且有请求正在处理时使用惩罚值");
+
+        stats.observeLatency(10 * MILLIS);
+        double ewma = stats.getLatencyEwma();
+        double cost = stats.getPeakEwmaCost();
+        assertTrue(cost >= ewma * 2 * 0.9 && cost <= ewma * 2 * 1.1, "代价为 ewma * (inflight + 1)：" + cost);
+    }
+}
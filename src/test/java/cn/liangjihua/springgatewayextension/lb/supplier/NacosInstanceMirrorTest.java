@@ -0,0 +1,157 @@
+package cn.liangjihua.springgatewayextension.lb.supplier;
+
+import com.alibaba.cloud.nacos.discovery.NacosServiceDiscovery;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.alibaba.nacos.client.naming.event.InstancesChangeEvent;
+import com.alibaba.nacos.common.notify.Event;
+import com.alibaba.nacos.common.notify.listener.Subscriber;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class NacosInstanceMirrorTest {
+    private static final String SERVICE_ID = "service";
+
+    private static final String GROUP = "DEFAULT_GROUP";
+
+    @Test
+    void emitsOnlyWhenMembershipChanges() {
+        LocalNotifyCenter notifyCenter = new LocalNotifyCenter();
+        NacosInstanceMirror mirror = new NacosInstanceMirror(
+            serviceId -> toServiceInstances(List.of(host("10.0.0.1", "v1"))), GROUP);
+        notifyCenter.register(mirror);
+        MirroredServiceInstanceListSupplier supplier = new MirroredServiceInstanceListSupplier(SERVICE_ID, mirror);
+
+        List<ServiceInstance> initial = supplier.get().blockFirst(Duration.ofSeconds(5));
+        assertNotNull(initial);
+        assertEquals(1, initial.size());
+
+        List<List<ServiceInstance>> received = new CopyOnWriteArrayList<>();
+        supplier.get().subscribe(received::add);
+        assertEquals(1, received.size());
+
+        // 成员没有变化，不发出新列表
+        notifyCenter.publish(event(SERVICE_ID, GROUP, host("10.0.0.1", "v1")));
+        assertEquals(1, received.size());
+
+        notifyCenter.publish(event(GROUP + "@@" + SERVICE_ID, GROUP, host("10.0.0.1", "v1"), host("10.0.0.2", "v2")));
+        assertEquals(2, received.size());
+        assertEquals(2, received.get(1).size());
+        assertSame(received.get(1), mirror.getInstances(SERVICE_ID));
+
+        // metadata 变化视为成员变化
+        notifyCenter.publish(event(SERVICE_ID, GROUP, host("10.0.0.1", "v1"), host("10.0.0.2", "v3")));
+        assertEquals(3, received.size());
+    }
+
+    @Test
+    void ignoresUnwatchedServicesAndOtherGroups() {
+        LocalNotifyCenter notifyCenter = new LocalNotifyCenter();
+        NacosInstanceMirror mirror = new NacosInstanceMirror(
+            serviceId -> toServiceInstances(List.of(host("10.0.0.1", "v1"))), GROUP);
+        notifyCenter.register(mirror);
+
+        notifyCenter.publish(event(SERVICE_ID, GROUP, host("10.0.0.1", "v1")));
+        assertEquals(null, mirror.getInstances(SERVICE_ID));
+
+        mirror.watch(SERVICE_ID).blockFirst(Duration.ofSeconds(5));
+        notifyCenter.publish(event(SERVICE_ID, "OTHER_GROUP", host("10.0.0.3", "v1")));
+        assertEquals("10.0.0.1", mirror.getInstances(SERVICE_ID).get(0).getHost());
+    }
+
+    @Test
+    void failedLoadIsRetriedAfterRetryInterval() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        NacosInstanceMirror mirror = new NacosInstanceMirror(serviceId -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("registry unavailable");
+            }
+            return toServiceInstances(List.of(host("10.0.0.1", "v1")));
+        }, GROUP, Duration.ofMillis(200));
+
+        // 加载失败时发出空列表，等待中的请求不会一直挂起
+        assertEquals(List.of(), mirror.watch(SERVICE_ID).blockFirst(Duration.ofSeconds(5)));
+        for (int i = 0; i < 10; i++) {
+            mirror.watch(SERVICE_ID);
+        }
+        assertEquals(1, loads.get());
+
+        Thread.sleep(250);
+        List<ServiceInstance> reloaded = mirror.watch(SERVICE_ID)
+            .filter(instances -> !instances.isEmpty())
+            .blockFirst(Duration.ofSeconds(5));
+        assertNotNull(reloaded);
+        assertEquals(2, loads.get());
+        assertEquals("10.0.0.1", reloaded.get(0).getHost());
+
+        // 加载成功之后不再加载
+        mirror.watch(SERVICE_ID);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void unhealthyInstancesAreExcluded() {
+        LocalNotifyCenter notifyCenter = new LocalNotifyCenter();
+        NacosInstanceMirror mirror = new NacosInstanceMirror(serviceId -> List.of(), GROUP);
+        notifyCenter.register(mirror);
+        mirror.watch(SERVICE_ID).blockFirst(Duration.ofSeconds(5));
+
+        Instance unhealthy = host("10.0.0.2", "v1");
+        unhealthy.setHealthy(false);
+        notifyCenter.publish(event(SERVICE_ID, GROUP, host("10.0.0.1", "v1"), unhealthy));
+        assertEquals(1, mirror.getInstances(SERVICE_ID).size());
+    }
+
+    private static Instance host(String ip, String version) {
+        Instance instance = new Instance();
+        instance.setIp(ip);
+        instance.setPort(8080);
+        instance.setHealthy(true);
+        instance.setEnabled(true);
+        instance.setWeight(1.0);
+        instance.setMetadata(Map.of("version", version));
+        return instance;
+    }
+
+    private static InstancesChangeEvent event(String serviceName, String group, Instance... hosts) {
+        return new InstancesChangeEvent(null, serviceName, group, "", List.of(hosts));
+    }
+
+    private static List<ServiceInstance> toServiceInstances(List<Instance> hosts) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (Instance host : hosts) {
+            instances.add(NacosServiceDiscovery.hostToServiceInstance(host, SERVICE_ID));
+        }
+        return instances;
+    }
+
+    /**
+     * nacos NotifyCenter 的本地替身：同步的将事件分发给订阅了该事件类型的订阅者
+     */
+    private static class LocalNotifyCenter {
+        private final List<Subscriber<? extends Event>> subscribers = new ArrayList<>();
+
+        void register(Subscriber<? extends Event> subscriber) {
+            subscribers.add(subscriber);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        void publish(Event event) {
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.subscribeType().isInstance(event) && subscriber.scopeMatches(event)) {
+                    subscriber.onEvent(event);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cn.liangjihua.springgatewayextension.lb.supplier;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.cache.DefaultLoadBalancerCacheManager;
+import org.springframework.cloud.loadbalancer.cache.LoadBalancerCacheProperties;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.cloud.loadbalancer.core.CachingServiceInstanceListSupplier.SERVICE_INSTANCE_CACHE_NAME;
+
+class SingleFlightServiceInstanceListSupplierTest {
+    private final DefaultLoadBalancerCacheManager cacheManager =
+        new DefaultLoadBalancerCacheManager(new LoadBalancerCacheProperties(), SERVICE_INSTANCE_CACHE_NAME);
+
+    private final CountingSupplier delegate = new CountingSupplier();
+
+    private final SingleFlightServiceInstanceListSupplier supplier =
+        new SingleFlightServiceInstanceListSupplier(delegate, cacheManager, Duration.ofSeconds(30));
+
+    @Test
+    void concurrentMissesShareOneFetch() {
+        List<List<ServiceInstance>> results = Flux.range(0, 50)
+            .flatMap(i -> supplier.get().next())
+            .collectList()
+            .block();
+
+        assertEquals(50, results.size());
+        assertEquals(1, delegate.fetches.get());
+        assertEquals(1, supplier.getFetches());
+        assertEquals(49, supplier.getCoalesced());
+        results.forEach(instances -> assertSame(results.get(0), instances));
+
+        supplier.get().next().block();
+        assertEquals(1, supplier.getCacheHits());
+        assertEquals(1, delegate.fetches.get());
+    }
+
+    @Test
+    void evictionServesStaleWhileRevalidating() {
+        List<ServiceInstance> first = supplier.get().next().block();
+        cacheManager.getCache(SERVICE_INSTANCE_CACHE_NAME).evict("test");
+
+        List<ServiceInstance> stale = supplier.get().next().block();
+        assertSame(first, stale);
+        assertEquals(1, supplier.getStaleServed());
+        assertEquals(2, delegate.fetches.get());
+
+        List<ServiceInstance> refreshed = supplier.get().next().delaySubscription(Duration.ofMillis(200)).block();
+        assertEquals(2, refreshed.size());
+    }
+
+    private static class CountingSupplier implements ServiceInstanceListSupplier {
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        @Override
+        public String getServiceId() {
+            return "test";
+        }
+
+        @Override
+        public Flux<List<ServiceInstance>> get() {
+            return Mono.fromSupplier(() -> {
+                    int fetch = fetches.incrementAndGet();
+                    List<ServiceInstance> instances = new ArrayList<>();
+                    for (int i = 0; i < fetch; i++) {
+                        instances.add(new DefaultServiceInstance("test-" + i, "test", "10.0.0." + i, 8080, false));
+                    }
+                    return instances;
+                })
+                .delayElement(Duration.ofMillis(50))
+                .flux();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cn.liangjihua.springgatewayextension.lb.version;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QueryVersionResolverTest {
+    private static final String KEY = "X-service-version";
+
+    @Test
+    void findParameter() {
+        assertEquals("wangxiaohu", QueryVersionResolver.findParameter("X-service-version=wangxiaohu", KEY));
+        assertEquals("wangxiaohu", QueryVersionResolver.findParameter("a=1&X-service-version=wangxiaohu&b=2", KEY));
+        assertEquals("first", QueryVersionResolver.findParameter("X-service-version=first&X-service-version=2", KEY));
+        assertEquals("", QueryVersionResolver.findParameter("X-service-version=", KEY));
+    }
+
+    @Test
+    void findParameterDecodesOnlyEscapedValues() {
+        assertEquals("王小虎", QueryVersionResolver.findParameter("X-service-version=%E7%8E%8B%E5%B0%8F%E8%99%8E", KEY));
+        assertEquals("a b", QueryVersionResolver.findParameter("X-service-version=a+b", KEY));
+        assertEquals("%zz", QueryVersionResolver.findParameter("X-service-version=%zz", KEY));
+    }
+
+    @Test
+    void findParameterIgnoresOtherKeys() {
+        assertNull(QueryVersionResolver.findParameter(null, KEY));
+        assertNull(QueryVersionResolver.findParameter("", KEY));
+        assertNull(QueryVersionResolver.findParameter("X-service-versions=a", KEY));
+        assertNull(QueryVersionResolver.findParameter("aX-service-version=a", KEY));
+        assertNull(QueryVersionResolver.findParameter("X-service-version", KEY));
+    }
+}